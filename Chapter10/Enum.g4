@@ -1,12 +1,22 @@
 grammar Enum;
-@parser::members {public static boolean java5;}
+@parser::members {
+    /** Whether 'enum' is a keyword (Java 5) or an identifier; each parser has its own. */
+    public boolean java5;
+    /** Where actions print */
+    public java.io.PrintStream out = System.out;
+
+    public EnumParser(TokenStream input, boolean java5) {
+        this(input);
+        this.java5 = java5;
+    }
+}
 
 prog:   (   stat 
         |   enumDecl
         )+
     ;
 
-stat:   id '=' expr ';' {System.out.println($id.text+"="+$expr.text);} ;
+stat:   id '=' expr ';' {out.println($id.text+"="+$expr.text);} ;
 
 expr
     :   id
@@ -15,7 +25,7 @@ expr
 
 enumDecl
     :   {java5}? 'enum' name=id '{' id (',' id)* '}'
-        {System.out.println("enum "+$name.text);}
+        {out.println("enum "+$name.text);}
     ;
 
 id  :   ID
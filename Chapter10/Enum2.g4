@@ -1,12 +1,24 @@
 grammar Enum2;
-@lexer::members {public static boolean java5 = false;}
+@lexer::members {
+    /** Whether 'enum' is a keyword (Java 5) or an identifier; each lexer has its own. */
+    public boolean java5 = false;
+
+    public Enum2Lexer(CharStream input, boolean java5) {
+        this(input);
+        this.java5 = java5;
+    }
+}
+@parser::members {
+    /** Where actions print */
+    public java.io.PrintStream out = System.out;
+}
 
 prog:   (   stat 
         |   enumDecl
         )+
     ;
 
-stat:   ID '=' expr ';' {System.out.println($ID.text+"="+$expr.text);} ;
+stat:   ID '=' expr ';' {out.println($ID.text+"="+$expr.text);} ;
 
 expr:   ID
     |   INT
@@ -15,7 +27,7 @@ expr:   ID
 // No predicate needed here because 'enum' token undefined if !java5
 enumDecl
     :   'enum' name=ID '{' ID (',' ID)* '}'
-        {System.out.println("enum "+$name.text);}
+        {out.println("enum "+$name.text);}
     ;
 
 ENUM:   'enum' {java5}? ; // must be before ID
@@ -0,0 +1,110 @@
+import common.FileErrorListener;
+import common.Inputs;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.antlr.v4.runtime.*;
+
+/**
+ * Parses a batch of files with the `Enum` grammars in parallel, each at its own language level:
+ * Java 5 files may declare enums, while in older files `enum` is an ordinary identifier. The level
+ * is a field of each `EnumParser` (or, with `-lexer`, of each `Enum2Lexer`), so files of both
+ * levels can be parsed at the same time. What each file's actions print is collected and printed
+ * in argument order; syntax errors go to stderr as they happen, prefixed with the file.
+ *
+ * <p>Usage: {@code EnumBatch [-lexer] [-threads n] [-4 | -5 | file]...}; `-4` and `-5` set the
+ * level of the files after them, Java 1.4 to begin with.
+ */
+public class EnumBatch {
+  /**
+   * Parses one input and runs the grammar's actions.
+   * @param input The text to parse.
+   * @param java5 Whether `enum` is a keyword.
+   * @param lexerPredicate Whether to use `Enum2`, whose lexer decides what `enum` is, rather than
+   *     `Enum`, whose parser does.
+   * @param out Where the actions print.
+   * @param errors Receives syntax errors instead of stderr, if not null.
+   */
+  public static void parse(
+      CharStream input,
+      boolean java5,
+      boolean lexerPredicate,
+      PrintStream out,
+      ANTLRErrorListener errors) {
+    Lexer lexer;
+    Parser parser;
+    if (lexerPredicate) {
+      lexer = new Enum2Lexer(input, java5);
+      Enum2Parser p = new Enum2Parser(new CommonTokenStream(lexer));
+      p.out = out;
+      parser = p;
+    } else {
+      lexer = new EnumLexer(input);
+      EnumParser p = new EnumParser(new CommonTokenStream(lexer), java5);
+      p.out = out;
+      parser = p;
+    }
+    if (errors != null) {
+      lexer.removeErrorListeners();
+      lexer.addErrorListener(errors);
+      parser.removeErrorListeners();
+      parser.addErrorListener(errors);
+    }
+    parser.setBuildParseTree(false); // the actions only need the tokens
+    if (lexerPredicate) ((Enum2Parser) parser).prog();
+    else ((EnumParser) parser).prog();
+  }
+
+  public static void main(String[] args) throws Exception {
+    boolean lexerPredicate = false;
+    int threads = Runtime.getRuntime().availableProcessors();
+    boolean java5 = false;
+    List<Path> files = new ArrayList<Path>();
+    List<Boolean> levels = new ArrayList<Boolean>();
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-lexer")) lexerPredicate = true;
+      else if (args[i].equals("-threads")) threads = Integer.parseInt(args[++i]);
+      else if (args[i].equals("-4")) java5 = false;
+      else if (args[i].equals("-5")) java5 = true;
+      else {
+        files.add(Paths.get(args[i]));
+        levels.add(java5);
+      }
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<String>> results = new ArrayList<Future<String>>(files.size());
+      for (int i = 0; i < files.size(); i++) {
+        Path file = files.get(i);
+        boolean level = levels.get(i);
+        boolean lexer = lexerPredicate;
+        results.add(
+            pool.submit(
+                () -> {
+                  ByteArrayOutputStream buf = new ByteArrayOutputStream();
+                  PrintStream out = new PrintStream(buf, false, "UTF-8");
+                  parse(Inputs.fromFile(file), level, lexer, out, new FileErrorListener(file));
+                  out.flush();
+                  return new String(buf.toByteArray(), StandardCharsets.UTF_8);
+                }));
+      }
+      for (int i = 0; i < files.size(); i++) {
+        try {
+          System.out.print(results.get(i).get());
+        } catch (ExecutionException e) {
+          System.err.println(files.get(i) + ": " + e.getCause());
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,151 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.antlr.v4.runtime.*;
+
+/**
+ * Compares the two ways of making `enum` a keyword only in Java 5: `Enum`, where semantic
+ * predicates in the parser decide, and `Enum2`, where a predicate in the lexer decides which token
+ * `enum` is. Both parse generated documents of about `-mb` megabytes at either level, one at a
+ * time and then as a batch mixing both levels on `-threads` threads. The actions' output is
+ * discarded and errors counted, which should stay 0.
+ *
+ * <p>Usage: {@code EnumBench [-mb n] [-threads n]}
+ */
+public class EnumBench {
+  /** @return Statements, plus enum declarations in Java 5, to at least `size` chars. */
+  static String document(boolean java5, int size) {
+    StringBuilder buf = new StringBuilder(size + 64);
+    for (int i = 0; buf.length() < size; i++) {
+      String name = name(i);
+      if (java5 && i % 4 == 3) buf.append("enum ").append(name).append(" { red, green, blue }\n");
+      else if (!java5 && i % 4 == 3) buf.append("enum = ").append(name).append(";\n");
+      else buf.append(name).append(" = ").append(i).append(";\n");
+    }
+    return buf.toString();
+  }
+
+  /** @return A distinct identifier for each `i`; IDs are letters only. */
+  static String name(int i) {
+    StringBuilder buf = new StringBuilder("v");
+    do {
+      buf.append((char) ('a' + i % 26));
+      i /= 26;
+    } while (i > 0);
+    return buf.toString();
+  }
+
+  static final PrintStream DISCARD =
+      new PrintStream(
+          new OutputStream() {
+            @Override
+            public void write(int b) {}
+
+            @Override
+            public void write(byte[] b, int off, int len) {}
+          });
+
+  /** Counts errors without printing them */
+  static class Counter extends BaseErrorListener {
+    int errors;
+
+    @Override
+    public void syntaxError(
+        Recognizer<?, ?> recognizer,
+        Object offendingSymbol,
+        int line,
+        int charPositionInLine,
+        String msg,
+        RecognitionException e) {
+      errors++;
+    }
+  }
+
+  /** @return Errors found parsing `text`. */
+  static int parse(String text, boolean java5, boolean lexerPredicate) {
+    Counter counter = new Counter();
+    EnumBatch.parse(CharStreams.fromString(text), java5, lexerPredicate, DISCARD, counter);
+    return counter.errors;
+  }
+
+  /** @return The fastest of 5 runs of `task` in ms, after 3 to warm up. */
+  static double best(Runnable task) {
+    for (int k = 0; k < 3; k++) task.run();
+    long best = Long.MAX_VALUE;
+    for (int k = 0; k < 5; k++) {
+      long start = System.nanoTime();
+      task.run();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    return best / 1e6;
+  }
+
+  public static void main(String[] args) throws Exception {
+    double mb = 1;
+    int threads = Runtime.getRuntime().availableProcessors();
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      if (args[i].equals("-mb")) mb = Double.parseDouble(args[i + 1]);
+      else if (args[i].equals("-threads")) threads = Integer.parseInt(args[i + 1]);
+      else throw new IllegalArgumentException("unknown option " + args[i]);
+    }
+    int size = (int) (mb * 1024 * 1024);
+    String java4 = document(false, size);
+    String java5 = document(true, size);
+    System.out.printf("%-16s %-6s %10s %8s\n", "grammar", "level", "ms/MB", "errors");
+    for (boolean lexerPredicate : new boolean[] {false, true}) {
+      String grammar = lexerPredicate ? "Enum2 (lexer)" : "Enum (parser)";
+      for (boolean level : new boolean[] {false, true}) {
+        String text = level ? java5 : java4;
+        int[] errors = new int[1];
+        double ms = best(() -> errors[0] = parse(text, level, lexerPredicate));
+        System.out.printf(
+            "%-16s %-6s %10.1f %8d\n", grammar, level ? "java5" : "java4", ms / mb, errors[0]);
+      }
+    }
+
+    // documents alternate between the levels, so parsers of both levels run at the same time
+    int documents = 2 * threads;
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      System.out.printf("\nmixed batch of %d documents on %d threads\n", documents, threads);
+      System.out.printf("%-16s %10s %10s %8s\n", "grammar", "serial ms", "parallel ms", "errors");
+      for (boolean lexerPredicate : new boolean[] {false, true}) {
+        String grammar = lexerPredicate ? "Enum2 (lexer)" : "Enum (parser)";
+        int[] errors = new int[2]; // of the last serial and the last parallel run
+        double serial =
+            best(
+                () -> {
+                  errors[0] = 0;
+                  for (int d = 0; d < documents; d++) {
+                    errors[0] += parse(d % 2 == 0 ? java4 : java5, d % 2 == 1, lexerPredicate);
+                  }
+                });
+        double parallel =
+            best(
+                () -> {
+                  List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+                  for (int d = 0; d < documents; d++) {
+                    boolean level = d % 2 == 1;
+                    String text = level ? java5 : java4;
+                    results.add(pool.submit(() -> parse(text, level, lexerPredicate)));
+                  }
+                  int sum = 0;
+                  try {
+                    for (Future<Integer> r : results) sum += r.get();
+                  } catch (Exception e) {
+                    throw new RuntimeException(e);
+                  }
+                  errors[1] = sum;
+                });
+        System.out.printf(
+            "%-16s %10.1f %10.1f %8d\n", grammar, serial, parallel, errors[0] + errors[1]);
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+}
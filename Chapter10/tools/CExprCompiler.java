@@ -0,0 +1,106 @@
+package tools;
+
+import common.ColumnEval;
+import common.CompileSupport;
+import common.PreparedExpr;
+import java.util.Random;
+import org.antlr.v4.runtime.*;
+
+/**
+ * Compiles a `CExpr` expression into a `PreparedExpr`, which evaluates it without parsing it again
+ * and without the parser's shared memory.
+ */
+public class CExprCompiler {
+  /**
+   * The grammar's actions compute each expression's value while parsing. Compiling must parse
+   * expressions over variables whose values are unknown yet, so this parser's arithmetic does
+   * nothing; in particular it can't divide by zero.
+   */
+  static class Parser extends CExprParser {
+    Parser(TokenStream input) {
+      super(input);
+    }
+
+    @Override
+    int eval(int left, int op, int right) {
+      return 0;
+    }
+  }
+
+  /**
+   * Parses and compiles an expression, such as {@code (price - discount) * qty / 100}.
+   * @param text One expression, without a trailing newline.
+   * @return The prepared expression.
+   * @throws IllegalArgumentException If the text is not exactly one expression, or has an integer
+   *     literal that doesn't fit an int.
+   */
+  public static PreparedExpr compile(String text) {
+    CExprLexer lexer = new CExprLexer(CharStreams.fromString(text));
+    CompileSupport.failFast(lexer);
+    Parser parser = new Parser(new CommonTokenStream(lexer));
+    CompileSupport.failFast(parser);
+    CExprParser.EContext tree;
+    try {
+      tree = parser.e();
+    } catch (NumberFormatException e) { // the INT action's $INT.int, run just after matching it
+      CompileSupport.intLiteral(parser.getTokenStream().LT(-1));
+      throw e; // not from the literal after all
+    }
+    CompileSupport.requireEOF(parser);
+    PreparedExpr.Builder code = new PreparedExpr.Builder();
+    emit(tree, code);
+    return code.build(text);
+  }
+
+  static void emit(CExprParser.EContext ctx, PreparedExpr.Builder code) {
+    if (ctx.op != null) { // a=e op=(...) b=e
+      emit(ctx.a, code);
+      emit(ctx.b, code);
+      code.operator(ctx.op.getText().charAt(0));
+    } else if (ctx.INT() != null) {
+      code.constant(CompileSupport.intLiteral(ctx.INT().getSymbol()));
+    } else if (ctx.ID() != null) {
+      code.variable(ctx.ID().getText());
+    } else { // '(' e ')'
+      emit(ctx.e(0), code);
+    }
+  }
+
+  /**
+   * Usage: {@code CExprCompiler expr [name=value...]}; prints the expression's value. Or {@code
+   * CExprCompiler -rows n expr}, which binds each variable to a column of `n` random values from 1
+   * to 1000, evaluates the expression a row at a time and then with `ColumnEval`, and prints both
+   * times and the sum of the results.
+   */
+  public static void main(String[] args) {
+    if (args[0].equals("-rows")) {
+      benchmark(compile(args[2]), Integer.parseInt(args[1]));
+      return;
+    }
+    System.out.println(compile(args[0]).evaluate(PreparedExpr.parseBindings(args, 1)));
+  }
+
+  static void benchmark(PreparedExpr expr, int rows) {
+    Random random = new Random(42);
+    int[][] columns = new int[expr.getVariables().size()][rows];
+    for (int[] column : columns) {
+      for (int r = 0; r < rows; r++) column[r] = 1 + random.nextInt(1000);
+    }
+    long start = System.nanoTime();
+    int[] values = new int[columns.length];
+    long rowSum = 0;
+    for (int r = 0; r < rows; r++) {
+      for (int v = 0; v < values.length; v++) values[v] = columns[v][r];
+      rowSum += expr.evaluate(values);
+    }
+    long rowTime = System.nanoTime() - start;
+    start = System.nanoTime();
+    int[] result = ColumnEval.evaluate(expr, rows, columns);
+    long columnTime = System.nanoTime() - start;
+    long columnSum = 0;
+    for (int value : result) columnSum += value;
+    System.out.printf(
+        "rows %dms, columns %dms, sums %d %d%n",
+        rowTime / 1000000, columnTime / 1000000, rowSum, columnSum);
+  }
+}
@@ -8,11 +8,13 @@
  ***/
 package tools;
 
+import common.DFACache;
 import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
 import org.antlr.v4.runtime.CommonTokenStream;
 
 public class Calc {
@@ -30,11 +32,13 @@ public class Calc {
 
     tools.CExprParser parser = new tools.CExprParser(null); // share single parser instance
     parser.setBuildParseTree(false); // don't need trees
+    DFACache.register(parser); // not run through Metrics, so bound the caches here
 
     while (expr != null) { // while we have more expressions
       // create new lexer and token stream for each line (expression)
-      ANTLRInputStream input = new ANTLRInputStream(expr + "\n");
+      CharStream input = CharStreams.fromString(expr + "\n");
       tools.CExprLexer lexer = new tools.CExprLexer(input);
+      if (line == 1) DFACache.register(lexer);
       lexer.setLine(line); // notify lexer of input position
       lexer.setCharPositionInLine(0);
       CommonTokenStream tokens = new CommonTokenStream(lexer);
@@ -43,5 +47,6 @@ public class Calc {
       expr = br.readLine(); // see if there's another line
       line++;
     }
+    DFACache.checkpoint();
   }
 }
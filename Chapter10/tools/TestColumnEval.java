@@ -0,0 +1,51 @@
+package tools;
+
+import common.ColumnEval;
+import common.PreparedExpr;
+
+/**
+ * Checks that `ColumnEval` agrees with evaluating each row on its own, in int and in long, where
+ * folded constants overflow an int. Prints each failed check and exits with status 1 if there was
+ * any.
+ */
+public class TestColumnEval {
+  static int failures;
+
+  static void check(String what, long expected, long actual) {
+    if (expected == actual) return;
+    System.err.println(what + ": expected " + expected + " but got " + actual);
+    failures++;
+  }
+
+  public static void main(String[] args) {
+    PreparedExpr expr = CExprCompiler.compile("x + 100000*100000");
+    check("long folding", 10000000001L, ColumnEval.evaluateLong(expr, 1, new long[] {1})[0]);
+    check("int folding", 1 + 100000 * 100000, ColumnEval.evaluate(expr, 1, new int[] {1})[0]);
+    check("row folding", 1 + 100000 * 100000, expr.evaluate(1));
+
+    // 65536*65536 wraps to 0 in int, so only long evaluation can divide by it
+    expr = CExprCompiler.compile("x / (65536*65536)");
+    check("long divisor", 2L, ColumnEval.evaluateLong(expr, 1, new long[] {1L << 33})[0]);
+    try {
+      ColumnEval.evaluate(expr, 1, new int[] {1});
+      System.err.println("int divisor: expected ArithmeticException");
+      failures++;
+    } catch (ArithmeticException e) {
+      // as in row-at-a-time evaluation
+    }
+
+    expr = CExprCompiler.compile("(x - 3) * (200000*200000) / 7 + y");
+    long[] x = new long[5000];
+    long[] y = new long[5000];
+    for (int r = 0; r < x.length; r++) {
+      x[r] = r;
+      y[r] = -r;
+    }
+    long[] wide = ColumnEval.evaluateLong(expr, x.length, x, y);
+    for (int r = 0; r < x.length; r++) {
+      check("row " + r, (x[r] - 3) * 40000000000L / 7 + y[r], wide[r]);
+    }
+    if (failures > 0) System.exit(1);
+    System.out.println("ok");
+  }
+}
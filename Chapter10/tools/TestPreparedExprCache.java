@@ -0,0 +1,110 @@
+package tools;
+
+import common.PreparedExpr;
+import common.PreparedExprCache;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checks that `PreparedExpr` and `PreparedExprCache` can be shared among threads: many threads
+ * evaluate one expression at once, and get more distinct texts from a small cache than it holds,
+ * so entries are evicted and compiled again while others read them. Prints each failed check and
+ * exits with status 1 if there was any.
+ */
+public class TestPreparedExprCache {
+  static final int THREADS = 8;
+  static final int ROUNDS = 5000;
+  static final int TEXTS = 16;
+  static final int MAX_ENTRIES = 8;
+
+  static int failures;
+
+  static void check(String what, long expected, long actual) {
+    if (expected == actual) return;
+    System.err.println(what + ": expected " + expected + " but got " + actual);
+    failures++;
+  }
+
+  /** @return The value of text `k` of the test, `x * k + y / (k + 1)`, in Java arithmetic. */
+  static int expected(int k, int x, int y) {
+    return x * k + y / (k + 1);
+  }
+
+  /** Work for one thread, returning how many wrong values it saw */
+  interface Task {
+    int run(int thread) throws Exception;
+  }
+
+  /** @return The wrong values `task` saw, run on `THREADS` threads released at once. */
+  static long concurrently(Task task) throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+    try {
+      CountDownLatch start = new CountDownLatch(1);
+      List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+      for (int t = 0; t < THREADS; t++) {
+        int thread = t;
+        results.add(pool.submit(() -> {
+          start.await();
+          return task.run(thread);
+        }));
+      }
+      start.countDown();
+      long wrong = 0;
+      for (Future<Integer> f : results) wrong += f.get();
+      return wrong;
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    PreparedExpr shared = CExprCompiler.compile("x * 7 + y / 8");
+    long wrong =
+        concurrently(
+            thread -> {
+              int n = 0;
+              for (int i = 0; i < ROUNDS; i++) {
+                if (shared.evaluate(i, thread - i) != expected(7, i, thread - i)) n++;
+              }
+              return n;
+            });
+    check("wrong values from one shared expression", 0, wrong);
+
+    PreparedExprCache cache = new PreparedExprCache(CExprCompiler::compile, MAX_ENTRIES);
+    wrong =
+        concurrently(
+            thread -> {
+              int n = 0;
+              for (int i = 0; i < ROUNDS; i++) {
+                int k = (thread + i) % TEXTS;
+                PreparedExpr expr = cache.get("x * " + k + " + y / (" + k + " + 1)");
+                if (expr.evaluate(i, -thread) != expected(k, i, -thread)) n++;
+              }
+              return n;
+            });
+    check("wrong values from cached expressions", 0, wrong);
+    check("lookups", (long) THREADS * ROUNDS, cache.getHits() + cache.getMisses());
+    if (cache.size() > MAX_ENTRIES) {
+      System.err.println("cache holds " + cache.size() + " entries, over " + MAX_ENTRIES);
+      failures++;
+    }
+
+    long misses = cache.getMisses();
+    for (int i = 0; i < 2; i++) {
+      try {
+        cache.get("x +");
+        System.err.println("bad text: expected IllegalArgumentException");
+        failures++;
+      } catch (IllegalArgumentException e) {
+        // as from compiling it
+      }
+    }
+    check("misses on bad text, which isn't cached", misses + 2, cache.getMisses());
+    if (failures > 0) System.exit(1);
+    System.out.println("ok");
+  }
+}
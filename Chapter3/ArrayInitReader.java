@@ -0,0 +1,376 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Reads ArrayInit initializers such as `{1,{2,3},4}` straight into int arrays, with no tokens and
+ * no parse tree: the input is scanned once, byte by byte, and each integer lands in one flat
+ * buffer as it is read. This is for large generated lookup tables, where the tree `Translate`
+ * builds and the printf per value `ShortToUnicodeString` does are most of the cost.
+ *
+ * <p>It accepts exactly what ArrayInit.g4 does: braces around one or more comma-separated values,
+ * each an integer or a nested initializer, with spaces, tabs and newlines between tokens. Like the
+ * generated parser, it stops after the outermost `}`. Unlike it, it doesn't recover from errors:
+ * the first one throws `IllegalArgumentException` with its line and column.
+ *
+ * <p>Usage: {@code ArrayInitReader [file]} writes the initializer as a string literal of `\\u`
+ * escapes, the same output as `Translate`, but buffered.
+ */
+public class ArrayInitReader {
+  /**
+   * An initializer read into one flat buffer, with an index of its nested initializers. Those are
+   * numbered in the order their `{` appears, so the outermost is 0.
+   */
+  public static class Table {
+    /** Every integer in order, those of nested initializers included */
+    public final int[] values;
+    /** Where each initializer's values start in `values` */
+    public final int[] start;
+    /** Where each initializer's values end in `values`, exclusive */
+    public final int[] end;
+    /** The initializer each is nested in; -1 for the outermost */
+    public final int[] parent;
+
+    Table(int[] values, int[] start, int[] end, int[] parent) {
+      this.values = values;
+      this.start = start;
+      this.end = end;
+      this.parent = parent;
+    }
+
+    /** @return How many initializers there are, the outermost included. */
+    public int arrays() {
+      return start.length;
+    }
+
+    /**
+     * @param array An initializer's number.
+     * @return Its integers, those nested in it included, in order.
+     */
+    public int[] values(int array) {
+      return Arrays.copyOfRange(values, start[array], end[array]);
+    }
+
+    /** @return The outermost initializer as `toArrays(0)` does. */
+    public Object toArrays() {
+      return toArrays(0);
+    }
+
+    /**
+     * Builds nested arrays for an initializer.
+     * @param array An initializer's number.
+     * @return An `int[]` if it holds only integers, otherwise an `Object[]` whose elements are
+     *     `Integer`s and the arrays of its nested initializers.
+     */
+    public Object toArrays(int array) {
+      int child = array + 1;
+      if (child == arrays() || parent[child] != array) return values(array);
+      int n = 0; // elements: integers directly inside plus nested initializers
+      for (int p = start[array]; p < end[array]; n++) {
+        if (child < arrays() && start[child] == p && parent[child] == array) {
+          p = end[child];
+          child = next(child);
+        } else {
+          p++;
+        }
+      }
+      Object[] elements = new Object[n];
+      child = array + 1;
+      int i = 0;
+      for (int p = start[array]; p < end[array]; i++) {
+        if (child < arrays() && start[child] == p && parent[child] == array) {
+          elements[i] = toArrays(child);
+          p = end[child];
+          child = next(child);
+        } else {
+          elements[i] = values[p++];
+        }
+      }
+      return elements;
+    }
+
+    /** @return The first initializer after `array` that isn't nested in it. */
+    int next(int array) {
+      int k = array + 1;
+      while (k < arrays() && start[k] < end[array]) k++;
+      return k;
+    }
+  }
+
+  /** Receives an initializer as it is read */
+  interface Sink {
+    void open() throws IOException;
+
+    void value(int value) throws IOException;
+
+    void close() throws IOException;
+  }
+
+  /**
+   * Reads one initializer.
+   * @param in The input; not closed, and possibly read past the outermost `}`.
+   * @return The initializer.
+   * @throws IOException If `in` can't be read.
+   * @throws IllegalArgumentException If the input isn't an initializer.
+   */
+  public static Table read(InputStream in) throws IOException {
+    Builder builder = new Builder();
+    read(in, builder);
+    return builder.table();
+  }
+
+  public static Table read(Path file) throws IOException {
+    try (InputStream in = Files.newInputStream(file)) {
+      return read(in);
+    }
+  }
+
+  public static Table read(String text) {
+    try {
+      return read(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+    } catch (IOException e) {
+      throw new IllegalStateException(e); // not from memory
+    }
+  }
+
+  /**
+   * Writes an initializer as a Java string literal of `\\u` escapes, one per integer with at least
+   * four hex digits, as `Translate` does for flat initializers. Nested integers go into the same
+   * string in order; `Translate` has no form for them.
+   * @param in The input; not closed, and possibly read past the outermost `}`.
+   * @param out Where the literal goes; flushed, not closed.
+   * @throws IOException If `in` can't be read or `out` written.
+   * @throws IllegalArgumentException If the input isn't an initializer.
+   */
+  public static void translate(InputStream in, OutputStream out) throws IOException {
+    Escaper escaper = new Escaper(out);
+    read(in, escaper);
+    escaper.flush();
+  }
+
+  /** Fills the flat buffer and the index */
+  static class Builder implements Sink {
+    int[] values = new int[1024];
+    int size;
+    int[] start = new int[16];
+    int[] end = new int[16];
+    int[] parent = new int[16];
+    int arrays;
+    int[] open = new int[16]; // initializers not yet closed, innermost last
+    int depth;
+
+    @Override
+    public void open() {
+      if (arrays == start.length) {
+        start = Arrays.copyOf(start, arrays * 2);
+        end = Arrays.copyOf(end, arrays * 2);
+        parent = Arrays.copyOf(parent, arrays * 2);
+      }
+      if (depth == open.length) open = Arrays.copyOf(open, depth * 2);
+      start[arrays] = size;
+      parent[arrays] = depth > 0 ? open[depth - 1] : -1;
+      open[depth++] = arrays++;
+    }
+
+    @Override
+    public void value(int value) {
+      if (size == values.length) values = Arrays.copyOf(values, size * 2);
+      values[size++] = value;
+    }
+
+    @Override
+    public void close() {
+      end[open[--depth]] = size;
+    }
+
+    Table table() {
+      return new Table(
+          Arrays.copyOf(values, size),
+          Arrays.copyOf(start, arrays),
+          Arrays.copyOf(end, arrays),
+          Arrays.copyOf(parent, arrays));
+    }
+  }
+
+  /** Writes `\\u` escapes into a byte buffer, with quotes around the outermost initializer */
+  static class Escaper implements Sink {
+    static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    final OutputStream out;
+    final byte[] buf = new byte[8192];
+    int size;
+    int depth;
+
+    Escaper(OutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public void open() throws IOException {
+      if (depth++ == 0) put('"');
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (--depth == 0) put('"');
+    }
+
+    @Override
+    public void value(int value) throws IOException {
+      if (size + 10 > buf.length) drain();
+      buf[size++] = '\\';
+      buf[size++] = 'u';
+      int digits = Math.max(4, (35 - Integer.numberOfLeadingZeros(value)) / 4);
+      for (int shift = 4 * (digits - 1); shift >= 0; shift -= 4) {
+        buf[size++] = HEX[(value >>> shift) & 0xf];
+      }
+    }
+
+    void put(char c) throws IOException {
+      if (size == buf.length) drain();
+      buf[size++] = (byte) c;
+    }
+
+    void drain() throws IOException {
+      out.write(buf, 0, size);
+      size = 0;
+    }
+
+    void flush() throws IOException {
+      drain();
+      out.flush();
+    }
+  }
+
+  /** Scans the input in chunks, keeping the line and column for errors */
+  static class Scanner {
+    static final int EOF = -1;
+    static final int INT = -2;
+
+    final InputStream in;
+    final byte[] buf = new byte[65536];
+    int pos;
+    int limit;
+    int line = 1;
+    int lineStart; // where the current line starts in `buf`; negative once it scrolls out
+    int value; // of the last INT
+    int tokenLine;
+    int tokenColumn;
+    String tokenText;
+
+    Scanner(InputStream in) {
+      this.in = in;
+    }
+
+    int peek() throws IOException {
+      if (pos == limit) {
+        lineStart -= limit;
+        pos = limit = 0;
+        int n = in.read(buf);
+        if (n <= 0) return EOF;
+        limit = n;
+      }
+      return buf[pos] & 0xff;
+    }
+
+    /** @return '{', ',', '}', `INT` or `EOF`. */
+    int next() throws IOException {
+      int c;
+      while ((c = peek()) == ' ' || c == '\t' || c == '\r' || c == '\n') {
+        pos++;
+        if (c == '\n') {
+          line++;
+          lineStart = pos;
+        }
+      }
+      tokenLine = line;
+      tokenColumn = pos - lineStart;
+      if (c == EOF) {
+        tokenText = "<EOF>";
+        return EOF;
+      }
+      if (c == '{' || c == ',' || c == '}') {
+        pos++;
+        tokenText = String.valueOf((char) c);
+        return c;
+      }
+      if (c < '0' || c > '9') {
+        pos++;
+        String text =
+            c >= 0x20 && c < 0x7f ? String.valueOf((char) c) : "\\x" + Integer.toHexString(c);
+        throw error("token recognition error at: '" + text + "'");
+      }
+      long v = 0;
+      int digits = 0;
+      while ((c = peek()) >= '0' && c <= '9') {
+        pos++;
+        if (v <= Integer.MAX_VALUE) v = v * 10 + (c - '0'); // past it, only the digits count
+        digits++;
+      }
+      if (v > Integer.MAX_VALUE) {
+        tokenText = digits + " digits";
+        throw error("integer too large: " + tokenText);
+      }
+      value = (int) v;
+      tokenText = Integer.toString(value);
+      return INT;
+    }
+
+    IllegalArgumentException error(String msg) {
+      return new IllegalArgumentException("line " + tokenLine + ":" + tokenColumn + " " + msg);
+    }
+
+    IllegalArgumentException mismatched(String expecting) {
+      return error("mismatched input '" + tokenText + "' expecting " + expecting);
+    }
+  }
+
+  /** Parses one initializer, without recursion so nesting depth is unbounded */
+  static void read(InputStream in, Sink sink) throws IOException {
+    Scanner scanner = new Scanner(in);
+    if (scanner.next() != '{') throw scanner.mismatched("'{'");
+    sink.open();
+    int depth = 1;
+    while (depth > 0) {
+      // a value
+      int t = scanner.next();
+      if (t == '{') {
+        sink.open();
+        depth++;
+        continue;
+      }
+      if (t != Scanner.INT) throw scanner.mismatched("{'{', INT}");
+      sink.value(scanner.value);
+      // then closing braces until a comma or the end
+      while (true) {
+        t = scanner.next();
+        if (t == ',') break;
+        if (t != '}') throw scanner.mismatched("{',', '}'}");
+        sink.close();
+        if (--depth == 0) break;
+      }
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    String inputFile = args.length > 0 ? args[0] : null;
+    OutputStream out = new BufferedOutputStream(System.out, 65536);
+    try (InputStream in =
+        inputFile != null ? Files.newInputStream(Paths.get(inputFile)) : System.in) {
+      translate(in, out);
+    } catch (IllegalArgumentException e) {
+      out.flush();
+      System.err.println(e.getMessage());
+      return;
+    }
+    out.write('\n');
+    out.flush();
+  }
+}
@@ -6,8 +6,8 @@
  * We make no guarantees that this code is fit for any purpose.
  * Visit http://www.pragmaticprogrammer.com/titles/tpantlr2 for more book information.
  ***/
-import java.io.FileInputStream;
-import java.io.InputStream;
+import common.Inputs;
+import common.Metrics;
 import org.antlr.v4.runtime.*;
 import org.antlr.v4.runtime.tree.ParseTree;
 
@@ -19,22 +19,34 @@ public class Calc {
   /**
    * Entry point for the calculator program. Sets up the input stream, lexer, parser, and initiates
    * the parsing and evaluation process.
-   * @param args Command line arguments. If an argument is provided, it's treated as the input file
-   *     path. Otherwise, standard input is used.
+   * @param args Command line arguments: {@code -O} to fold constants and reuse repeated
+   *     sub-expressions, then the input file path. Without a file, standard input is used.
    * @throws Exception If there's an error reading the input file or during parsing/evaluation.
    */
   public static void main(String[] args) throws Exception {
     String inputFile = null;
-    if (args.length > 0) inputFile = args[0];
-    InputStream is = System.in;
-    if (inputFile != null) is = new FileInputStream(inputFile);
-    ANTLRInputStream input = new ANTLRInputStream(is);
+    boolean optimize = false;
+    for (String arg : args) {
+      if (arg.equals("-O")) optimize = true;
+      else inputFile = arg;
+    }
+    Metrics.Run run = Metrics.start("Calc", inputFile);
+    CharStream input = Inputs.open(inputFile);
     LabeledExprLexer lexer = new LabeledExprLexer(input);
-    CommonTokenStream tokens = new CommonTokenStream(lexer);
+    CommonTokenStream tokens = Inputs.tokens(lexer);
+    run.lex(tokens);
     LabeledExprParser parser = new LabeledExprParser(tokens);
-    ParseTree tree = parser.prog(); // parse
+    ParseTree tree = run.parse(parser, parser::prog); // parse
 
-    EvalVisitor eval = new EvalVisitor();
-    eval.visit(tree);
+    EvalVisitor eval;
+    if (optimize) {
+      ExprOptimizer optimizer = new ExprOptimizer();
+      run.walk(() -> optimizer.visit(tree));
+      eval = new OptimizingEvalVisitor(optimizer);
+    } else {
+      eval = new EvalVisitor();
+    }
+    run.walk(() -> eval.visit(tree));
+    run.finish(tree);
   }
 }
@@ -0,0 +1,306 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.antlr.v4.runtime.CommonToken;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ParseTreeVisitor;
+import org.antlr.v4.runtime.tree.TerminalNodeImpl;
+
+/**
+ * An optimization pass that rewrites a `LabeledExpr` tree in place, for `OptimizingEvalVisitor` to
+ * evaluate. Scripts have no control flow, so one pass in evaluation order sees exactly what
+ * evaluation will: it gives every expression a value number, equal for expressions that must have
+ * equal values, and visits return that number. Numbers come from the operator and the operands'
+ * numbers (with `+` and `*` operands in a fixed order). Each assignment gives its variable a new
+ * number, standing for whatever value it gets, so every later expression using the variable gets
+ * new numbers too; an unassigned variable is the constant 0, as in `EvalVisitor`.
+ *
+ * <p>Then
+ *
+ * <ul>
+ *   <li>an expression whose operands are all constant is replaced by an `INT` of its value,
+ *       unless it divides by zero and must still fail when evaluated;
+ *   <li>a `*`, `/`, `+` or `-` expression whose value was computed before by an earlier one
+ *       becomes a `LoadContext` of a slot, and the earlier one is wrapped in a `SaveContext`
+ *       that stores its value there.
+ * </ul>
+ *
+ * Arithmetic is Java int arithmetic, so folded values wrap and divide exactly as `EvalVisitor`'s.
+ */
+public class ExprOptimizer extends LabeledExprBaseVisitor<Integer> {
+  /** Value numbers must fit in 28 bits to pack two of them and an operator into a long key */
+  static final int MAX_NUMBERS = 1 << 28;
+
+  /** A visitor that can evaluate the nodes this pass adds */
+  public interface Visitor<T> extends LabeledExprVisitor<T> {
+    T visitSave(SaveContext ctx);
+
+    T visitLoad(LoadContext ctx);
+  }
+
+  /** Evaluates `expr` and saves its value in `slot` */
+  public static class SaveContext extends LabeledExprParser.ExprContext {
+    public final int slot;
+
+    SaveContext(ParserRuleContext parent, int slot, LabeledExprParser.ExprContext expr) {
+      super(parent, -1);
+      this.slot = slot;
+      start = expr.start;
+      stop = expr.stop;
+      addChild(expr);
+    }
+
+    public LabeledExprParser.ExprContext expr() {
+      return getRuleContext(LabeledExprParser.ExprContext.class, 0);
+    }
+
+    @Override
+    public <T> T accept(ParseTreeVisitor<? extends T> visitor) {
+      if (visitor instanceof Visitor) return ((Visitor<? extends T>) visitor).visitSave(this);
+      return visitor.visitChildren(this);
+    }
+  }
+
+  /** The value saved in `slot` */
+  public static class LoadContext extends LabeledExprParser.ExprContext {
+    public final int slot;
+
+    LoadContext(ParserRuleContext parent, int slot, ParserRuleContext replaced) {
+      super(parent, -1);
+      this.slot = slot;
+      start = replaced.start;
+      stop = replaced.stop;
+    }
+
+    @Override
+    public <T> T accept(ParseTreeVisitor<? extends T> visitor) {
+      if (visitor instanceof Visitor) return ((Visitor<? extends T>) visitor).visitLoad(this);
+      return visitor.visitChildren(this);
+    }
+  }
+
+  /** Value number of each distinct binary expression, by its operator and operand numbers */
+  NumberTable numbers = new NumberTable();
+  /** Value number of each constant */
+  Map<Integer, Integer> constantNumbers = new HashMap<Integer, Integer>();
+  /** Per value number: whether it is constant, and if so its value */
+  boolean[] known = new boolean[256];
+  int[] values = new int[256];
+  /** Per value number: first binary expression computing it, and the slot it is saved in */
+  ParserRuleContext[] first = new ParserRuleContext[256];
+  int[] slotOf = new int[256];
+  int count;
+  /** Value number of each variable since its last assignment */
+  Map<String, Integer> bindings = new HashMap<String, Integer>();
+  int slots;
+  int folded;
+  int reused;
+
+  /**
+   * Open-addressing map from binary expression keys to value numbers, without the boxed keys and
+   * entries a `HashMap` would allocate per expression.
+   */
+  static class NumberTable {
+    long[] keys = new long[1024];
+    int[] numbers = new int[1024];
+    int size;
+
+    /** @return The number of `key`, or -1 if it has none. */
+    int get(long key) {
+      int mask = keys.length - 1;
+      for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+        if (keys[i] == 0) return -1;
+        if (keys[i] == key) return numbers[i];
+      }
+    }
+
+    void put(long key, int number) {
+      if (2 * (size + 1) > keys.length) grow();
+      int mask = keys.length - 1;
+      int i = hash(key) & mask;
+      while (keys[i] != 0) i = (i + 1) & mask;
+      keys[i] = key;
+      numbers[i] = number;
+      size++;
+    }
+
+    void grow() {
+      long[] oldKeys = keys;
+      int[] oldNumbers = numbers;
+      keys = new long[oldKeys.length * 2];
+      numbers = new int[oldKeys.length * 2];
+      size = 0;
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] != 0) put(oldKeys[i], oldNumbers[i]);
+      }
+    }
+
+    static int hash(long key) {
+      long h = key * 0x9E3779B97F4A7C15L;
+      return (int) (h ^ (h >>> 32));
+    }
+  }
+
+  int newNumber() {
+    if (count == MAX_NUMBERS) throw new IllegalStateException("script too large");
+    if (count == values.length) {
+      known = Arrays.copyOf(known, count * 2);
+      values = Arrays.copyOf(values, count * 2);
+      first = Arrays.copyOf(first, count * 2);
+      slotOf = Arrays.copyOf(slotOf, count * 2);
+    }
+    slotOf[count] = -1;
+    return count++;
+  }
+
+  int constant(int value) {
+    Integer n = constantNumbers.get(value);
+    if (n == null) {
+      n = newNumber();
+      known[n] = true;
+      values[n] = value;
+      constantNumbers.put(value, n);
+    }
+    return n;
+  }
+
+  /** @return How many slots `OptimizingEvalVisitor` needs for reused values. */
+  public int getSlots() {
+    return slots;
+  }
+
+  /** @return How many `*`, `/`, `+` and `-` expressions were folded to a constant. */
+  public int getFolded() {
+    return folded;
+  }
+
+  /** @return How many expressions reuse a value computed earlier instead of computing it. */
+  public int getReused() {
+    return reused;
+  }
+
+  static void replace(ParserRuleContext old, ParserRuleContext replacement) {
+    ParserRuleContext parent = old.getParent();
+    parent.children.set(parent.children.indexOf(old), replacement);
+  }
+
+  /**
+   * Replaces `ctx` by an `INT` if its value number `n` is constant. Only the outermost of nested
+   * constant expressions needs replacing, so this is called for statements' expressions and for
+   * the operands of expressions that are not constant themselves.
+   */
+  void fold(LabeledExprParser.ExprContext ctx, int n) {
+    if (!known[n] || ctx instanceof LabeledExprParser.IntContext) return;
+    LabeledExprParser.IntContext literal = new LabeledExprParser.IntContext(ctx);
+    CommonToken token = new CommonToken(LabeledExprParser.INT, Integer.toString(values[n]));
+    literal.addChild(new TerminalNodeImpl(token)).setParent(literal);
+    replace(ctx, literal);
+  }
+
+  /** ID '=' expr NEWLINE */
+  @Override
+  public Integer visitAssign(LabeledExprParser.AssignContext ctx) {
+    LabeledExprParser.ExprContext expr = ctx.expr();
+    int value = visit(expr);
+    fold(expr, value);
+    bindings.put(ctx.ID().getText(), newNumber());
+    return value;
+  }
+
+  /** expr NEWLINE */
+  @Override
+  public Integer visitPrintExpr(LabeledExprParser.PrintExprContext ctx) {
+    LabeledExprParser.ExprContext expr = ctx.expr();
+    int value = visit(expr);
+    fold(expr, value);
+    return value;
+  }
+
+  /** INT */
+  @Override
+  public Integer visitInt(LabeledExprParser.IntContext ctx) {
+    try {
+      return constant(Integer.parseInt(ctx.INT().getText()));
+    } catch (NumberFormatException e) {
+      return newNumber(); // EvalVisitor will throw when it gets here, so it equals nothing
+    }
+  }
+
+  /** ID */
+  @Override
+  public Integer visitId(LabeledExprParser.IdContext ctx) {
+    Integer n = bindings.get(ctx.ID().getText());
+    return n != null ? n : constant(0);
+  }
+
+  /** '(' expr ')' */
+  @Override
+  public Integer visitParens(LabeledExprParser.ParensContext ctx) {
+    return visit(ctx.expr());
+  }
+
+  /** expr op=('*'|'/') expr */
+  @Override
+  public Integer visitMulDiv(LabeledExprParser.MulDivContext ctx) {
+    return binary(ctx, ctx.op.getType(), ctx.expr(0), ctx.expr(1));
+  }
+
+  /** expr op=('+'|'-') expr */
+  @Override
+  public Integer visitAddSub(LabeledExprParser.AddSubContext ctx) {
+    return binary(ctx, ctx.op.getType(), ctx.expr(0), ctx.expr(1));
+  }
+
+  int binary(
+      LabeledExprParser.ExprContext ctx,
+      int op,
+      LabeledExprParser.ExprContext leftExpr,
+      LabeledExprParser.ExprContext rightExpr) {
+    int left = visit(leftExpr);
+    int right = visit(rightExpr);
+    if (known[left] && known[right] && !(op == LabeledExprParser.DIV && values[right] == 0)) {
+      folded++;
+      return constant(apply(op, values[left], values[right]));
+    }
+    fold(leftExpr, left);
+    fold(rightExpr, right);
+    if ((op == LabeledExprParser.ADD || op == LabeledExprParser.MUL) && left > right) {
+      int t = left;
+      left = right;
+      right = t;
+    }
+    long key = ((long) op << 56) | ((long) left << 28) | right; // never 0; op > 0
+    int n = numbers.get(key);
+    if (n < 0) {
+      n = newNumber();
+      numbers.put(key, n);
+      first[n] = ctx;
+      return n;
+    }
+    int slot = slotOf[n];
+    if (slot < 0) {
+      slot = slots++;
+      slotOf[n] = slot;
+      LabeledExprParser.ExprContext earlier = (LabeledExprParser.ExprContext) first[n];
+      SaveContext save = new SaveContext(earlier.getParent(), slot, earlier);
+      replace(earlier, save);
+      earlier.parent = save;
+    }
+    replace(ctx, new LoadContext(ctx.getParent(), slot, ctx));
+    reused++;
+    return n;
+  }
+
+  static int apply(int op, int a, int b) {
+    switch (op) {
+      case LabeledExprParser.MUL:
+        return a * b;
+      case LabeledExprParser.DIV:
+        return a / b;
+      case LabeledExprParser.ADD:
+        return a + b;
+      default:
+        return a - b; // must be SUB
+    }
+  }
+}
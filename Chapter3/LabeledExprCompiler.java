@@ -0,0 +1,68 @@
+import common.CompileSupport;
+import common.PreparedExpr;
+import org.antlr.v4.runtime.*;
+
+/**
+ * Compiles a `LabeledExpr` expression into a `PreparedExpr`, which evaluates it without parsing
+ * it again and without `EvalVisitor`'s shared memory.
+ */
+public class LabeledExprCompiler extends LabeledExprBaseVisitor<Void> {
+  PreparedExpr.Builder code = new PreparedExpr.Builder();
+
+  /**
+   * Parses and compiles an expression, such as {@code (price - discount) * qty / 100}.
+   * @param text One expression, without a trailing newline.
+   * @return The prepared expression.
+   * @throws IllegalArgumentException If the text is not exactly one expression, or has an integer
+   *     literal that doesn't fit an int.
+   */
+  public static PreparedExpr compile(String text) {
+    LabeledExprLexer lexer = new LabeledExprLexer(CharStreams.fromString(text));
+    CompileSupport.failFast(lexer);
+    LabeledExprParser parser = new LabeledExprParser(new CommonTokenStream(lexer));
+    CompileSupport.failFast(parser);
+    LabeledExprParser.ExprContext tree = parser.expr();
+    CompileSupport.requireEOF(parser);
+    LabeledExprCompiler compiler = new LabeledExprCompiler();
+    compiler.visit(tree);
+    return compiler.code.build(text);
+  }
+
+  @Override
+  public Void visitMulDiv(LabeledExprParser.MulDivContext ctx) {
+    visit(ctx.expr(0));
+    visit(ctx.expr(1));
+    code.operator(ctx.op.getText().charAt(0));
+    return null;
+  }
+
+  @Override
+  public Void visitAddSub(LabeledExprParser.AddSubContext ctx) {
+    visit(ctx.expr(0));
+    visit(ctx.expr(1));
+    code.operator(ctx.op.getText().charAt(0));
+    return null;
+  }
+
+  @Override
+  public Void visitInt(LabeledExprParser.IntContext ctx) {
+    code.constant(CompileSupport.intLiteral(ctx.INT().getSymbol()));
+    return null;
+  }
+
+  @Override
+  public Void visitId(LabeledExprParser.IdContext ctx) {
+    code.variable(ctx.ID().getText());
+    return null;
+  }
+
+  @Override
+  public Void visitParens(LabeledExprParser.ParensContext ctx) {
+    return visit(ctx.expr());
+  }
+
+  /** Usage: {@code LabeledExprCompiler expr [name=value...]}; prints the expression's value. */
+  public static void main(String[] args) {
+    System.out.println(compile(args[0]).evaluate(PreparedExpr.parseBindings(args, 1)));
+  }
+}
@@ -0,0 +1,26 @@
+/**
+ * An `EvalVisitor` for trees rewritten by `ExprOptimizer`: it also evaluates the nodes that save a
+ * value for reuse and those that load it again. Output is the same as `EvalVisitor`'s on the
+ * original tree.
+ */
+public class OptimizingEvalVisitor extends EvalVisitor implements ExprOptimizer.Visitor<Integer> {
+  /** Values of expressions that are reused later */
+  final int[] saved;
+
+  /** @param optimizer The optimizer that has rewritten the tree this visitor will evaluate. */
+  public OptimizingEvalVisitor(ExprOptimizer optimizer) {
+    this.saved = new int[optimizer.getSlots()];
+  }
+
+  @Override
+  public Integer visitSave(ExprOptimizer.SaveContext ctx) {
+    int value = visit(ctx.expr());
+    saved[ctx.slot] = value;
+    return value;
+  }
+
+  @Override
+  public Integer visitLoad(ExprOptimizer.LoadContext ctx) {
+    return saved[ctx.slot];
+  }
+}
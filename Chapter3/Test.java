@@ -6,6 +6,7 @@
  * We make no guarantees that this code is fit for any purpose.
  * Visit http://www.pragmaticprogrammer.com/titles/tpantlr2 for more book information.
  ***/
+import common.Inputs;
 // import ANTLR's runtime libraries
 import org.antlr.v4.runtime.*;
 import org.antlr.v4.runtime.tree.*;
@@ -13,13 +14,13 @@ import org.antlr.v4.runtime.tree.*;
 public class Test {
   public static void main(String[] args) throws Exception {
     // create a CharStream that reads from standard input
-    ANTLRInputStream input = new ANTLRInputStream(System.in);
+    CharStream input = Inputs.stdin();
 
     // create a lexer that feeds off of input CharStream
     ArrayInitLexer lexer = new ArrayInitLexer(input);
 
     // create a buffer of tokens pulled from the lexer
-    CommonTokenStream tokens = new CommonTokenStream(lexer);
+    CommonTokenStream tokens = Inputs.tokens(lexer);
 
     // create a parser that feeds off the tokens buffer
     ArrayInitParser parser = new ArrayInitParser(tokens);
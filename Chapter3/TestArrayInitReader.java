@@ -0,0 +1,54 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Checks ArrayInitReader against what ArrayInit.g4 accepts: nested initializers, integers up to
+ * `Integer.MAX_VALUE`, and errors with line and column for anything else, integers too large for
+ * an int included however many digits they have. Prints each failed check and exits with status 1
+ * if there was any.
+ */
+public class TestArrayInitReader {
+  static int failures;
+
+  static void check(String what, Object expected, Object actual) {
+    if (expected.equals(actual)) return;
+    System.err.println(what + ": expected " + expected + " but got " + actual);
+    failures++;
+  }
+
+  /** @return The error message reading `text` gives, or "no error". */
+  static String error(String text) {
+    try {
+      ArrayInitReader.read(text);
+      return "no error";
+    } catch (IllegalArgumentException e) {
+      return e.getMessage();
+    }
+  }
+
+  static String translate(String text) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ArrayInitReader.translate(
+        new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), out);
+    return out.toString(StandardCharsets.UTF_8);
+  }
+
+  public static void main(String[] args) throws IOException {
+    ArrayInitReader.Table t = ArrayInitReader.read("{1, {2, 3}, 4}");
+    check("values", "[1, 2, 3, 4]", Arrays.toString(t.values));
+    check("initializers", 2, t.arrays());
+    check("nested", "[2, 3]", Arrays.toString(t.values(1)));
+    check("translate", "\"\\u0001\\u0002\\u0003\\u0004\"", translate("{1,{2,3},4}"));
+    int[] largest = ArrayInitReader.read("{2147483647}").values;
+    check("largest int", "[2147483647]", Arrays.toString(largest));
+    check("int overflow", "line 1:1 integer too large: 10 digits", error("{2147483648}"));
+    check("long overflow", "line 1:1 integer too large: 19 digits", error("{9999999999999999999}"));
+    check("past long", "line 1:1 integer too large: 20 digits", error("{99999999999999999999}"));
+    check("error position", "line 2:1 mismatched input '}' expecting {'{', INT}", error("{1,\n }"));
+    if (failures > 0) System.exit(1);
+    System.out.println("ok");
+  }
+}
@@ -6,17 +6,32 @@
  * We make no guarantees that this code is fit for any purpose.
  * Visit http://www.pragmaticprogrammer.com/titles/tpantlr2 for more book information.
  ***/
-import org.antlr.v4.runtime.ANTLRInputStream;
-import org.antlr.v4.runtime.CommonTokenStream;
+import common.DFACache;
+import common.Inputs;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.TokenStream;
 
+/** Usage: {@code Col [-lowmem] column [file]}; reads standard input if there is no file. */
 public class Col {
   public static void main(String[] args) throws Exception {
-    ANTLRInputStream input = new ANTLRInputStream(System.in);
+    boolean lowmem = false; // keep a sliding window of tokens instead of all of them
+    String column = null;
+    String inputFile = null;
+    for (String arg : args) {
+      if (arg.equals("-lowmem")) lowmem = true;
+      else if (column == null) column = arg;
+      else inputFile = arg;
+    }
+    CharStream input = inputFile != null ? Inputs.open(inputFile) : Inputs.stdin();
     RowsLexer lexer = new RowsLexer(input);
-    CommonTokenStream tokens = new CommonTokenStream(lexer);
-    int col = Integer.valueOf(args[0]);
+    // the row actions print each field as soon as it is matched, so nothing looks back
+    TokenStream tokens = lowmem ? Inputs.streamingTokens(lexer) : Inputs.tokens(lexer);
+    int col = Integer.valueOf(column);
     RowsParser parser = new RowsParser(tokens, col); // pass column number!
     parser.setBuildParseTree(false); // don't waste time bulding a tree
+    DFACache.register(lexer); // not run through Metrics, so bound the caches here
+    DFACache.register(parser);
     parser.file(); // parse
+    DFACache.checkpoint();
   }
 }
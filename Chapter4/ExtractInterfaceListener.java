@@ -6,15 +6,132 @@
  * We make no guarantees that this code is fit for any purpose.
  * Visit http://www.pragmaticprogrammer.com/titles/tpantlr2 for more book information.
  ***/
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
 import org.antlr.v4.runtime.TokenStream;
 
 /**
  * A listener that extends `JavaBaseListener` to extract a Java interface definition from a parsed
- * Java class. It prints the import statements, and generates an interface with the same class name
- * prefixed by 'I', containing all public methods of the original class.
+ * Java class. It collects the import statements, and generates an interface with the same class
+ * name prefixed by 'I', containing all public methods of the original class. The extracted
+ * interfaces are gathered in a `Result` so callers decide when and where to print them.
  */
 public class ExtractInterfaceListener extends JavaBaseListener {
+  /** An interface extracted from one class declaration */
+  public static class Interface {
+    public final String name;
+    /** Method signatures, e.g. "void f(int x, String y)" */
+    public final List<String> methods = new ArrayList<String>();
+    /** Interfaces extracted from classes nested in this one */
+    public final List<Interface> nested = new ArrayList<Interface>();
+    /** For each nested interface, how many of `methods` are declared before it */
+    public final List<Integer> nestedAt = new ArrayList<Integer>();
+
+    public Interface(String name) {
+      this.name = name;
+    }
+
+    /** Adds an interface nested after the methods declared so far */
+    void addNested(Interface i) {
+      nestedAt.add(methods.size());
+      nested.add(i);
+    }
+
+    /** Prints methods and nested interfaces in declaration order */
+    void print(PrintStream out) {
+      out.println("interface " + name + " {");
+      int m = 0;
+      for (int k = 0; k < nested.size(); k++) {
+        for (; m < nestedAt.get(k); m++) out.println("\t" + methods.get(m) + ";");
+        nested.get(k).print(out);
+      }
+      for (; m < methods.size(); m++) out.println("\t" + methods.get(m) + ";");
+      out.println("}");
+    }
+
+    void write(DataOutputStream out) throws IOException {
+      out.writeUTF(name);
+      writeStrings(out, methods);
+      out.writeInt(nested.size());
+      for (int k = 0; k < nested.size(); k++) {
+        out.writeInt(nestedAt.get(k));
+        nested.get(k).write(out);
+      }
+    }
+
+    static Interface read(DataInputStream in) throws IOException {
+      Interface i = new Interface(in.readUTF());
+      readStrings(in, i.methods);
+      int n = in.readInt();
+      for (int k = 0; k < n; k++) {
+        i.nestedAt.add(in.readInt());
+        i.nested.add(read(in));
+      }
+      return i;
+    }
+  }
+
+  /** Everything extracted from one compilation unit */
+  public static class Result {
+    public final List<String> imports = new ArrayList<String>();
+    /** Interfaces for the top-level classes, in source order */
+    public final List<Interface> interfaces = new ArrayList<Interface>();
+
+    /**
+     * Prints the imports followed by each interface, in the same form the listener used to print
+     * while walking.
+     * @param out Where to print.
+     */
+    public void print(PrintStream out) {
+      for (String i : imports) out.println(i);
+      for (Interface i : interfaces) i.print(out);
+    }
+  }
+
+  /** Encodes results for `ParseCache` so unchanged files need not be parsed again */
+  public static final ParseCache.Codec<Result> CODEC =
+      new ParseCache.Codec<Result>() {
+        public byte[] encode(Result result) throws IOException {
+          ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+          DataOutputStream out = new DataOutputStream(bytes);
+          writeStrings(out, result.imports);
+          out.writeInt(result.interfaces.size());
+          for (Interface i : result.interfaces) i.write(out);
+          return bytes.toByteArray();
+        }
+
+        public Result decode(byte[] bytes) throws IOException {
+          DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+          Result result = new Result();
+          readStrings(in, result.imports);
+          int n = in.readInt();
+          for (int k = 0; k < n; k++) result.interfaces.add(Interface.read(in));
+          return result;
+        }
+      };
+
+  static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+    out.writeInt(strings.size());
+    for (String s : strings) out.writeUTF(s);
+  }
+
+  static void readStrings(DataInputStream in, List<String> strings) throws IOException {
+    int n = in.readInt();
+    for (int k = 0; k < n; k++) strings.add(in.readUTF());
+  }
+
   JavaParser parser;
+  Result result = new Result();
+  /** Interfaces of the classes currently being walked, innermost on top */
+  Deque<Interface> classes = new ArrayDeque<Interface>();
 
   /**
    * Constructs a new `ExtractInterfaceListener`.
@@ -25,46 +142,54 @@ public class ExtractInterfaceListener extends JavaBaseListener {
     this.parser = parser;
   }
 
+  /** @return The imports and interfaces collected so far. */
+  public Result getResult() {
+    return result;
+  }
+
   /** Listen to matches of classDeclaration */
   /**
-   * Called when the listener enters an import declaration. Prints the full import statement to
-   * standard output.
+   * Called when the listener enters an import declaration. Records the full import statement.
    * @param ctx The parse tree context for the import declaration.
    */
   @Override
   public void enterImportDeclaration(JavaParser.ImportDeclarationContext ctx) {
-    System.out.println(parser.getTokenStream().getText(ctx));
+    result.imports.add(parser.getTokenStream().getText(ctx));
   }
 
   /**
-   * Called when the listener enters a class declaration. Prints the beginning of the interface
-   * definition, using the original class name prefixed with 'I'.
+   * Called when the listener enters a class declaration. Starts a new interface named after the
+   * original class prefixed with 'I', nested in the interface of the enclosing class if any.
    * @param ctx The parse tree context for the class declaration.
    */
   @Override
   public void enterClassDeclaration(JavaParser.ClassDeclarationContext ctx) {
-    System.out.println("interface I" + ctx.Identifier() + " {");
+    Interface i = new Interface("I" + ctx.Identifier());
+    if (classes.isEmpty()) result.interfaces.add(i);
+    else classes.peek().addNested(i);
+    classes.push(i);
   }
 
   /**
-   * Called when the listener exits a class declaration. Prints the closing brace '}' for the
-   * interface definition.
+   * Called when the listener exits a class declaration. Closes the interface definition.
    * @param ctx The parse tree context for the class declaration.
    */
   @Override
   public void exitClassDeclaration(JavaParser.ClassDeclarationContext ctx) {
-    System.out.println("}");
+    classes.pop();
   }
 
   /** Listen to matches of methodDeclaration */
   /**
    * Called when the listener enters a method declaration. Extracts the method's type, name, and
-   * formal parameters, and prints the method signature as part of the interface definition. If the
-   * method has no explicit type, 'void' is assumed.
+   * formal parameters, and adds the method signature to the interface of the enclosing class. If
+   * the method has no explicit type, 'void' is assumed. Methods of enum bodies have no enclosing
+   * class and are skipped.
    * @param ctx The parse tree context for the method declaration.
    */
   @Override
   public void enterMethodDeclaration(JavaParser.MethodDeclarationContext ctx) {
+    if (classes.isEmpty()) return;
     // need parser to get tokens
     TokenStream tokens = parser.getTokenStream();
     String type = "void";
@@ -72,6 +197,6 @@ public class ExtractInterfaceListener extends JavaBaseListener {
       type = tokens.getText(ctx.type());
     }
     String args = tokens.getText(ctx.formalParameters());
-    System.out.println("\t" + type + " " + ctx.Identifier() + args + ";");
+    classes.peek().methods.add(type + " " + ctx.Identifier() + args);
   }
 }
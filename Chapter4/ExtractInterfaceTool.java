@@ -6,29 +6,103 @@
  * We make no guarantees that this code is fit for any purpose.
  * Visit http://www.pragmaticprogrammer.com/titles/tpantlr2 for more book information.
  ***/
+import common.Inputs;
+import common.Metrics;
+import common.ParseDaemon;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
-import org.antlr.v4.runtime.ANTLRInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.tree.*;
 
 public class ExtractInterfaceTool {
+  /** Cache namespace; bump when the listener's output or the encoding changes */
+  static final String CACHE_NAMESPACE = "extract2";
+
+  /**
+   * Extracts the interfaces of one file, or fetches them from the cache when a file with the same
+   * content was seen before.
+   * @param file Used for error messages.
+   * @param content The bytes of the file.
+   * @param worker Lexer and parser to use on a cache miss.
+   * @param cache The cache, or null to always parse.
+   */
+  static ExtractInterfaceListener.Result extract(
+      Path file, byte[] content, JavaBatch.Worker worker, ParseCache cache) throws Exception {
+    ParseCache.Compute<ExtractInterfaceListener.Result> compute =
+        () -> {
+          ParseTree tree =
+              worker.parse(file, Inputs.decode(content, file.toString()));
+          ExtractInterfaceListener extractor = new ExtractInterfaceListener(worker.parser);
+          worker.metrics.walk(() -> ParseTreeWalker.DEFAULT.walk(extractor, tree));
+          return extractor.getResult();
+        };
+    if (cache == null) return compute.compute();
+    String hash = ParseCache.sha256(content);
+    return cache.computeIfAbsent(CACHE_NAMESPACE, hash, ExtractInterfaceListener.CODEC, compute);
+  }
+
+  /**
+   * Extracts interfaces from every .java file under a directory using all available cores.
+   * Results are printed in sorted file order, each preceded by a comment naming its file.
+   * @param dir The root of the source tree.
+   * @param cache Cache of earlier results, or null.
+   * @return The number of files that could not be processed.
+   */
+  static int extractTree(File dir, ParseCache cache) throws Exception {
+    List<Path> files = JavaBatch.findJavaFiles(dir.toPath());
+    int threads = Runtime.getRuntime().availableProcessors();
+    JavaBatch batch = new JavaBatch(threads, "ExtractInterfaceTool");
+    return batch.runJobs(
+        files,
+        (file, worker) -> extract(file, Files.readAllBytes(file), worker, cache),
+        (file, result) -> {
+          System.out.println("// " + file);
+          result.print(System.out);
+        });
+  }
+
   public static void main(String[] args) throws Exception {
     String inputFile = null;
-    if (args.length > 0) inputFile = args[0];
-    InputStream is = System.in;
-    if (inputFile != null) {
-      is = new FileInputStream(inputFile);
+    ParseCache cache = null;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-cache") && i + 1 < args.length) {
+        cache = new ParseCache(Paths.get(args[++i]), ParseCache.DEFAULT_MAX_BYTES);
+      } else {
+        inputFile = args[i];
+      }
+    }
+    if (inputFile != null && new File(inputFile).isDirectory()) {
+      int failures = extractTree(new File(inputFile), cache);
+      if (failures > 0) ParseDaemon.exit(1);
+      return;
+    }
+    if (cache != null) {
+      InputStream is = inputFile != null ? new FileInputStream(inputFile) : System.in;
+      Path file = Paths.get(inputFile != null ? inputFile : "<stdin>");
+      JavaBatch.Worker worker = new JavaBatch.Worker("ExtractInterfaceTool");
+      extract(file, is.readAllBytes(), worker, cache).print(System.out);
+      worker.finish();
+      return;
     }
-    ANTLRInputStream input = new ANTLRInputStream(is);
+    Metrics.Run run = Metrics.start("ExtractInterfaceTool", inputFile);
+    CharStream input = Inputs.open(inputFile);
 
     JavaLexer lexer = new JavaLexer(input);
-    CommonTokenStream tokens = new CommonTokenStream(lexer);
+    CommonTokenStream tokens = Inputs.tokens(lexer);
+    run.lex(tokens);
     JavaParser parser = new JavaParser(tokens);
-    ParseTree tree = parser.compilationUnit(); // parse
+    ParseTree tree = run.parse(parser, parser::compilationUnit); // parse
 
     ParseTreeWalker walker = new ParseTreeWalker(); // create standard walker
     ExtractInterfaceListener extractor = new ExtractInterfaceListener(parser);
-    walker.walk(extractor, tree); // initiate walk of tree with listener
+    run.walk(() -> walker.walk(extractor, tree)); // initiate walk of tree with listener
+    run.finish(tree);
+    extractor.getResult().print(System.out);
   }
 }
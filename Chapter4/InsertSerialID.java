@@ -6,32 +6,262 @@
  * We make no guarantees that this code is fit for any purpose.
  * Visit http://www.pragmaticprogrammer.com/titles/tpantlr2 for more book information.
  ***/
+import common.Inputs;
+import common.Metrics;
+import common.ParseDaemon;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import org.antlr.v4.runtime.ANTLRInputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.stream.Collectors;
+import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.tree.*;
 
 public class InsertSerialID {
+  /** Name of the file, kept in the tree root, holding the content hash of each file after a run */
+  public static final String STATE_FILE = ".insertserialid.sha256";
+
+  /** Outcome of rewriting one file */
+  static class Rewrite {
+    String hash; // of the content now on disk
+    boolean written;
+
+    Rewrite(String hash, boolean written) {
+      this.hash = hash;
+      this.written = written;
+    }
+  }
+
+  /** Cache namespace; bump when the listener's edits or their encoding change */
+  static final String CACHE_NAMESPACE = "serialid4";
+
+  /**
+   * Computes the edits InsertSerialIDListener makes to one file, or fetches them from the cache
+   * when a file with the same content was seen before.
+   * @param file Used for error messages.
+   * @param content The bytes of the file.
+   * @param worker Lexer and parser to use on a cache miss.
+   * @param cache The cache, or null to always parse.
+   * @throws IllegalArgumentException If the file has syntax errors; the edits made to the tree
+   *     recovered from them are not trusted, nor cached.
+   */
+  static TextEdits findEdits(Path file, byte[] content, JavaBatch.Worker worker, ParseCache cache)
+      throws Exception {
+    ParseCache.Compute<TextEdits> compute =
+        () -> {
+          ParseTree tree =
+              worker.parse(file, Inputs.decodeExact(content, file.toString()));
+          int errors = worker.syntaxErrors();
+          if (errors > 0) {
+            throw new IllegalArgumentException(errors + " syntax errors; not rewritten");
+          }
+          InsertSerialIDListener extractor =
+              new InsertSerialIDListener(worker.parser.getTokenStream());
+          worker.metrics.walk(() -> ParseTreeWalker.DEFAULT.walk(extractor, tree));
+          return extractor.rewriter.getEdits();
+        };
+    if (cache == null) return compute.compute();
+    String hash = ParseCache.sha256(content);
+    return cache.computeIfAbsent(CACHE_NAMESPACE, hash, TextEdits.CODEC, compute);
+  }
+
+  /**
+   * Rewrites every .java file under a directory in place. Files whose content hash matches the one
+   * recorded by the previous run are not parsed at all, and files the listener leaves unchanged
+   * are not written. Changed files are streamed into a temporary file and replaced atomically, so
+   * an interrupted run never leaves a half-written source file behind. Files that can't be read
+   * or have syntax errors count as failures: they are left alone and not recorded, so the next run
+   * tries them again.
+   * @param dir The root of the source tree.
+   * @param cache Cache of edits for previously seen content, or null.
+   * @return The number of files that could not be processed.
+   */
+  static int rewriteTree(File dir, ParseCache cache) throws Exception {
+    Path root = dir.toPath();
+    Path stateFile = root.resolve(STATE_FILE);
+    Map<String, String> previous = loadState(stateFile);
+    Map<String, String> state = new TreeMap<String, String>();
+
+    List<Path> files = JavaBatch.findJavaFiles(root);
+    List<Path> changed =
+        files.parallelStream()
+            .filter(
+                f -> {
+                  String key = root.relativize(f).toString();
+                  String hash;
+                  try {
+                    hash = ParseCache.sha256(Files.readAllBytes(f));
+                  } catch (IOException e) {
+                    return true; // the job fails on it too, and counts it
+                  }
+                  if (!hash.equals(previous.get(key))) return true;
+                  synchronized (state) {
+                    state.put(key, hash); // same as last run; nothing to do
+                  }
+                  return false;
+                })
+            .collect(Collectors.toList());
+
+    int[] written = new int[1];
+    JavaBatch batch = new JavaBatch(Runtime.getRuntime().availableProcessors(), "InsertSerialID");
+    int failures =
+        batch.runJobs(
+            changed,
+            (file, worker) -> {
+              byte[] content = Files.readAllBytes(file);
+              TextEdits edits = findEdits(file, content, worker, cache);
+              if (edits.isEmpty()) return new Rewrite(ParseCache.sha256(content), false);
+              CharStream source = Inputs.decodeExact(content, file.toString());
+              String hash =
+                  writeAtomically(
+                      file,
+                      out -> {
+                        Writer w = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                        edits.writeTo(source, w);
+                        w.flush();
+                      });
+              return new Rewrite(hash, true);
+            },
+            (file, result) -> {
+              state.put(root.relativize(file).toString(), result.hash);
+              if (result.written) written[0]++;
+            });
+
+    saveState(stateFile, state);
+    System.err.printf(
+        "%d files, %d changed since last run, %d rewritten, %d failed\n",
+        files.size(), changed.size(), written[0], failures);
+    return failures;
+  }
+
+  /** Writes the new content of a file */
+  interface Content {
+    void writeTo(OutputStream out) throws IOException;
+  }
+
+  /** Write to a temporary file next to `file` then rename it over `file` */
+  static void writeAtomically(Path file, byte[] bytes) throws IOException {
+    writeAtomically(file, out -> out.write(bytes));
+  }
+
+  /**
+   * Streams new content into a temporary file next to `file` then renames it over `file`.
+   * @param file The file to replace.
+   * @param content Writes the new content; the stream is buffered, and closed afterwards.
+   * @return The SHA-256 of what was written, as `ParseCache.sha256` gives it.
+   */
+  static String writeAtomically(Path file, Content content) throws IOException {
+    Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+    try {
+      MessageDigest digest = ParseCache.newSha256();
+      try (OutputStream out =
+          new DigestOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)), digest)) {
+        content.writeTo(out);
+      }
+      if (Files.exists(file)) copyPermissions(file, tmp);
+      Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      return ParseCache.hex(digest.digest());
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  /** Temp files are created owner-only; give the replacement the permissions of the original */
+  static void copyPermissions(Path from, Path to) throws IOException {
+    try {
+      Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+    } catch (UnsupportedOperationException e) {
+      // not a POSIX file system; the default permissions are all we can do
+    }
+  }
+
+  /** State file lines are "hash path", path relative to the tree root */
+  static Map<String, String> loadState(Path stateFile) throws IOException {
+    Map<String, String> state = new HashMap<String, String>();
+    if (!Files.exists(stateFile)) return state;
+    for (String line : Files.readAllLines(stateFile, StandardCharsets.UTF_8)) {
+      int sp = line.indexOf(' ');
+      if (sp > 0) state.put(line.substring(sp + 1), line.substring(0, sp));
+    }
+    return state;
+  }
+
+  static void saveState(Path stateFile, Map<String, String> state) throws IOException {
+    StringBuilder buf = new StringBuilder();
+    for (Map.Entry<String, String> e : state.entrySet()) {
+      buf.append(e.getValue()).append(' ').append(e.getKey()).append('\n');
+    }
+    writeAtomically(stateFile, buf.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
   public static void main(String[] args) throws Exception {
     String inputFile = null;
-    if (args.length > 0) inputFile = args[0];
-    InputStream is = System.in;
-    if (inputFile != null) {
-      is = new FileInputStream(inputFile);
+    ParseCache cache = null;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-cache") && i + 1 < args.length) {
+        cache = new ParseCache(Paths.get(args[++i]), ParseCache.DEFAULT_MAX_BYTES);
+      } else {
+        inputFile = args[i];
+      }
+    }
+    if (inputFile != null && new File(inputFile).isDirectory()) {
+      int failures = rewriteTree(new File(inputFile), cache);
+      if (failures > 0) ParseDaemon.exit(1);
+      return;
+    }
+    if (cache != null) {
+      InputStream is = inputFile != null ? new FileInputStream(inputFile) : System.in;
+      byte[] content = is.readAllBytes();
+      Path file = Paths.get(inputFile != null ? inputFile : "<stdin>");
+      JavaBatch.Worker worker = new JavaBatch.Worker("InsertSerialID");
+      TextEdits edits;
+      try {
+        edits = findEdits(file, content, worker, cache);
+      } catch (IllegalArgumentException e) {
+        System.err.println(file + ": " + e.getMessage());
+        ParseDaemon.exit(1);
+        return;
+      } finally {
+        worker.finish();
+      }
+      Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+      edits.writeTo(Inputs.decodeExact(content, file.toString()), out);
+      out.write(System.lineSeparator());
+      out.flush();
+      return;
     }
-    ANTLRInputStream input = new ANTLRInputStream(is);
+    Metrics.Run run = Metrics.start("InsertSerialID", inputFile);
+    CharStream input = Inputs.openFully(inputFile); // the output is copied from it
 
     JavaLexer lexer = new JavaLexer(input);
-    CommonTokenStream tokens = new CommonTokenStream(lexer);
+    CommonTokenStream tokens = Inputs.tokens(lexer);
+    run.lex(tokens);
     JavaParser parser = new JavaParser(tokens);
-    ParseTree tree = parser.compilationUnit(); // parse
+    ParseTree tree = run.parse(parser, parser::compilationUnit); // parse
 
     ParseTreeWalker walker = new ParseTreeWalker(); // create standard walker
     InsertSerialIDListener extractor = new InsertSerialIDListener(tokens);
-    walker.walk(extractor, tree); // initiate walk of tree with listener
+    run.walk(() -> walker.walk(extractor, tree)); // initiate walk of tree with listener
+    run.finish(tree);
 
     // print back ALTERED stream
-    System.out.println(extractor.rewriter.getText());
+    Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+    extractor.rewriter.writeTo(out);
+    out.write(System.lineSeparator());
+    out.flush();
   }
 }
@@ -7,18 +7,31 @@
  * Visit http://www.pragmaticprogrammer.com/titles/tpantlr2 for more book information.
  ***/
 import org.antlr.v4.runtime.TokenStream;
-import org.antlr.v4.runtime.TokenStreamRewriter;
 
 public class InsertSerialIDListener extends JavaBaseListener {
-  TokenStreamRewriter rewriter;
+  StreamingRewriter rewriter;
 
   public InsertSerialIDListener(TokenStream tokens) {
-    rewriter = new TokenStreamRewriter(tokens);
+    rewriter = new StreamingRewriter(tokens);
   }
 
   @Override
   public void enterClassBody(JavaParser.ClassBodyContext ctx) {
+    if (declaresSerialVersionUID(ctx)) return; // from an earlier run, or written by hand
     String field = "\n\tpublic static final long serialVersionUID = 1L;";
     rewriter.insertAfter(ctx.start, field);
   }
+
+  /** @return Whether the class body already has a `serialVersionUID` field. */
+  static boolean declaresSerialVersionUID(JavaParser.ClassBodyContext ctx) {
+    for (JavaParser.ClassBodyDeclarationContext d : ctx.classBodyDeclaration()) {
+      JavaParser.MemberContext m = d.member();
+      if (m == null || m.fieldDeclaration() == null) continue;
+      for (JavaParser.VariableDeclaratorContext v :
+          m.fieldDeclaration().variableDeclarators().variableDeclarator()) {
+        if (v.variableDeclaratorId().getStart().getText().equals("serialVersionUID")) return true;
+      }
+    }
+    return false;
+  }
 }
@@ -0,0 +1,194 @@
+import common.ErrorStrategies;
+import common.FileErrorListener;
+import common.Inputs;
+import common.Metrics;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+/**
+ * Runs a task over every .java file of a source tree using a fixed pool of worker threads. Each
+ * worker keeps its own `JavaLexer` and `JavaParser` and points them at the next file instead of
+ * constructing new ones; the DFA caches behind them are shared by all workers. Results are handed
+ * back in file order no matter which worker finished first.
+ */
+public class JavaBatch {
+  /** Work done for one parsed file on a worker thread */
+  public interface FileTask<R> {
+    R process(Path file, JavaParser parser, ParseTree tree) throws Exception;
+  }
+
+  /** Work done for one file on a worker thread, which decides itself whether to parse it */
+  public interface FileJob<R> {
+    R process(Path file, Worker worker) throws Exception;
+  }
+
+  /** Receives task results on the calling thread, in file order */
+  public interface ResultSink<R> {
+    void accept(Path file, R result) throws Exception;
+  }
+
+  /**
+   * A lexer/parser pair reused for every file a worker thread parses. System property
+   * `parse.errors` selects an `ErrorStrategies` mode, e.g. {@code -Dparse.errors=bounded:10}, so a
+   * tree full of malformed files fails fast instead of recovering from every error.
+   */
+  public static class Worker {
+    JavaLexer lexer = new JavaLexer(null);
+    public JavaParser parser = new JavaParser(null);
+    String tool;
+    /** Measurements for the file being processed; time tasks spend on the tree with `walk` */
+    public Metrics.Run metrics;
+    ParseTree tree;
+    FileErrorListener errors;
+
+    /** @param tool Name metrics are recorded under. */
+    public Worker(String tool) {
+      this.tool = tool;
+    }
+
+    /**
+     * Parses one file with this worker's lexer and parser.
+     * @param file Used for error messages.
+     * @param input The content of `file`.
+     * @return The compilation unit; `parser` holds its token stream until the next call.
+     */
+    public ParseTree parse(Path file, CharStream input) throws Exception {
+      finish(); // a worker may parse several files in one job
+      metrics = Metrics.start(tool, file.toString());
+      lexer.setInputStream(input);
+      CommonTokenStream tokens = new CommonTokenStream(lexer);
+      parser.setInputStream(tokens);
+      errors = new FileErrorListener(file); // report errors with the file name
+      lexer.removeErrorListeners();
+      lexer.addErrorListener(errors);
+      parser.removeErrorListeners();
+      parser.addErrorListener(errors);
+      ErrorStrategies.install(lexer, parser, System.getProperty("parse.errors", "default"));
+      metrics.lex(tokens);
+      tree = metrics.parse(parser, parser::compilationUnit);
+      return tree;
+    }
+
+    /** @return Lexer and parser errors in the file parsed last. */
+    public int syntaxErrors() {
+      return errors != null ? errors.getErrors() : 0;
+    }
+
+    /** Records the metrics of the file parsed last, if not done yet */
+    public void finish() {
+      if (metrics != null) metrics.finish(tree);
+      metrics = null;
+      tree = null;
+    }
+  }
+
+  /** Files queued or running per worker thread, ahead of the one whose result is next */
+  static final int WINDOW_PER_THREAD = 4;
+
+  int threads;
+  ThreadLocal<Worker> workers;
+
+  /**
+   * Constructs a batch runner.
+   * @param threads Number of worker threads; each holds one lexer and one parser.
+   * @param tool Name metrics are recorded under.
+   */
+  public JavaBatch(int threads, String tool) {
+    this.threads = threads;
+    workers = ThreadLocal.withInitial(() -> new Worker(tool));
+  }
+
+  /**
+   * Finds all .java files under a directory.
+   * @param root The directory to search recursively.
+   * @return The files sorted by path, so output order does not depend on the file system.
+   * @throws IOException If the directory cannot be walked.
+   */
+  public static List<Path> findJavaFiles(Path root) throws IOException {
+    try (Stream<Path> paths = Files.walk(root)) {
+      return paths
+          .filter(p -> Files.isRegularFile(p) && p.toString().endsWith(".java"))
+          .sorted()
+          .collect(Collectors.toList());
+    }
+  }
+
+  /**
+   * Parses each file on the worker pool and runs `task` on its tree. A file whose parse or task
+   * throws is reported on stderr and skipped; the remaining files are still processed.
+   * @param files The files to process; results are delivered in this order.
+   * @param task Work to run on each parsed file. It runs concurrently with other files and must
+   *     not share mutable state with them.
+   * @param sink Receives each result on the calling thread.
+   * @return The number of files that failed.
+   * @throws Exception If the sink throws.
+   */
+  public <R> int run(List<Path> files, FileTask<R> task, ResultSink<R> sink) throws Exception {
+    return runJobs(
+        files,
+        (file, w) -> {
+          ParseTree tree = w.parse(file, Inputs.fromFile(file));
+          return w.metrics.walk(() -> task.process(file, w.parser, tree));
+        },
+        sink);
+  }
+
+  /**
+   * Runs `job` for each file on the worker pool. Unlike `run`, the job gets the worker itself and
+   * can skip parsing, e.g. when a cached result is available.
+   * @param files The files to process; results are delivered in this order.
+   * @param job Work to run for each file.
+   * @param sink Receives each result on the calling thread.
+   * @return The number of files that failed.
+   * @throws Exception If the sink throws.
+   */
+  public <R> int runJobs(List<Path> files, FileJob<R> job, ResultSink<R> sink) throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      // only a window of files is in flight, so finished results don't pile up behind a slow one
+      int window = WINDOW_PER_THREAD * threads;
+      Deque<Future<R>> pending = new ArrayDeque<Future<R>>(window);
+      int submitted = 0;
+      int failures = 0;
+      for (int i = 0; i < files.size(); i++) {
+        for (; submitted < files.size() && submitted - i < window; submitted++) {
+          Path file = files.get(submitted);
+          pending.add(
+              pool.submit(
+                  () -> {
+                    Worker w = workers.get();
+                    try {
+                      return job.process(file, w);
+                    } finally {
+                      w.finish();
+                    }
+                  }));
+        }
+        R r;
+        try {
+          r = pending.poll().get();
+        } catch (ExecutionException e) {
+          System.err.println(files.get(i) + ": " + e.getCause());
+          failures++;
+          continue;
+        }
+        sink.accept(files.get(i), r);
+      }
+      return failures;
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,182 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A size-bounded on-disk cache of per-file tool results keyed by the SHA-256 of the input content.
+ * Each entry is one file in the cache directory named `namespace-hash`. Entries are kept in least
+ * recently used order, which survives between runs through the files' modification times; when
+ * the total size exceeds the limit the oldest entries are deleted. Safe to share among threads.
+ */
+public class ParseCache {
+  /** Default size limit of a cache directory */
+  public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+  /** Converts a tool result to and from the bytes stored in the cache */
+  public interface Codec<R> {
+    byte[] encode(R result) throws IOException;
+
+    R decode(byte[] bytes) throws IOException;
+  }
+
+  /** Produces a result on a cache miss */
+  public interface Compute<R> {
+    R compute() throws Exception;
+  }
+
+  Path dir;
+  long maxBytes;
+  long totalBytes;
+  /** Entry name to size in bytes, least recently used first */
+  Map<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+  /**
+   * Opens (creating if needed) a cache directory and indexes the entries already in it.
+   * @param dir The cache directory.
+   * @param maxBytes Total size above which least recently used entries are evicted.
+   * @throws IOException If the directory cannot be created or listed.
+   */
+  public ParseCache(Path dir, long maxBytes) throws IOException {
+    this.dir = dir;
+    this.maxBytes = maxBytes;
+    Files.createDirectories(dir);
+    List<Path> existing = new ArrayList<Path>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+      for (Path f : files) {
+        if (!f.getFileName().toString().endsWith(".tmp")) existing.add(f);
+      }
+    }
+    existing.sort((a, b) -> lastModified(a).compareTo(lastModified(b)));
+    for (Path f : existing) {
+      long size = Files.size(f);
+      entries.put(f.getFileName().toString(), size);
+      totalBytes += size;
+    }
+  }
+
+  /**
+   * Looks up the cached result for some content and marks it most recently used.
+   * @param namespace Distinguishes tools (and encodings) sharing one directory.
+   * @param hash The SHA-256 of the input content.
+   * @return The stored bytes, or null on a miss.
+   */
+  public byte[] get(String namespace, String hash) {
+    String name = namespace + "-" + hash;
+    synchronized (this) {
+      if (!entries.containsKey(name)) return null;
+      entries.get(name); // access moves it to the end of the LRU order
+    }
+    Path f = dir.resolve(name);
+    try {
+      byte[] bytes = Files.readAllBytes(f);
+      Files.setLastModifiedTime(f, FileTime.fromMillis(System.currentTimeMillis()));
+      return bytes;
+    } catch (IOException e) {
+      forget(name); // evicted or removed behind our back
+      return null;
+    }
+  }
+
+  /**
+   * Stores the result for some content, then evicts least recently used entries until the cache
+   * fits its size limit again.
+   * @param namespace Distinguishes tools (and encodings) sharing one directory.
+   * @param hash The SHA-256 of the input content.
+   * @param bytes The encoded result.
+   * @throws IOException If the entry cannot be written.
+   */
+  public void put(String namespace, String hash, byte[] bytes) throws IOException {
+    String name = namespace + "-" + hash;
+    Path tmp = Files.createTempFile(dir, name, ".tmp");
+    try {
+      Files.write(tmp, bytes);
+      Files.move(
+          tmp, dir.resolve(name), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+    List<String> evicted = new ArrayList<String>();
+    synchronized (this) {
+      Long old = entries.put(name, (long) bytes.length);
+      totalBytes += bytes.length - (old != null ? old : 0);
+      Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+      while (totalBytes > maxBytes && it.hasNext()) {
+        Map.Entry<String, Long> e = it.next();
+        if (e.getKey().equals(name)) continue; // never evict what we just stored
+        totalBytes -= e.getValue();
+        evicted.add(e.getKey());
+        it.remove();
+      }
+    }
+    for (String e : evicted) Files.deleteIfExists(dir.resolve(e));
+  }
+
+  /**
+   * Returns the cached result for some content, computing and storing it on a miss. An entry that
+   * fails to decode is treated as a miss.
+   * @param namespace Distinguishes tools (and encodings) sharing one directory.
+   * @param hash The SHA-256 of the input content.
+   * @param codec Converts the result to and from bytes.
+   * @param compute Produces the result on a miss, typically by lexing, parsing and walking.
+   * @return The cached or freshly computed result.
+   * @throws Exception If `compute` throws or the new entry cannot be written.
+   */
+  public <R> R computeIfAbsent(String namespace, String hash, Codec<R> codec, Compute<R> compute)
+      throws Exception {
+    byte[] bytes = get(namespace, hash);
+    if (bytes != null) {
+      try {
+        return codec.decode(bytes);
+      } catch (IOException e) {
+        forget(namespace + "-" + hash);
+      }
+    }
+    R r = compute.compute();
+    put(namespace, hash, codec.encode(r));
+    return r;
+  }
+
+  synchronized void forget(String name) {
+    Long size = entries.remove(name);
+    if (size != null) totalBytes -= size;
+  }
+
+  static FileTime lastModified(Path f) {
+    try {
+      return Files.getLastModifiedTime(f);
+    } catch (IOException e) {
+      return FileTime.fromMillis(0); // vanished; sort it first so it is evicted first
+    }
+  }
+
+  /** @return The lowercase hex SHA-256 digest of `bytes`. */
+  public static String sha256(byte[] bytes) {
+    return hex(newSha256().digest(bytes));
+  }
+
+  /** @return A fresh SHA-256 digest, for content hashed as it is streamed. */
+  static MessageDigest newSha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e); // every JVM must provide SHA-256
+    }
+  }
+
+  /** @return `digest` in lowercase hex, as `sha256` gives it. */
+  static String hex(byte[] digest) {
+    StringBuilder buf = new StringBuilder(digest.length * 2);
+    for (byte b : digest) buf.append(String.format("%02x", b));
+    return buf.toString();
+  }
+}
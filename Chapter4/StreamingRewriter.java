@@ -0,0 +1,142 @@
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenStream;
+
+/**
+ * Edits a token stream the way `TokenStreamRewriter` does, for transforms that make thousands of
+ * edits to one file. `TokenStreamRewriter` keeps a plain list of operations and reconciles them
+ * when asked for text, comparing every operation with every earlier one, then builds the whole
+ * result in one `StringBuilder`. Here each edit is recorded in `TextEdits` by the offsets of its
+ * tokens in the input, which keeps them sorted as they are made, so a conflict is found with a
+ * lookup when the edit is made rather than at the end, and `writeTo` streams the result to a
+ * `Writer` in one pass over the input. The same `TextEdits`, from `getEdits`, can be cached and
+ * applied to the input again without tokens.
+ *
+ * <p>The rules are those of `TextEdits`, with tokens for offsets: `insertBefore` a token inserts
+ * at its start, `insertAfter` at the end, and `replace` covers the tokens' text. Where
+ * `TokenStreamRewriter` is inconsistent this isn't: inserts before a replaced range keep the
+ * order they would have before a token, and merged deletes don't break later edits. Edits are
+ * checked as they are made, so some that `TokenStreamRewriter` accepts because a later replace
+ * supersedes them throw here; see `TextEdits`.
+ *
+ * <p>The output is the input text rather than the tokens' text, so input the lexer skipped or
+ * dropped while recovering from an error is kept, and the input must be one whose text can be
+ * read back, not an `UnbufferedCharStream`.
+ */
+public class StreamingRewriter {
+  final TokenStream tokens;
+  final TextEdits edits = new TextEdits();
+
+  public StreamingRewriter(TokenStream tokens) {
+    this.tokens = tokens;
+  }
+
+  public TokenStream getTokenStream() {
+    return tokens;
+  }
+
+  /** @return The edits, by code point offset into the input. */
+  public TextEdits getEdits() {
+    return edits;
+  }
+
+  public void insertBefore(Token t, String text) {
+    insertBefore(t.getTokenIndex(), text);
+  }
+
+  public void insertBefore(int index, String text) {
+    insert(index, tokens.get(index).getStartIndex(), text, false);
+  }
+
+  public void insertAfter(Token t, String text) {
+    insertAfter(t.getTokenIndex(), text);
+  }
+
+  public void insertAfter(int index, String text) {
+    insert(index, tokens.get(index).getStopIndex() + 1, text, true);
+  }
+
+  void insert(int index, int offset, String text, boolean after) {
+    try {
+      edits.insert(offset, text, after);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("insert at token " + index + ": " + e.getMessage());
+    }
+  }
+
+  public void replace(Token t, String text) {
+    replace(t.getTokenIndex(), t.getTokenIndex(), text);
+  }
+
+  public void replace(Token from, Token to, String text) {
+    replace(from.getTokenIndex(), to.getTokenIndex(), text);
+  }
+
+  /**
+   * Replaces a range of tokens.
+   * @param from Index of the first token replaced.
+   * @param to Index of the last, inclusive.
+   * @param text The replacement; null deletes the tokens.
+   * @throws IllegalArgumentException If the range is invalid, has no text, or overlaps another
+   *     replace without covering it.
+   */
+  public void replace(int from, int to, String text) {
+    if (from > to || from < 0 || to >= tokens.size()) {
+      throw new IllegalArgumentException(
+          "replace: range invalid: " + from + ".." + to + "(size=" + tokens.size() + ")");
+    }
+    int start = tokens.get(from).getStartIndex();
+    int stop = tokens.get(to).getStopIndex();
+    if (stop < start) {
+      throw new IllegalArgumentException("replace: no text in tokens " + from + ".." + to);
+    }
+    try {
+      edits.replace(start, stop, text);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException(
+          "replace of tokens " + from + ".." + to + ": " + e.getMessage());
+    }
+  }
+
+  public void delete(Token t) {
+    replace(t, null);
+  }
+
+  public void delete(Token from, Token to) {
+    replace(from, to, null);
+  }
+
+  public void delete(int from, int to) {
+    replace(from, to, null);
+  }
+
+  /** @return How many inserts and replaces are pending. */
+  public int size() {
+    return edits.size();
+  }
+
+  /**
+   * Writes the edited input, then any text inserted after its end.
+   * @param out Where it goes; not flushed or closed.
+   * @throws IOException If `out` can't be written.
+   */
+  public void writeTo(Writer out) throws IOException {
+    CharStream input = tokens.getTokenSource().getInputStream();
+    edits.writeTo(input, out);
+  }
+
+  /** @return The edited text, as `writeTo` writes it. */
+  public String getText() {
+    StringWriter buf = new StringWriter();
+    try {
+      writeTo(buf);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e); // not from a StringWriter
+    }
+    return buf.toString();
+  }
+}
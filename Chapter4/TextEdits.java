@@ -0,0 +1,255 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.misc.Interval;
+
+/**
+ * Edits to a text recorded by code point offset into it: insertions before an offset and
+ * replacements of ranges. Unlike the operations inside a `TokenStreamRewriter`, they do not refer
+ * to tokens, so they can be stored in a `ParseCache` and applied to the same content later without
+ * lexing or parsing it again; `StreamingRewriter` records them by token. They are kept sorted by
+ * offset as they are made, so a conflict is found with a lookup when the edit is made, and
+ * `writeTo` streams the edited text in one pass over the original.
+ *
+ * <p>The rules follow `TokenStreamRewriter`'s, with offsets for token indexes:
+ *
+ * <ul>
+ *   <li>Text inserted at the same offset comes out latest first when inserted before what
+ *       follows, and in the order inserted when inserted after what precedes.
+ *   <li>Text inserted at the start of a replaced range comes before the replacement.
+ *   <li>A replace covering earlier replaces entirely supersedes them, and drops inserts within
+ *       its range other than at its start; overlapping deletes merge.
+ *   <li>Otherwise a replace overlapping another, or an insert within a replaced range other than
+ *       at its start, throws `IllegalArgumentException`.
+ * </ul>
+ *
+ * Each edit is checked against the edits already made. `TokenStreamRewriter` checks only when
+ * asked for text, so it accepts an insert within a replaced range, or a replace overlapping
+ * another, if a later replace covers them both; here the first of those throws at once.
+ */
+public class TextEdits {
+  /** Encodes edits for `ParseCache` */
+  public static final ParseCache.Codec<TextEdits> CODEC =
+      new ParseCache.Codec<TextEdits>() {
+        public byte[] encode(TextEdits edits) throws IOException {
+          ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+          DataOutputStream out = new DataOutputStream(bytes);
+          out.writeInt(edits.inserts.size());
+          for (Map.Entry<Integer, Inserts> e : edits.inserts.entrySet()) {
+            out.writeInt(e.getKey());
+            out.writeBoolean(e.getValue().lastAfter);
+            out.writeInt(e.getValue().texts.size());
+            for (String text : e.getValue().texts) out.writeUTF(text);
+          }
+          out.writeInt(edits.replaces.size());
+          for (Replace r : edits.replaces.values()) {
+            out.writeInt(r.from);
+            out.writeInt(r.to);
+            out.writeBoolean(r.text != null);
+            if (r.text != null) out.writeUTF(r.text);
+          }
+          return bytes.toByteArray();
+        }
+
+        public TextEdits decode(byte[] bytes) throws IOException {
+          DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+          TextEdits edits = new TextEdits();
+          for (int n = in.readInt(); n > 0; n--) {
+            int offset = in.readInt();
+            Inserts at = new Inserts();
+            at.lastAfter = in.readBoolean();
+            for (int k = in.readInt(); k > 0; k--) at.texts.addLast(in.readUTF());
+            edits.inserts.put(offset, at);
+          }
+          for (int n = in.readInt(); n > 0; n--) {
+            int from = in.readInt();
+            int to = in.readInt();
+            String text = in.readBoolean() ? in.readUTF() : null;
+            edits.replaces.put(from, new Replace(from, to, text));
+          }
+          return edits;
+        }
+      };
+
+  /** Texts to insert at one offset, in output order */
+  static class Inserts {
+    final ArrayDeque<String> texts = new ArrayDeque<String>(2);
+    boolean lastAfter; // whether the latest was inserted after what precedes
+
+    void add(String text, boolean after) {
+      if (lastAfter) texts.addLast(text);
+      else texts.addFirst(text);
+      lastAfter = after;
+    }
+  }
+
+  /** A range of code points replaced by text, or deleted when the text is null */
+  static class Replace {
+    final int from;
+    final int to;
+    final String text;
+
+    Replace(int from, int to, String text) {
+      this.from = from;
+      this.to = to;
+      this.text = text;
+    }
+  }
+
+  final NavigableMap<Integer, Inserts> inserts = new TreeMap<Integer, Inserts>();
+  final NavigableMap<Integer, Replace> replaces = new TreeMap<Integer, Replace>();
+
+  /**
+   * Records an insertion after what precedes `offset`: insertions at the same offset are applied
+   * in the order recorded, as `TokenStreamRewriter.insertAfter` does.
+   * @param offset Code point index in the original input before which `text` goes.
+   * @param text The text to insert.
+   * @throws IllegalArgumentException If `offset` is within a replaced range.
+   */
+  public void insert(int offset, String text) {
+    insert(offset, text, true);
+  }
+
+  /**
+   * Records an insertion.
+   * @param offset Code point index in the original input before which `text` goes.
+   * @param text The text to insert.
+   * @param after Whether it goes after what precedes `offset`, as `insertAfter` does, rather than
+   *     before what follows, as `insertBefore` does.
+   * @throws IllegalArgumentException If `offset` is within a replaced range.
+   */
+  public void insert(int offset, String text, boolean after) {
+    if (offset < 0) throw new IllegalArgumentException("insert at negative offset " + offset);
+    Replace r = replaceCovering(offset);
+    if (r != null && r.from != offset) {
+      throw new IllegalArgumentException(
+          "insert at offset " + offset + " within replaced range " + r.from + ".." + r.to);
+    }
+    Inserts at = inserts.get(offset);
+    if (at == null) inserts.put(offset, at = new Inserts());
+    at.add(text, after);
+  }
+
+  /**
+   * Replaces a range of code points.
+   * @param from Offset of the first code point replaced.
+   * @param to Offset of the last, inclusive.
+   * @param text The replacement; null deletes the range.
+   * @throws IllegalArgumentException If the range is empty or overlaps another replace without
+   *     covering it.
+   */
+  public void replace(int from, int to, String text) {
+    if (from > to || from < 0) {
+      throw new IllegalArgumentException("replace: range invalid: " + from + ".." + to);
+    }
+    // replaces never overlap each other, so only the one starting before `from` and the last
+    // one starting by `to` can stick out of the new range
+    Map.Entry<Integer, Replace> before = replaces.lowerEntry(from);
+    if (before != null && before.getValue().to >= from) {
+      Replace r = before.getValue();
+      if (text != null || r.text != null) throw overlap(from, to, r);
+      replaces.remove(r.from); // merge deletes
+      from = r.from;
+      to = Math.max(to, r.to);
+    }
+    Map.Entry<Integer, Replace> last = replaces.floorEntry(to);
+    if (last != null && last.getKey() >= from && last.getValue().to > to) {
+      Replace r = last.getValue();
+      if (text != null || r.text != null) throw overlap(from, to, r);
+      to = r.to;
+    }
+    replaces.subMap(from, true, to, true).clear();
+    inserts.subMap(from, false, to, true).clear();
+    replaces.put(from, new Replace(from, to, text));
+  }
+
+  static IllegalArgumentException overlap(int from, int to, Replace r) {
+    return new IllegalArgumentException(
+        "replace of range " + from + ".." + to + " overlaps earlier replace of " + r.from + ".."
+            + r.to);
+  }
+
+  /** @return The replace whose range holds `offset`, or null. */
+  Replace replaceCovering(int offset) {
+    Map.Entry<Integer, Replace> e = replaces.floorEntry(offset);
+    return e != null && e.getValue().to >= offset ? e.getValue() : null;
+  }
+
+  /** @return How many inserts and replaces are pending. */
+  public int size() {
+    int n = replaces.size();
+    for (Inserts at : inserts.values()) n += at.texts.size();
+    return n;
+  }
+
+  public boolean isEmpty() {
+    return inserts.isEmpty() && replaces.isEmpty();
+  }
+
+  /**
+   * Writes the edited text: the original, with the edits applied, then any text inserted past its
+   * end.
+   * @param source The original input the edits were recorded against.
+   * @param out Where it goes; not flushed or closed.
+   * @throws IOException If `out` can't be written.
+   */
+  public void writeTo(CharStream source, Writer out) throws IOException {
+    Iterator<Map.Entry<Integer, Inserts>> ins = inserts.entrySet().iterator();
+    Map.Entry<Integer, Inserts> nextInsert = ins.hasNext() ? ins.next() : null;
+    Iterator<Replace> reps = replaces.values().iterator();
+    Replace nextReplace = reps.hasNext() ? reps.next() : null;
+    int pos = 0; // next code point of the source to copy
+    while (nextInsert != null || nextReplace != null) {
+      int at = nextInsert != null ? nextInsert.getKey() : Integer.MAX_VALUE;
+      if (nextReplace != null) at = Math.min(at, nextReplace.from);
+      copy(source, pos, at, out);
+      pos = at;
+      if (nextInsert != null && nextInsert.getKey() == at) {
+        for (String text : nextInsert.getValue().texts) out.write(text);
+        nextInsert = ins.hasNext() ? ins.next() : null;
+      }
+      if (nextReplace != null && nextReplace.from == at) {
+        if (nextReplace.text != null) out.write(nextReplace.text);
+        pos = nextReplace.to + 1;
+        nextReplace = reps.hasNext() ? reps.next() : null;
+      }
+    }
+    copy(source, pos, source.size(), out);
+  }
+
+  /** Writes code points `from` up to `to` of the source, in pieces of bounded size */
+  static void copy(CharStream source, int from, int to, Writer out) throws IOException {
+    to = Math.min(to, source.size());
+    for (int start = from; start < to; start += 8192) {
+      out.write(source.getText(Interval.of(start, Math.min(to, start + 8192) - 1)));
+    }
+  }
+
+  /**
+   * Applies the edits to the text they were recorded against.
+   * @param source The original input.
+   * @return The edited text.
+   */
+  public String apply(String source) {
+    if (isEmpty()) return source;
+    StringWriter buf = new StringWriter(source.length() + 64 * size());
+    try {
+      writeTo(CharStreams.fromString(source), buf);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e); // not from a StringWriter
+    }
+    return buf.toString();
+  }
+}
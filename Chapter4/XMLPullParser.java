@@ -0,0 +1,255 @@
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonTokenFactory;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.UnbufferedCharStream;
+
+/**
+ * A StAX-style pull parser built directly on the tokens of `XMLLexer`. Each call to `next()`
+ * advances to the next start-element, attribute, text or end-element event. Characters come from an
+ * `UnbufferedCharStream` and tokens are pulled one at a time from the lexer, so only the current
+ * token and the stack of open element names are held in memory regardless of document size.
+ */
+public class XMLPullParser {
+  /** The kinds of events reported by `next()` */
+  public enum Event {
+    START_ELEMENT,
+    ATTRIBUTE,
+    TEXT,
+    END_ELEMENT,
+    END_DOCUMENT
+  }
+
+  /** Initial size, in chars, of the unbuffered char stream's lookahead buffer */
+  public static final int BUFFER_SIZE = 4096;
+
+  XMLLexer lexer;
+  /** Element and attribute names seen so far; repeated names share one String */
+  Map<String, String> names = new HashMap<String, String>();
+  /** Names of elements opened but not yet closed */
+  Deque<String> openElements = new ArrayDeque<String>();
+  boolean insideTag = false; // between '<' Name and '>' or '/>'
+
+  Event event;
+  String name; // element or attribute name of the current event
+  String rawValue; // attribute value or text, entity references unresolved
+  Token token; // token that produced the current event
+
+  /**
+   * Constructs a pull parser reading UTF-8 XML from a stream.
+   * @param is The stream to read; it is consumed incrementally and never buffered whole.
+   */
+  public XMLPullParser(InputStream is) {
+    this(new UnbufferedCharStream(is, BUFFER_SIZE, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Constructs a pull parser over an arbitrary char stream.
+   * @param input The characters to tokenize with `XMLLexer`.
+   */
+  public XMLPullParser(CharStream input) {
+    lexer = new XMLLexer(input);
+    // chars are gone once consumed from an unbuffered stream, so tokens must carry their text
+    lexer.setTokenFactory(new CommonTokenFactory(true));
+  }
+
+  /**
+   * Advances to the next event.
+   * @return The new current event; `END_DOCUMENT` once input is exhausted.
+   * @throws IllegalStateException If the token sequence is not well-formed XML.
+   */
+  public Event next() {
+    if (event == Event.END_DOCUMENT) return event;
+    while (true) {
+      Token t = lexer.nextToken();
+      token = t;
+      if (insideTag) {
+        switch (t.getType()) {
+          case XMLLexer.Name:
+            String attr = intern(t.getText());
+            expect(XMLLexer.EQUALS, "'=' after attribute " + attr);
+            Token value = expect(XMLLexer.STRING, "quoted value for attribute " + attr);
+            return set(Event.ATTRIBUTE, attr, stripQuotes(value.getText()));
+          case XMLLexer.CLOSE:
+            insideTag = false;
+            continue; // '>' itself is not an event
+          case XMLLexer.SLASH_CLOSE:
+            insideTag = false;
+            return set(Event.END_ELEMENT, openElements.pop(), null);
+          default:
+            throw error(t, "unexpected " + t.getText() + " inside tag");
+        }
+      }
+      switch (t.getType()) {
+        case XMLLexer.OPEN:
+          Token tag = lexer.nextToken();
+          if (tag.getType() == XMLLexer.Name) {
+            String element = intern(tag.getText());
+            openElements.push(element);
+            insideTag = true;
+            return set(Event.START_ELEMENT, element, null);
+          }
+          if (tag.getType() == XMLLexer.SlashName) {
+            String element = intern(tag.getText().substring(1));
+            if (openElements.isEmpty() || openElements.peek() != element) {
+              throw error(tag, "unmatched end tag </" + element + ">");
+            }
+            openElements.pop();
+            expect(XMLLexer.CLOSE, "'>' after </" + element);
+            return set(Event.END_ELEMENT, element, null);
+          }
+          throw error(tag, "expected element name after '<'");
+        case XMLLexer.TEXT:
+        case XMLLexer.EntityRef:
+          return set(Event.TEXT, null, t.getText());
+        case Token.EOF:
+          if (!openElements.isEmpty()) throw error(t, "missing </" + openElements.peek() + ">");
+          return set(Event.END_DOCUMENT, null, null);
+        default:
+          throw error(t, "unexpected " + t.getText());
+      }
+    }
+  }
+
+  /** @return The current event, or null before the first call to `next()`. */
+  public Event getEvent() {
+    return event;
+  }
+
+  /** @return The interned element or attribute name of the current event. */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Returns the text of a `TEXT` event or the value of an `ATTRIBUTE` event. Entity references are
+   * only resolved here, so callers that skip text pay nothing for them.
+   * @return The resolved text, or null for events without text.
+   */
+  public String getText() {
+    return resolveEntities(rawValue);
+  }
+
+  /** @return The text or attribute value exactly as it appeared in the input. */
+  public String getRawText() {
+    return rawValue;
+  }
+
+  /** @return The number of currently open elements. */
+  public int getDepth() {
+    return openElements.size();
+  }
+
+  /** @return The line number of the token behind the current event. */
+  public int getLine() {
+    return token.getLine();
+  }
+
+  Event set(Event e, String n, String v) {
+    event = e;
+    name = n;
+    rawValue = v;
+    return e;
+  }
+
+  Token expect(int type, String what) {
+    Token t = lexer.nextToken();
+    if (t.getType() != type) throw error(t, "expected " + what);
+    return t;
+  }
+
+  String intern(String s) {
+    String n = names.get(s);
+    if (n != null) return n;
+    names.put(s, s);
+    return s;
+  }
+
+  IllegalStateException error(Token t, String msg) {
+    return new IllegalStateException(
+        String.format("line %d:%d %s", t.getLine(), t.getCharPositionInLine(), msg));
+  }
+
+  public static String stripQuotes(String s) {
+    if (s == null || s.charAt(0) != '"') return s;
+    return s.substring(1, s.length() - 1);
+  }
+
+  /**
+   * Replaces the predefined XML entity references in a string. References to other entities are
+   * left as they are since XMLLexer has no DTD to define them.
+   * @param s Raw text, possibly null.
+   * @return The text with `&lt;`, `&gt;`, `&amp;`, `&quot;` and `&apos;` replaced.
+   */
+  public static String resolveEntities(String s) {
+    if (s == null || s.indexOf('&') < 0) return s;
+    StringBuilder buf = new StringBuilder(s.length());
+    int i = 0;
+    while (i < s.length()) {
+      char c = s.charAt(i);
+      int semi = c == '&' ? s.indexOf(';', i) : -1;
+      if (semi < 0) {
+        buf.append(c);
+        i++;
+        continue;
+      }
+      String entity = s.substring(i + 1, semi);
+      switch (entity) {
+        case "lt":
+          buf.append('<');
+          break;
+        case "gt":
+          buf.append('>');
+          break;
+        case "amp":
+          buf.append('&');
+          break;
+        case "quot":
+          buf.append('"');
+          break;
+        case "apos":
+          buf.append('\'');
+          break;
+        default:
+          buf.append(s, i, semi + 1); // unknown entity; keep as is
+      }
+      i = semi + 1;
+    }
+    return buf.toString();
+  }
+
+  /** Print the event stream of an XML file (or stdin) one event per line */
+  public static void main(String[] args) throws Exception {
+    String inputFile = null;
+    if (args.length > 0) inputFile = args[0];
+    InputStream is = System.in;
+    if (inputFile != null) {
+      is = new FileInputStream(inputFile);
+    }
+    XMLPullParser xml = new XMLPullParser(is);
+    Event e;
+    while ((e = xml.next()) != Event.END_DOCUMENT) {
+      switch (e) {
+        case START_ELEMENT:
+          System.out.println("start " + xml.getName());
+          break;
+        case ATTRIBUTE:
+          System.out.println("attr  " + xml.getName() + "=" + xml.getText());
+          break;
+        case TEXT:
+          if (xml.getRawText().trim().isEmpty()) break; // ignore formatting whitespace
+          System.out.println("text  " + xml.getText().trim());
+          break;
+        case END_ELEMENT:
+          System.out.println("end   " + xml.getName());
+          break;
+      }
+    }
+  }
+}
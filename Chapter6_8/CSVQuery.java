@@ -0,0 +1,457 @@
+import common.Inputs;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+
+/**
+ * Runs select/where/group-by queries over a CSV file loaded with `LoadCSV.Loader`. The rows are
+ * turned into columns once: the text of every field, plus a double per field that is NaN unless
+ * the field reads as a number. Queries then run over batches of `BATCH` rows. Filters narrow an
+ * int[] selection vector with one tight loop per predicate, aggregates run over the selected
+ * positions only, and batches are spread over a fork/join pool and their partial results merged
+ * in row order.
+ *
+ * <p>Usage: {@code CSVQuery [-select a,b] [-where "col op value"]... [-groupby a,b]
+ * [-agg "sum(c),count(*)"] file.csv}. Operators are {@code = != < <= > >=}; several -where options
+ * must all hold. Aggregates are sum, count, min, max and avg; count(col) counts the non-empty
+ * fields, of any type, and the others use only the fields that read as numbers.
+ */
+public class CSVQuery {
+  public static final int BATCH = 1024;
+
+  /** Column-oriented copy of a CSV file */
+  public static class Table {
+    public final List<String> names;
+    public final int rows;
+    final String[][] text; // [column][row], quotes removed
+    final double[][] numbers; // [column][row], NaN where the field is not a number
+
+    Table(List<String> names, List<Map<String, String>> rows) {
+      this.names = names;
+      this.rows = rows.size();
+      text = new String[names.size()][this.rows];
+      numbers = new double[names.size()][this.rows];
+      for (int r = 0; r < this.rows; r++) {
+        Map<String, String> row = rows.get(r);
+        for (int c = 0; c < names.size(); c++) {
+          String v = row.get(names.get(c));
+          text[c][r] = v == null ? LoadCSV.Loader.EMPTY : unquote(v);
+          numbers[c][r] = toNumber(text[c][r]);
+        }
+      }
+    }
+
+    /** @return A table holding the rows `loader` collected. */
+    public static Table from(LoadCSV.Loader loader) {
+      return new Table(loader.header, loader.rows);
+    }
+
+    /**
+     * @return The index of column `name`.
+     * @throws IllegalArgumentException If there is no such column.
+     */
+    public int column(String name) {
+      int c = names.indexOf(name);
+      if (c < 0) throw new IllegalArgumentException("no column " + name + " in " + names);
+      return c;
+    }
+  }
+
+  /** Remove the quotes of a STRING field and undouble its embedded quotes */
+  static String unquote(String s) {
+    if (s.length() < 2 || s.charAt(0) != '"') return s;
+    return s.substring(1, s.length() - 1).replace("\"\"", "\"");
+  }
+
+  /** Reads numbers the way spreadsheets print them, so "$2,000" is 2000 */
+  static double toNumber(String s) {
+    String n = s.trim().replace(",", "");
+    if (n.startsWith("$")) n = n.substring(1);
+    if (n.isEmpty()) return Double.NaN;
+    char c = n.charAt(0);
+    if (!(c >= '0' && c <= '9') && c != '-' && c != '+' && c != '.') return Double.NaN;
+    try {
+      return Double.parseDouble(n);
+    } catch (NumberFormatException e) {
+      return Double.NaN;
+    }
+  }
+
+  /** A `column op value` predicate */
+  static class Filter {
+    static final String[] OPS = {"<=", ">=", "!=", "=", "<", ">"};
+    int column;
+    String op;
+    String value;
+    double number;
+
+    Filter(Table t, String spec) {
+      for (String op : OPS) {
+        int i = spec.indexOf(op);
+        if (i > 0) {
+          this.op = op;
+          column = t.column(spec.substring(0, i).trim());
+          value = unquote(spec.substring(i + op.length()).trim());
+          number = toNumber(value);
+          return;
+        }
+      }
+      throw new IllegalArgumentException("bad filter: " + spec);
+    }
+
+    /**
+     * Keeps the positions in `sel[0..n)` whose rows satisfy this predicate.
+     * @return The number of positions kept, which now fill the front of `sel`.
+     */
+    int apply(Table t, int[] sel, int n) {
+      int k = 0;
+      double[] col = t.numbers[column];
+      double x = number;
+      if (x != x) { // not a number: compare text, which only = and != support
+        String[] s = t.text[column];
+        boolean eq = op.equals("=");
+        if (!eq && !op.equals("!=")) throw new IllegalArgumentException(op + " needs a number");
+        for (int i = 0; i < n; i++) {
+          int r = sel[i];
+          if (s[r].equals(value) == eq) sel[k++] = r;
+        }
+        return k;
+      }
+      // NaN compares false, so non-numeric fields drop out of all but !=
+      switch (op) {
+        case "=":
+          for (int i = 0; i < n; i++) if (col[sel[i]] == x) sel[k++] = sel[i];
+          break;
+        case "!=":
+          for (int i = 0; i < n; i++) if (col[sel[i]] != x) sel[k++] = sel[i];
+          break;
+        case "<":
+          for (int i = 0; i < n; i++) if (col[sel[i]] < x) sel[k++] = sel[i];
+          break;
+        case "<=":
+          for (int i = 0; i < n; i++) if (col[sel[i]] <= x) sel[k++] = sel[i];
+          break;
+        case ">":
+          for (int i = 0; i < n; i++) if (col[sel[i]] > x) sel[k++] = sel[i];
+          break;
+        default:
+          for (int i = 0; i < n; i++) if (col[sel[i]] >= x) sel[k++] = sel[i];
+      }
+      return k;
+    }
+  }
+
+  /** An aggregate such as `sum(Amount)` or `count(*)` */
+  static class Aggregate {
+    // accumulator slots: COUNT is of non-empty fields, NUMBERS of those that read as numbers
+    static final int SUM = 0, COUNT = 1, MIN = 2, MAX = 3, NUMBERS = 4;
+    static final int SLOTS = 5;
+    String name;
+    String function;
+    int column; // -1 for count(*)
+
+    Aggregate(Table t, String spec) {
+      name = spec;
+      int open = spec.indexOf('(');
+      if (open < 0 || !spec.endsWith(")")) {
+        throw new IllegalArgumentException("bad aggregate: " + spec);
+      }
+      function = spec.substring(0, open).trim().toLowerCase();
+      String arg = spec.substring(open + 1, spec.length() - 1).trim();
+      if (!Arrays.asList("sum", "count", "min", "max", "avg").contains(function)) {
+        throw new IllegalArgumentException("unknown aggregate: " + function);
+      }
+      if (arg.equals("*") && !function.equals("count")) {
+        throw new IllegalArgumentException(function + "(*) is not defined");
+      }
+      column = arg.equals("*") ? -1 : t.column(arg);
+    }
+
+    /** Add the selected rows to the `SLOTS` accumulators at `acc[at..]` */
+    void accumulate(Table t, int[] sel, int n, double[] acc, int at) {
+      if (column < 0) {
+        acc[at + COUNT] += n;
+        return;
+      }
+      String[] text = t.text[column];
+      double[] col = t.numbers[column];
+      double sum = 0, min = acc[at + MIN], max = acc[at + MAX];
+      int count = 0, numbers = 0;
+      for (int i = 0; i < n; i++) {
+        int r = sel[i];
+        if (!text[r].isEmpty()) count++;
+        double v = col[r];
+        if (v != v) continue; // not a number
+        sum += v;
+        numbers++;
+        if (v < min) min = v;
+        if (v > max) max = v;
+      }
+      acc[at + SUM] += sum;
+      acc[at + COUNT] += count;
+      acc[at + NUMBERS] += numbers;
+      acc[at + MIN] = min;
+      acc[at + MAX] = max;
+    }
+
+    static void merge(double[] into, double[] from, int at) {
+      into[at + SUM] += from[at + SUM];
+      into[at + COUNT] += from[at + COUNT];
+      into[at + NUMBERS] += from[at + NUMBERS];
+      into[at + MIN] = Math.min(into[at + MIN], from[at + MIN]);
+      into[at + MAX] = Math.max(into[at + MAX], from[at + MAX]);
+    }
+
+    /** @return The result, or NaN if no numbers were aggregated. */
+    double result(double[] acc, int at) {
+      double count = acc[at + NUMBERS];
+      switch (function) {
+        case "count":
+          return acc[at + COUNT];
+        case "sum":
+          return acc[at + SUM];
+        case "avg":
+          return count > 0 ? acc[at + SUM] / count : Double.NaN;
+        case "min":
+          return count > 0 ? acc[at + MIN] : Double.NaN;
+        default:
+          return count > 0 ? acc[at + MAX] : Double.NaN;
+      }
+    }
+  }
+
+  /** What a range of batches produced: matching rows, or accumulators per group */
+  static class Partial {
+    int[] rows = new int[0];
+    int size;
+    Map<List<String>, double[]> groups = new LinkedHashMap<List<String>, double[]>();
+
+    void addRows(int[] sel, int from, int n) {
+      if (size + n > rows.length) rows = Arrays.copyOf(rows, Math.max(size + n, rows.length * 2));
+      System.arraycopy(sel, from, rows, size, n);
+      size += n;
+    }
+  }
+
+  Table table;
+  List<Integer> select = new ArrayList<Integer>();
+  List<Filter> filters = new ArrayList<Filter>();
+  List<Integer> groupBy = new ArrayList<Integer>();
+  List<Aggregate> aggregates = new ArrayList<Aggregate>();
+
+  public CSVQuery(Table table) {
+    this.table = table;
+  }
+
+  /** Output these columns; all columns if never called. Ignored when grouping or aggregating. */
+  public CSVQuery select(String... columns) {
+    for (String c : columns) select.add(table.column(c));
+    return this;
+  }
+
+  /** Keep only rows satisfying `spec`, e.g. {@code "Amount >= 1000"} or {@code "Month=June"} */
+  public CSVQuery where(String spec) {
+    filters.add(new Filter(table, spec));
+    return this;
+  }
+
+  public CSVQuery groupBy(String... columns) {
+    for (String c : columns) groupBy.add(table.column(c));
+    return this;
+  }
+
+  /** Compute `spec`, e.g. {@code "avg(Amount)"}, per group or over all selected rows */
+  public CSVQuery aggregate(String spec) {
+    aggregates.add(new Aggregate(table, spec));
+    return this;
+  }
+
+  boolean grouping() {
+    return !groupBy.isEmpty() || !aggregates.isEmpty();
+  }
+
+  /** Filters and aggregates batches `[from, to)`, splitting the range across the pool */
+  class Scan extends RecursiveTask<Partial> {
+    private static final long serialVersionUID = 1L;
+    int from, to;
+
+    Scan(int from, int to) {
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected Partial compute() {
+      if (to - from > 1) {
+        int mid = (from + to) >>> 1;
+        Scan right = new Scan(mid, to);
+        right.fork();
+        Partial left = new Scan(from, mid).compute();
+        return merge(left, right.join());
+      }
+      Partial p = new Partial();
+      int first = from * BATCH;
+      int n = Math.min(BATCH, table.rows - first);
+      int[] sel = new int[n];
+      for (int i = 0; i < n; i++) sel[i] = first + i;
+      for (Filter f : filters) n = f.apply(table, sel, n);
+      if (!grouping()) p.addRows(sel, 0, n);
+      else if (groupBy.isEmpty()) aggregateInto(p, Collections.<String>emptyList(), sel, n);
+      else groupInto(p, sel, n);
+      return p;
+    }
+  }
+
+  /** Split the selected rows of one batch by group key and aggregate each group's rows together */
+  void groupInto(Partial p, int[] sel, int n) {
+    Map<List<String>, Partial> members = new LinkedHashMap<List<String>, Partial>();
+    for (int i = 0; i < n; i++) {
+      List<String> key = new ArrayList<String>(groupBy.size());
+      for (int c : groupBy) key.add(table.text[c][sel[i]]);
+      Partial rows = members.get(key);
+      if (rows == null) {
+        rows = new Partial();
+        members.put(key, rows);
+      }
+      rows.addRows(sel, i, 1);
+    }
+    for (Map.Entry<List<String>, Partial> e : members.entrySet()) {
+      aggregateInto(p, e.getKey(), e.getValue().rows, e.getValue().size);
+    }
+  }
+
+  void aggregateInto(Partial p, List<String> key, int[] sel, int n) {
+    double[] acc = p.groups.get(key);
+    if (acc == null) {
+      acc = newAccumulators();
+      p.groups.put(key, acc);
+    }
+    for (int a = 0; a < aggregates.size(); a++) {
+      aggregates.get(a).accumulate(table, sel, n, acc, a * Aggregate.SLOTS);
+    }
+  }
+
+  double[] newAccumulators() {
+    double[] acc = new double[aggregates.size() * Aggregate.SLOTS];
+    for (int a = 0; a < aggregates.size(); a++) {
+      acc[a * Aggregate.SLOTS + Aggregate.MIN] = Double.POSITIVE_INFINITY;
+      acc[a * Aggregate.SLOTS + Aggregate.MAX] = Double.NEGATIVE_INFINITY;
+    }
+    return acc;
+  }
+
+  /** Combine two adjacent ranges, keeping rows and groups in order of first appearance */
+  Partial merge(Partial left, Partial right) {
+    left.addRows(right.rows, 0, right.size);
+    for (Map.Entry<List<String>, double[]> e : right.groups.entrySet()) {
+      double[] acc = left.groups.get(e.getKey());
+      if (acc == null) {
+        left.groups.put(e.getKey(), e.getValue());
+        continue;
+      }
+      for (int a = 0; a < aggregates.size(); a++) {
+        Aggregate.merge(acc, e.getValue(), a * Aggregate.SLOTS);
+      }
+    }
+    return left;
+  }
+
+  /**
+   * Runs the query.
+   * @return The result as rows of strings; the first row holds the column names.
+   */
+  public List<String[]> run() {
+    int batches = (table.rows + BATCH - 1) / BATCH;
+    Partial p = new Partial();
+    if (batches > 0) p = ForkJoinPool.commonPool().invoke(new Scan(0, batches));
+    List<String[]> out = new ArrayList<String[]>();
+    if (!grouping()) {
+      List<Integer> columns = select;
+      if (columns.isEmpty()) {
+        columns = new ArrayList<Integer>();
+        for (int c = 0; c < table.names.size(); c++) columns.add(c);
+      }
+      String[] header = new String[columns.size()];
+      for (int i = 0; i < header.length; i++) header[i] = table.names.get(columns.get(i));
+      out.add(header);
+      for (int i = 0; i < p.size; i++) {
+        String[] row = new String[columns.size()];
+        for (int k = 0; k < row.length; k++) row[k] = table.text[columns.get(k)][p.rows[i]];
+        out.add(row);
+      }
+      return out;
+    }
+    if (groupBy.isEmpty() && p.groups.isEmpty()) { // no rows matched; aggregates still report
+      p.groups.put(Collections.<String>emptyList(), newAccumulators());
+    }
+    String[] header = new String[groupBy.size() + aggregates.size()];
+    for (int i = 0; i < groupBy.size(); i++) header[i] = table.names.get(groupBy.get(i));
+    for (int a = 0; a < aggregates.size(); a++) header[groupBy.size() + a] = aggregates.get(a).name;
+    out.add(header);
+    for (Map.Entry<List<String>, double[]> e : p.groups.entrySet()) {
+      String[] row = new String[header.length];
+      for (int i = 0; i < groupBy.size(); i++) row[i] = e.getKey().get(i);
+      for (int a = 0; a < aggregates.size(); a++) {
+        double v = aggregates.get(a).result(e.getValue(), a * Aggregate.SLOTS);
+        row[groupBy.size() + a] = format(v);
+      }
+      out.add(row);
+    }
+    return out;
+  }
+
+  static String format(double v) {
+    if (v != v) return "";
+    if (v == Math.rint(v) && Math.abs(v) < 1e15) return Long.toString((long) v);
+    return Double.toString(v);
+  }
+
+  /** Quote a field for CSV output if it needs it */
+  static String csv(String s) {
+    if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0) return s;
+    return '"' + s.replace("\"", "\"\"") + '"';
+  }
+
+  public static void main(String[] args) throws Exception {
+    List<String> select = new ArrayList<String>();
+    List<String> where = new ArrayList<String>();
+    List<String> groupBy = new ArrayList<String>();
+    List<String> aggregates = new ArrayList<String>();
+    String inputFile = null;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-select") && i + 1 < args.length) {
+        select.addAll(Arrays.asList(args[++i].split(",")));
+      } else if (args[i].equals("-where") && i + 1 < args.length) {
+        where.add(args[++i]);
+      } else if (args[i].equals("-groupby") && i + 1 < args.length) {
+        groupBy.addAll(Arrays.asList(args[++i].split(",")));
+      } else if (args[i].equals("-agg") && i + 1 < args.length) {
+        // split on commas between aggregates, not inside parentheses
+        aggregates.addAll(Arrays.asList(args[++i].split(",(?![^(]*\\))")));
+      } else {
+        inputFile = args[i];
+      }
+    }
+    CSVLexer lexer = new CSVLexer(Inputs.open(inputFile));
+    CommonTokenStream tokens = Inputs.tokens(lexer);
+    CSVParser parser = new CSVParser(tokens);
+    LoadCSV.Loader loader = new LoadCSV.Loader();
+    new ParseTreeWalker().walk(loader, parser.file());
+
+    CSVQuery query = new CSVQuery(Table.from(loader));
+    query.select(select.toArray(new String[0]));
+    for (String w : where) query.where(w);
+    query.groupBy(groupBy.toArray(new String[0]));
+    for (String a : aggregates) query.aggregate(a.trim());
+    for (String[] row : query.run()) {
+      StringBuilder buf = new StringBuilder();
+      for (int i = 0; i < row.length; i++) {
+        if (i > 0) buf.append(',');
+        buf.append(csv(row[i]));
+      }
+      System.out.println(buf);
+    }
+  }
+}
@@ -6,8 +6,8 @@
  * We make no guarantees that this code is fit for any purpose.
  * Visit http://www.pragmaticprogrammer.com/titles/tpantlr2 for more book information.
  ***/
-import java.io.FileInputStream;
-import java.io.InputStream;
+import common.Inputs;
+import common.Metrics;
 import java.util.Set;
 import org.antlr.v4.runtime.*;
 import org.antlr.v4.runtime.misc.MultiMap;
@@ -153,21 +153,20 @@ public class CallGraph {
   public static void main(String[] args) throws Exception {
     String inputFile = null;
     if (args.length > 0) inputFile = args[0];
-    InputStream is = System.in;
-    if (inputFile != null) {
-      is = new FileInputStream(inputFile);
-    }
-    ANTLRInputStream input = new ANTLRInputStream(is);
+    CharStream input = Inputs.open(inputFile);
     CymbolLexer lexer = new CymbolLexer(input);
-    CommonTokenStream tokens = new CommonTokenStream(lexer);
+    CommonTokenStream tokens = Inputs.tokens(lexer);
+    Metrics.Run run = Metrics.start("CallGraph", inputFile);
+    run.lex(tokens);
     CymbolParser parser = new CymbolParser(tokens);
     parser.setBuildParseTree(true);
-    ParseTree tree = parser.file();
+    ParseTree tree = run.parse(parser, parser::file);
     // show tree in text form
 
     ParseTreeWalker walker = new ParseTreeWalker();
     FunctionListener collector = new FunctionListener();
-    walker.walk(collector, tree);
+    run.walk(() -> walker.walk(collector, tree));
+    run.finish(tree);
     System.out.println(collector.graph.toString());
     System.out.println(collector.graph.toDOT());
 
@@ -6,9 +6,10 @@
  * We make no guarantees that this code is fit for any purpose.
  * Visit http://www.pragmaticprogrammer.com/titles/tpantlr2 for more book information.
  ***/
-import java.io.FileInputStream;
-import java.io.InputStream;
-import org.antlr.v4.runtime.ANTLRInputStream;
+import common.Inputs;
+import common.Metrics;
+import java.nio.file.Paths;
+import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.Token;
 import org.antlr.v4.runtime.tree.*;
@@ -30,27 +31,35 @@ public class CheckSymbols {
     System.err.printf("line %d:%d %s\n", t.getLine(), t.getCharPositionInLine(), msg);
   }
 
+  /**
+   * Usage: {@code CheckSymbols [-lib library.cymbol]... [file]}. Each library's symbols are
+   * loaded from its `SymbolSnapshot`, or checked and snapshotted if they changed; the file may use
+   * them, and those of later libraries hide those of earlier ones.
+   */
   public void process(String[] args) throws Exception {
     String inputFile = null;
-    if (args.length > 0) inputFile = args[0];
-    InputStream is = System.in;
-    if (inputFile != null) {
-      is = new FileInputStream(inputFile);
+    Scope library = null;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-lib")) library = SymbolSnapshot.load(Paths.get(args[++i]), library);
+      else inputFile = args[i];
     }
-    ANTLRInputStream input = new ANTLRInputStream(is);
+    CharStream input = Inputs.open(inputFile);
     CymbolLexer lexer = new CymbolLexer(input);
-    CommonTokenStream tokens = new CommonTokenStream(lexer);
+    CommonTokenStream tokens = Inputs.tokens(lexer);
+    Metrics.Run run = Metrics.start("CheckSymbols", inputFile);
+    run.lex(tokens);
     CymbolParser parser = new CymbolParser(tokens);
     parser.setBuildParseTree(true);
-    ParseTree tree = parser.file();
+    ParseTree tree = run.parse(parser, parser::file);
     // show tree in text form
 
     ParseTreeWalker walker = new ParseTreeWalker();
-    DefPhase def = new DefPhase();
-    walker.walk(def, tree);
+    DefPhase def = new DefPhase(library);
+    run.walk(() -> walker.walk(def, tree));
     // create next phase and feed symbol table info from def to ref phase
     RefPhase ref = new RefPhase(def.globals, def.scopes);
-    walker.walk(ref, tree);
+    run.walk(() -> walker.walk(ref, tree));
+    run.finish(tree);
   }
 
   public static void main(String[] args) throws Exception {
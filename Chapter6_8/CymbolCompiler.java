@@ -0,0 +1,395 @@
+import common.CompileSupport;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+/**
+ * Compiles a checked Cymbol file into a `CymbolProgram`. `DefPhase` builds the scopes first; the
+ * compiler then resolves every name through them as `RefPhase` does, and numbers the variables
+ * of each scope it enters. Each visit of an expression emits its code and returns its static type.
+ *
+ * <p>Types are `int`, `float` and `void`. An `int` converts to `float` wherever a `float` is
+ * expected, and operators with one `float` operand are `float` operators; no other conversions
+ * exist. `==` and `!` give an `int`, 1 or 0, and `if` tests an `int`. A function that ends
+ * without `return` returns 0. Cymbol has no arrays, so indexing is an error. A built-in
+ * `print(value)` prints an `int` or `float` on a line, unless the program defines its own.
+ */
+public class CymbolCompiler extends CymbolBaseVisitor<Symbol.Type> {
+  /** Change in stack depth of each opcode; `CALL` depends on the function */
+  static final int[] EFFECT = {
+    1, 1, -1, 1, -1, -1, -1, -1, -1, 0, -1, -1, -1, -1, 0, 0, 0, 0, 0, -1, 0, -1, 0, -1, -1, -1
+  };
+
+  DefPhase def;
+  Scope currentScope;
+  int[] code = new int[256];
+  int size;
+  Map<Symbol, Integer> globalSlots = new HashMap<Symbol, Integer>();
+  Map<Symbol, Integer> localSlots = new HashMap<Symbol, Integer>();
+  Map<Symbol, Integer> functionIndexes = new HashMap<Symbol, Integer>();
+  List<CymbolProgram.Function> functions = new ArrayList<CymbolProgram.Function>();
+  /** The function being compiled */
+  CymbolProgram.Function function;
+  int nextSlot;
+  int depth;
+
+  CymbolCompiler(DefPhase def) {
+    this.def = def;
+  }
+
+  /**
+   * Parses and compiles a Cymbol file.
+   * @param input The source.
+   * @return The program.
+   * @throws IllegalArgumentException At the first syntax or semantic error, with its position.
+   */
+  public static CymbolProgram compile(CharStream input) {
+    CymbolLexer lexer = new CymbolLexer(input);
+    CompileSupport.failFast(lexer);
+    CymbolParser parser = new CymbolParser(new CommonTokenStream(lexer));
+    CompileSupport.failFast(parser);
+    CymbolParser.FileContext tree = parser.file();
+    CompileSupport.requireEOF(parser);
+    return compile(tree);
+  }
+
+  /**
+   * Compiles a parsed Cymbol file.
+   * @param tree The file's parse tree.
+   * @return The program.
+   * @throws IllegalArgumentException At the first semantic error, with its position.
+   */
+  public static CymbolProgram compile(CymbolParser.FileContext tree) {
+    DefPhase def = new DefPhase();
+    def.quiet = true;
+    new ParseTreeWalker().walk(def, tree);
+    return new CymbolCompiler(def).compileFile(tree);
+  }
+
+  static IllegalArgumentException error(Token t, String msg) {
+    return new IllegalArgumentException(
+        "line " + t.getLine() + ":" + t.getCharPositionInLine() + " " + msg);
+  }
+
+  static String name(Symbol.Type type) {
+    return type.name().substring(1).toLowerCase();
+  }
+
+  CymbolProgram compileFile(CymbolParser.FileContext ctx) {
+    // number the global variables and functions first, so code can refer to later ones
+    Set<String> names = new HashSet<String>();
+    for (CymbolParser.VarDeclContext var : ctx.varDecl()) {
+      Token id = var.ID().getSymbol();
+      if (!names.add(id.getText())) throw error(id, "redefinition of " + id.getText());
+      Symbol symbol = def.globals.resolve(id.getText());
+      if (symbol.type == Symbol.Type.tVOID) throw error(id, id.getText() + " can't be void");
+      globalSlots.put(symbol, globalSlots.size());
+    }
+    for (CymbolParser.FunctionDeclContext decl : ctx.functionDecl()) {
+      Token id = decl.ID().getSymbol();
+      if (!names.add(id.getText())) throw error(id, "redefinition of " + id.getText());
+      FunctionSymbol symbol = (FunctionSymbol) def.scopes.get(decl);
+      Symbol.Type[] argumentTypes = new Symbol.Type[symbol.arguments.size()];
+      int i = 0;
+      for (Symbol arg : symbol.arguments.values()) argumentTypes[i++] = arg.type;
+      functionIndexes.put(symbol, functions.size());
+      functions.add(new CymbolProgram.Function(id.getText(), symbol.type, argumentTypes));
+    }
+
+    CymbolProgram.Function init =
+        new CymbolProgram.Function("<init>", Symbol.Type.tVOID, new Symbol.Type[0]);
+    function = init;
+    currentScope = def.globals;
+    for (CymbolParser.VarDeclContext var : ctx.varDecl()) visit(var);
+    emit(CymbolProgram.RETV);
+    for (CymbolParser.FunctionDeclContext decl : ctx.functionDecl()) visit(decl);
+    return new CymbolProgram(
+        Arrays.copyOf(code, size),
+        functions.toArray(new CymbolProgram.Function[0]),
+        globalSlots.size(),
+        init);
+  }
+
+  void emit(int op) {
+    if (size == code.length) code = Arrays.copyOf(code, size * 2);
+    code[size++] = op;
+    depth += EFFECT[op];
+    function.maxStack = Math.max(function.maxStack, depth);
+  }
+
+  void emit(int op, int operand) {
+    emit(op);
+    if (size == code.length) code = Arrays.copyOf(code, size * 2);
+    code[size++] = operand;
+  }
+
+  /** Points the jump whose operand is at `at` to the next instruction */
+  void patch(int at) {
+    code[at] = size;
+  }
+
+  /** Converts the value on top of the stack from type `from` to `to` */
+  void convert(Symbol.Type from, Symbol.Type to, Token at) {
+    if (from == to) return;
+    if (from == Symbol.Type.tINT && to == Symbol.Type.tFLOAT) {
+      emit(CymbolProgram.I2F);
+      return;
+    }
+    throw error(at, "can't convert " + name(from) + " to " + name(to));
+  }
+
+  /** Emits a load or store of a variable */
+  Symbol.Type access(Token id, boolean store) {
+    Symbol symbol = currentScope.resolve(id.getText());
+    if (symbol == null) throw error(id, "no such variable: " + id.getText());
+    if (symbol instanceof FunctionSymbol) throw error(id, id.getText() + " is not a variable");
+    Integer slot = localSlots.get(symbol);
+    if (slot != null) {
+      emit(store ? CymbolProgram.STORE : CymbolProgram.LOAD, slot);
+    } else {
+      emit(store ? CymbolProgram.GSTORE : CymbolProgram.GLOAD, globalSlots.get(symbol));
+    }
+    return symbol.type;
+  }
+
+  @Override
+  public Symbol.Type visitFunctionDecl(CymbolParser.FunctionDeclContext ctx) {
+    FunctionSymbol symbol = (FunctionSymbol) def.scopes.get(ctx);
+    function = functions.get(functionIndexes.get(symbol));
+    function.address = size;
+    localSlots.clear();
+    nextSlot = 0;
+    for (Symbol arg : symbol.arguments.values()) {
+      if (arg.type == Symbol.Type.tVOID) {
+        throw error(ctx.ID().getSymbol(), "argument " + arg.name + " can't be void");
+      }
+      localSlots.put(arg, nextSlot++);
+    }
+    function.frameSize = nextSlot;
+    depth = 0;
+    currentScope = symbol;
+    visit(ctx.block());
+    currentScope = symbol.getEnclosingScope();
+    if (function.returnType == Symbol.Type.tVOID) {
+      emit(CymbolProgram.RETV);
+    } else {
+      emit(CymbolProgram.ICONST, 0); // also 0.0f
+      emit(CymbolProgram.RET);
+    }
+    return null;
+  }
+
+  @Override
+  public Symbol.Type visitBlock(CymbolParser.BlockContext ctx) {
+    Scope scope = def.scopes.get(ctx);
+    int firstSlot = nextSlot;
+    for (Symbol var : ((BaseScope) scope).symbols.values()) {
+      // the slot may still hold a variable of an earlier sibling block, and a variable can be
+      // read before its declaration, so each starts out 0 when the block is entered
+      emit(CymbolProgram.ICONST, 0);
+      emit(CymbolProgram.STORE, nextSlot);
+      localSlots.put(var, nextSlot++);
+    }
+    function.frameSize = Math.max(function.frameSize, nextSlot);
+    Scope enclosing = currentScope;
+    currentScope = scope;
+    for (CymbolParser.StatContext stat : ctx.stat()) visit(stat);
+    currentScope = enclosing;
+    nextSlot = firstSlot; // the next sibling block reuses these slots
+    return null;
+  }
+
+  /** type ID ('=' expr)? ';' */
+  @Override
+  public Symbol.Type visitVarDecl(CymbolParser.VarDeclContext ctx) {
+    Token id = ctx.ID().getSymbol();
+    Symbol.Type type = CheckSymbols.getType(ctx.type().start.getType());
+    if (type == Symbol.Type.tVOID) throw error(id, id.getText() + " can't be void");
+    if (ctx.expr() != null) {
+      convert(visit(ctx.expr()), type, ctx.expr().start);
+    } else if (currentScope == def.globals) {
+      return null; // globals start out 0
+    } else {
+      emit(CymbolProgram.ICONST, 0); // declared without a value, even if assigned before
+    }
+    access(id, true);
+    return null;
+  }
+
+  @Override
+  public Symbol.Type visitStat(CymbolParser.StatContext ctx) {
+    if (ctx.block() != null) return visit(ctx.block());
+    if (ctx.varDecl() != null) return visit(ctx.varDecl());
+    ParseTree first = ctx.getChild(0);
+    String keyword = first instanceof TerminalNode ? first.getText() : "";
+    if (keyword.equals("if")) { // 'if' expr 'then' stat ('else' stat)?
+      CymbolParser.ExprContext condition = ctx.expr(0);
+      Symbol.Type type = visit(condition);
+      if (type != Symbol.Type.tINT) throw error(condition.start, "condition must be int");
+      emit(CymbolProgram.JZ, 0);
+      int toElse = size - 1;
+      visit(ctx.stat(0));
+      if (ctx.stat().size() > 1) {
+        emit(CymbolProgram.JMP, 0);
+        int toEnd = size - 1;
+        patch(toElse);
+        visit(ctx.stat(1));
+        patch(toEnd);
+      } else {
+        patch(toElse);
+      }
+    } else if (keyword.equals("return")) { // 'return' expr? ';'
+      if (ctx.expr().isEmpty()) {
+        if (function.returnType != Symbol.Type.tVOID) {
+          throw error(ctx.start, "missing return value");
+        }
+        emit(CymbolProgram.RETV);
+      } else {
+        if (function.returnType == Symbol.Type.tVOID) {
+          throw error(ctx.start, "void function " + function.name + " returns a value");
+        }
+        convert(visit(ctx.expr(0)), function.returnType, ctx.expr(0).start);
+        emit(CymbolProgram.RET);
+      }
+    } else if (ctx.expr().size() == 2) { // expr '=' expr ';'
+      CymbolParser.ExprContext target = ctx.expr(0);
+      if (!(target instanceof CymbolParser.VarContext)) {
+        throw error(target.start, "can't assign to " + target.getText());
+      }
+      Token id = ((CymbolParser.VarContext) target).ID().getSymbol();
+      Symbol var = currentScope.resolve(id.getText());
+      Symbol.Type type = visit(ctx.expr(1));
+      if (var instanceof VariableSymbol) convert(type, var.type, ctx.expr(1).start);
+      access(id, true);
+    } else { // expr ';'
+      if (visit(ctx.expr(0)) != Symbol.Type.tVOID) emit(CymbolProgram.POP);
+    }
+    return null;
+  }
+
+  /** ID '(' exprList? ')' */
+  @Override
+  public Symbol.Type visitCall(CymbolParser.CallContext ctx) {
+    Token id = ctx.ID().getSymbol();
+    List<CymbolParser.ExprContext> args =
+        ctx.exprList() != null
+            ? ctx.exprList().expr()
+            : new ArrayList<CymbolParser.ExprContext>();
+    Symbol symbol = currentScope.resolve(id.getText());
+    if (symbol == null && id.getText().equals("print")) {
+      if (args.size() != 1) throw error(id, "print takes 1 argument");
+      Symbol.Type type = visit(args.get(0));
+      if (type == Symbol.Type.tVOID) throw error(args.get(0).start, "can't print void");
+      emit(type == Symbol.Type.tINT ? CymbolProgram.IPRINT : CymbolProgram.FPRINT);
+      return Symbol.Type.tVOID;
+    }
+    if (symbol == null) throw error(id, "no such function: " + id.getText());
+    if (!(symbol instanceof FunctionSymbol)) throw error(id, id.getText() + " is not a function");
+    int index = functionIndexes.get(symbol);
+    CymbolProgram.Function callee = functions.get(index);
+    if (args.size() != callee.argumentTypes.length) {
+      throw error(id, callee.name + " takes " + callee.argumentTypes.length + " arguments");
+    }
+    for (int i = 0; i < args.size(); i++) {
+      convert(visit(args.get(i)), callee.argumentTypes[i], args.get(i).start);
+    }
+    emit(CymbolProgram.CALL, index);
+    depth -= args.size();
+    if (callee.returnType != Symbol.Type.tVOID) {
+      depth++;
+      function.maxStack = Math.max(function.maxStack, depth);
+    }
+    return callee.returnType;
+  }
+
+  /** expr '[' expr ']' */
+  @Override
+  public Symbol.Type visitIndex(CymbolParser.IndexContext ctx) {
+    throw error(ctx.start, "arrays are not supported");
+  }
+
+  /** '-' expr */
+  @Override
+  public Symbol.Type visitNegate(CymbolParser.NegateContext ctx) {
+    Symbol.Type type = visit(ctx.expr());
+    if (type == Symbol.Type.tINT) emit(CymbolProgram.INEG);
+    else if (type == Symbol.Type.tFLOAT) emit(CymbolProgram.FNEG);
+    else throw error(ctx.start, "can't negate " + name(type));
+    return type;
+  }
+
+  /** '!' expr */
+  @Override
+  public Symbol.Type visitNot(CymbolParser.NotContext ctx) {
+    if (visit(ctx.expr()) != Symbol.Type.tINT) throw error(ctx.start, "! needs an int");
+    emit(CymbolProgram.NOT);
+    return Symbol.Type.tINT;
+  }
+
+  /** expr '*' expr */
+  @Override
+  public Symbol.Type visitMult(CymbolParser.MultContext ctx) {
+    return binary(ctx, CymbolProgram.IMUL, CymbolProgram.FMUL);
+  }
+
+  /** expr ('+'|'-') expr */
+  @Override
+  public Symbol.Type visitAddSub(CymbolParser.AddSubContext ctx) {
+    if (ctx.getChild(1).getText().equals("+")) {
+      return binary(ctx, CymbolProgram.IADD, CymbolProgram.FADD);
+    }
+    return binary(ctx, CymbolProgram.ISUB, CymbolProgram.FSUB);
+  }
+
+  /** expr '==' expr */
+  @Override
+  public Symbol.Type visitEqual(CymbolParser.EqualContext ctx) {
+    binary(ctx, CymbolProgram.IEQ, CymbolProgram.FEQ);
+    return Symbol.Type.tINT;
+  }
+
+  /** Emits an operator on `ctx`'s two operands; a `float` one makes it the `float` operator */
+  Symbol.Type binary(CymbolParser.ExprContext ctx, int intOp, int floatOp) {
+    Symbol.Type left = visit(ctx.getChild(CymbolParser.ExprContext.class, 0));
+    Symbol.Type right = visit(ctx.getChild(CymbolParser.ExprContext.class, 1));
+    Token op = ((TerminalNode) ctx.getChild(1)).getSymbol();
+    if (left == Symbol.Type.tVOID || right == Symbol.Type.tVOID) {
+      throw error(op, "void operand of " + op.getText());
+    }
+    if (left == Symbol.Type.tINT && right == Symbol.Type.tINT) {
+      emit(intOp);
+      return Symbol.Type.tINT;
+    }
+    if (left == Symbol.Type.tINT) emit(CymbolProgram.I2F2);
+    else if (right == Symbol.Type.tINT) emit(CymbolProgram.I2F);
+    emit(floatOp);
+    return Symbol.Type.tFLOAT;
+  }
+
+  /** ID */
+  @Override
+  public Symbol.Type visitVar(CymbolParser.VarContext ctx) {
+    return access(ctx.ID().getSymbol(), false);
+  }
+
+  /** INT */
+  @Override
+  public Symbol.Type visitInt(CymbolParser.IntContext ctx) {
+    emit(CymbolProgram.ICONST, CompileSupport.intLiteral(ctx.INT().getSymbol()));
+    return Symbol.Type.tINT;
+  }
+
+  /** '(' expr ')' */
+  @Override
+  public Symbol.Type visitParens(CymbolParser.ParensContext ctx) {
+    return visit(ctx.expr());
+  }
+}
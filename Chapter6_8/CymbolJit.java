@@ -0,0 +1,486 @@
+import common.CompileSupport;
+import common.Inputs;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.tools.*;
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+
+/**
+ * Compiles Cymbol programs into JVM classes, for scripts that run long enough to be worth the
+ * JIT. The program is checked exactly as `CymbolCompiler` checks it, then translated to Java
+ * source: each function becomes a static method with `int` and `float` parameters and locals,
+ * and each global variable a static field. `javac`, through `javax.tools`, compiles the source in
+ * memory, and the class is defined by a class loader of its own that sees only the JDK, so it can
+ * be unloaded once unused. The last `MAX_CACHED` scripts compiled are cached by the SHA-256 of
+ * their source; one evicted from the cache is unloaded once nothing else holds on to it.
+ *
+ * <p>Scripts behave as on `CymbolVM`, except that deep recursion throws `StackOverflowError`.
+ * Their globals are static, so everyone using one cached script shares them; `reset` sets them to
+ * their initial values again. Compiling needs a JDK; on a bare JRE it throws.
+ *
+ * <p>Usage: {@code CymbolJit [-java] [file]} runs the file's `main`, after printing the generated
+ * Java with `-java`.
+ */
+public class CymbolJit {
+  /** How many compiled scripts the cache keeps */
+  public static final int MAX_CACHED = 64;
+
+  /** Source hash to script, least recently used first */
+  static final Map<String, Script> cache =
+      new LinkedHashMap<String, Script>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Script> eldest) {
+          return size() > MAX_CACHED;
+        }
+      };
+
+  /** A compiled program */
+  public static class Script {
+    public final Class<?> type;
+    final String java;
+    final Map<String, Method> functions = new HashMap<String, Method>();
+
+    Script(Class<?> type, String java) {
+      this.type = type;
+      this.java = java;
+      for (Method m : type.getDeclaredMethods()) {
+        String name = m.getName();
+        if (!name.startsWith("$")) functions.put(name.substring(0, name.length() - 1), m);
+      }
+    }
+
+    /** @return The Java source the class was compiled from. */
+    public String getJavaSource() {
+      return java;
+    }
+
+    /**
+     * Calls a function of the program.
+     * @param name The function.
+     * @param args Its arguments, converted to the types of its parameters.
+     * @return An `Integer` or `Float` result, or null if the function is `void`.
+     * @throws IllegalArgumentException If there is no such function or the arguments don't match.
+     */
+    public Number call(String name, Number... args) {
+      Method m = functions.get(name);
+      if (m == null) throw new IllegalArgumentException("no such function: " + name);
+      Class<?>[] types = m.getParameterTypes();
+      if (args.length != types.length) {
+        throw new IllegalArgumentException(
+            name + " takes " + types.length + " arguments, not " + args.length);
+      }
+      Object[] values = new Object[args.length];
+      for (int i = 0; i < args.length; i++) {
+        values[i] = types[i] == float.class ? args[i].floatValue() : args[i].intValue();
+      }
+      return (Number) invoke(m, values);
+    }
+
+    /** Sets the global variables to their initial values */
+    public void reset() {
+      try {
+        invoke(type.getDeclaredMethod("$init"));
+      } catch (NoSuchMethodException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    /** Sets where `print` prints, for every user of this script */
+    public void setOut(PrintStream out) {
+      try {
+        type.getField("$out").set(null, out);
+      } catch (ReflectiveOperationException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    static Object invoke(Method m, Object... args) {
+      try {
+        return m.invoke(null, args);
+      } catch (InvocationTargetException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        throw new IllegalStateException(cause);
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+
+  /**
+   * Returns a compiled program, compiling it unless the same source was compiled before.
+   * @param source Cymbol source.
+   * @return The script.
+   * @throws IllegalArgumentException At the first syntax or semantic error, with its position.
+   * @throws IllegalStateException If no Java compiler is available.
+   */
+  public static Script compile(String source) {
+    String hash = sha256(source);
+    synchronized (cache) {
+      Script script = cache.get(hash); // access moves it to the end of the LRU order
+      if (script != null) return script;
+    }
+    Script script = build(source, "Cymbol$" + hash.substring(0, 16)); // outside the lock
+    synchronized (cache) {
+      Script raced = cache.get(hash);
+      if (raced != null) return raced;
+      cache.put(hash, script);
+    }
+    return script;
+  }
+
+  static String sha256(String text) {
+    try {
+      byte[] digest =
+          MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+      StringBuilder buf = new StringBuilder();
+      for (byte b : digest) buf.append(String.format("%02x", b));
+      return buf.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e); // every JVM has SHA-256
+    }
+  }
+
+  static Script build(String source, String className) {
+    CymbolLexer lexer = new CymbolLexer(CharStreams.fromString(source));
+    CompileSupport.failFast(lexer);
+    CymbolParser parser = new CymbolParser(new CommonTokenStream(lexer));
+    CompileSupport.failFast(parser);
+    CymbolParser.FileContext tree = parser.file();
+    CompileSupport.requireEOF(parser);
+    DefPhase def = new DefPhase();
+    def.quiet = true;
+    new ParseTreeWalker().walk(def, tree);
+    new CymbolCompiler(def).compileFile(tree); // the checks; its code is thrown away
+    String java = new JavaGenerator(def).generate(tree, className);
+    return new Script(javac(className, java), java);
+  }
+
+  /** Defines each script's class alone, with only the JDK visible to it */
+  static class ScriptLoader extends ClassLoader {
+    ScriptLoader() {
+      super(null);
+    }
+
+    Class<?> define(String name, byte[] bytes) {
+      return defineClass(name, bytes, 0, bytes.length);
+    }
+  }
+
+  static Class<?> javac(String className, String java) {
+    JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+    if (javac == null) throw new IllegalStateException("no Java compiler; run on a JDK");
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+    Map<String, ByteArrayOutputStream> classes = new HashMap<String, ByteArrayOutputStream>();
+    JavaFileObject unit =
+        new SimpleJavaFileObject(
+            URI.create("string:///" + className + ".java"), JavaFileObject.Kind.SOURCE) {
+          @Override
+          public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return java;
+          }
+        };
+    List<String> options = Arrays.asList("-proc:none", "-g:none", "-nowarn");
+    // scripts evicted from the cache are compiled again, so the manager's resources are freed
+    try (JavaFileManager files =
+        new ForwardingJavaFileManager<StandardJavaFileManager>(
+            javac.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8)) {
+          @Override
+          public JavaFileObject getJavaFileForOutput(
+              Location location, String name, JavaFileObject.Kind kind, FileObject sibling) {
+            return new SimpleJavaFileObject(URI.create("mem:///" + name + kind.extension), kind) {
+              @Override
+              public OutputStream openOutputStream() {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                classes.put(name, bytes);
+                return bytes;
+              }
+            };
+          }
+        }) {
+      boolean ok =
+          javac.getTask(null, files, diagnostics, options, null, Arrays.asList(unit)).call();
+      if (!ok) {
+        throw new IllegalStateException("generated code doesn't compile: "
+            + diagnostics.getDiagnostics());
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e); // from closing the file manager
+    }
+    return new ScriptLoader().define(className, classes.get(className).toByteArray());
+  }
+
+  /**
+   * @return The Java name of a function or global variable: its own followed by `$`, so it is
+   *     never a keyword, one of `Object`'s methods such as `wait` or `getClass`, or one of the
+   *     class's own members, which start with `$`.
+   */
+  static String javaName(String name) {
+    return name + "$";
+  }
+
+  /**
+   * Translates a checked file to Java. Locals are all declared, as 0, where their block starts,
+   * and named after their frame slot as well, since Java forbids a local hiding another. Since
+   * Java also rejects unreachable statements, statements after one that can't complete normally
+   * are left out; they would never run anyway.
+   */
+  static class JavaGenerator extends CymbolBaseVisitor<String> {
+    DefPhase def;
+    Scope currentScope;
+    StringBuilder buf = new StringBuilder();
+    int indent;
+    Map<Symbol, String> locals = new HashMap<Symbol, String>();
+    int nextSlot;
+    boolean returnsValue;
+
+    JavaGenerator(DefPhase def) {
+      this.def = def;
+    }
+
+    static String javaType(Symbol.Type type) {
+      return type == Symbol.Type.tINT ? "int" : type == Symbol.Type.tFLOAT ? "float" : "void";
+    }
+
+    void line(String text) {
+      for (int i = 0; i < indent; i++) buf.append("  ");
+      buf.append(text).append('\n');
+    }
+
+    String generate(CymbolParser.FileContext ctx, String className) {
+      line("public final class " + className + " {");
+      indent++;
+      line("public static java.io.PrintStream $out = System.out;");
+      for (CymbolParser.VarDeclContext var : ctx.varDecl()) {
+        Symbol symbol = def.globals.resolve(var.ID().getText());
+        line("static " + javaType(symbol.type) + " " + javaName(symbol.name) + ";");
+      }
+      line("");
+      line("static {");
+      line("  $init();");
+      line("}");
+      line("");
+      line("public static void $init() {");
+      indent++;
+      currentScope = def.globals;
+      for (CymbolParser.VarDeclContext var : ctx.varDecl()) {
+        String value = var.expr() != null ? visit(var.expr()) : "0";
+        line(javaName(var.ID().getText()) + " = " + value + ";");
+      }
+      indent--;
+      line("}");
+      for (CymbolParser.FunctionDeclContext decl : ctx.functionDecl()) function(decl);
+      line("");
+      line("static void $print(int value) {");
+      line("  $out.println(value);");
+      line("}");
+      line("");
+      line("static void $print(float value) {");
+      line("  $out.println(value);");
+      line("}");
+      line("");
+      line("static void $drop(int value) {}"); // for expression statements that aren't calls
+      line("");
+      line("static void $drop(float value) {}");
+      indent--;
+      line("}");
+      return buf.toString();
+    }
+
+    void function(CymbolParser.FunctionDeclContext ctx) {
+      FunctionSymbol symbol = (FunctionSymbol) def.scopes.get(ctx);
+      locals.clear();
+      nextSlot = 0;
+      List<String> params = new ArrayList<String>();
+      for (Symbol arg : symbol.arguments.values()) {
+        params.add(javaType(arg.type) + " " + local(arg));
+      }
+      returnsValue = symbol.type != Symbol.Type.tVOID;
+      line("");
+      line("public static " + javaType(symbol.type) + " " + javaName(symbol.name) + "("
+          + String.join(", ", params) + ") {");
+      indent++;
+      currentScope = symbol;
+      if (block(ctx.block()) && returnsValue) line("return 0;");
+      currentScope = symbol.getEnclosingScope();
+      indent--;
+      line("}");
+    }
+
+    String local(Symbol var) {
+      String name = var.name + "$" + nextSlot++;
+      locals.put(var, name);
+      return name;
+    }
+
+    /** @return Whether the block can complete normally. */
+    boolean block(CymbolParser.BlockContext ctx) {
+      Scope scope = def.scopes.get(ctx);
+      int firstSlot = nextSlot;
+      line("{");
+      indent++;
+      for (Symbol var : ((BaseScope) scope).symbols.values()) {
+        line(javaType(var.type) + " " + local(var) + " = 0;");
+      }
+      Scope enclosing = currentScope;
+      currentScope = scope;
+      boolean completes = true;
+      for (CymbolParser.StatContext stat : ctx.stat()) {
+        if (!(completes = statement(stat))) break;
+      }
+      currentScope = enclosing;
+      nextSlot = firstSlot;
+      indent--;
+      line("}");
+      return completes;
+    }
+
+    /** @return Whether the statement can complete normally. */
+    boolean statement(CymbolParser.StatContext ctx) {
+      if (ctx.block() != null) return block(ctx.block());
+      if (ctx.varDecl() != null) {
+        CymbolParser.ExprContext init = ctx.varDecl().expr();
+        line(variable(ctx.varDecl().ID().getText()) + " = "
+            + (init != null ? visit(init) : "0") + ";");
+        return true;
+      }
+      String keyword = ctx.getChild(0).getText();
+      if (ctx.getChild(0) instanceof CymbolParser.ExprContext) keyword = "";
+      if (keyword.equals("if")) {
+        line("if (" + visit(ctx.expr(0)) + " != 0)");
+        boolean completes = branch(ctx.stat(0));
+        if (ctx.stat().size() == 1) return true;
+        line("else");
+        return branch(ctx.stat(1)) || completes;
+      }
+      if (keyword.equals("return")) {
+        line(ctx.expr().isEmpty() ? "return;" : "return " + visit(ctx.expr(0)) + ";");
+        return false;
+      }
+      if (ctx.expr().size() == 2) {
+        String target = ((CymbolParser.VarContext) ctx.expr(0)).ID().getText();
+        line(variable(target) + " = " + visit(ctx.expr(1)) + ";");
+        return true;
+      }
+      CymbolParser.ExprContext expr = ctx.expr(0);
+      while (expr instanceof CymbolParser.ParensContext) {
+        expr = ((CymbolParser.ParensContext) expr).expr(); // `(f());` may call a void f
+      }
+      if (expr instanceof CymbolParser.CallContext) line(visit(expr) + ";");
+      else line("$drop(" + visit(expr) + ");");
+      return true;
+    }
+
+    /** An `if` branch, braced so it can hold local variables of its own */
+    boolean branch(CymbolParser.StatContext ctx) {
+      if (ctx.block() != null) return block(ctx.block());
+      line("{");
+      indent++;
+      boolean completes = statement(ctx);
+      indent--;
+      line("}");
+      return completes;
+    }
+
+    String variable(String name) {
+      Symbol symbol = currentScope.resolve(name);
+      String local = locals.get(symbol);
+      return local != null ? local : javaName(name);
+    }
+
+    @Override
+    public String visitCall(CymbolParser.CallContext ctx) {
+      String name = ctx.ID().getText();
+      List<String> args = new ArrayList<String>();
+      if (ctx.exprList() != null) {
+        for (CymbolParser.ExprContext arg : ctx.exprList().expr()) args.add(visit(arg));
+      }
+      boolean builtin = name.equals("print") && currentScope.resolve(name) == null;
+      return (builtin ? "$print" : javaName(name)) + "(" + String.join(", ", args) + ")";
+    }
+
+    @Override
+    public String visitNegate(CymbolParser.NegateContext ctx) {
+      return "(-" + visit(ctx.expr()) + ")";
+    }
+
+    @Override
+    public String visitNot(CymbolParser.NotContext ctx) {
+      return "(" + visit(ctx.expr()) + " == 0 ? 1 : 0)";
+    }
+
+    @Override
+    public String visitMult(CymbolParser.MultContext ctx) {
+      return "(" + visit(ctx.expr(0)) + " * " + visit(ctx.expr(1)) + ")";
+    }
+
+    @Override
+    public String visitAddSub(CymbolParser.AddSubContext ctx) {
+      String op = ctx.getChild(1).getText();
+      return "(" + visit(ctx.expr(0)) + " " + op + " " + visit(ctx.expr(1)) + ")";
+    }
+
+    @Override
+    public String visitEqual(CymbolParser.EqualContext ctx) {
+      return "(" + visit(ctx.expr(0)) + " == " + visit(ctx.expr(1)) + " ? 1 : 0)";
+    }
+
+    @Override
+    public String visitVar(CymbolParser.VarContext ctx) {
+      return variable(ctx.ID().getText());
+    }
+
+    @Override
+    public String visitInt(CymbolParser.IntContext ctx) {
+      // decimal however written: in Java a leading 0 would make it octal
+      return Integer.toString(Integer.parseInt(ctx.INT().getText()));
+    }
+
+    @Override
+    public String visitParens(CymbolParser.ParensContext ctx) {
+      return visit(ctx.expr());
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    boolean printJava = false;
+    String inputFile = null;
+    for (String arg : args) {
+      if (arg.equals("-java")) printJava = true;
+      else inputFile = arg;
+    }
+    Script script;
+    try {
+      CharStream input = Inputs.openFully(inputFile);
+      script = compile(input.getText(Interval.of(0, input.size() - 1)));
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      return;
+    }
+    if (printJava) System.out.print(script.getJavaSource());
+    if (!script.functions.containsKey("main")
+        || script.functions.get("main").getParameterCount() != 0) {
+      System.err.println("no main() to run");
+      return;
+    }
+    script.call("main");
+  }
+}
@@ -0,0 +1,116 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A Cymbol program compiled by `CymbolCompiler` into stack machine code, for `CymbolVM` to run.
+ * The code of every function, and of the global variables' initializers, is one `int` array of
+ * opcodes, each followed by its operand if it has one. `int` and `float` values alike occupy one
+ * `int`, floats as their bits; the compiler has already chosen each instruction by the static types
+ * of its operands, so the machine never checks a value's type.
+ *
+ * <p>A function's arguments and local variables live in slots of its frame on the machine's
+ * stack, numbered by the compiler from the scopes `DefPhase` built: arguments first, then each
+ * block's variables, with sibling blocks sharing slots. Global variables have slots of their own.
+ * Calls go through the function table by index.
+ */
+public class CymbolProgram {
+  // opcode [operand]: effect on the stack
+  static final int ICONST = 0; // value: push value
+  static final int LOAD = 1; // slot: push the frame's slot
+  static final int STORE = 2; // slot: pop into the frame's slot
+  static final int GLOAD = 3; // slot: push the global
+  static final int GSTORE = 4; // slot: pop into the global
+  static final int IADD = 5;
+  static final int ISUB = 6;
+  static final int IMUL = 7;
+  static final int IEQ = 8; // 1 if the two ints are equal, else 0
+  static final int INEG = 9;
+  static final int FADD = 10;
+  static final int FSUB = 11;
+  static final int FMUL = 12;
+  static final int FEQ = 13;
+  static final int FNEG = 14;
+  static final int NOT = 15; // 1 if the int is 0, else 0
+  static final int I2F = 16; // convert the top int to float
+  static final int I2F2 = 17; // convert the int under the top to float
+  static final int JMP = 18; // address
+  static final int JZ = 19; // address: pop, and jump if 0
+  static final int CALL = 20; // function: arguments are on the stack
+  static final int RET = 21; // return the top value
+  static final int RETV = 22; // return nothing
+  static final int POP = 23;
+  static final int IPRINT = 24; // pop and print an int
+  static final int FPRINT = 25; // pop and print a float
+
+  static final String[] NAMES = {
+    "iconst", "load", "store", "gload", "gstore", "iadd", "isub", "imul", "ieq", "ineg", "fadd",
+    "fsub", "fmul", "feq", "fneg", "not", "i2f", "i2f2", "jmp", "jz", "call", "ret", "retv", "pop",
+    "iprint", "fprint"
+  };
+
+  /** @return Whether an opcode is followed by an operand. */
+  static boolean hasOperand(int op) {
+    return op <= GSTORE || op == JMP || op == JZ || op == CALL;
+  }
+
+  /** An entry of the function table */
+  public static class Function {
+    public final String name;
+    public final Symbol.Type returnType;
+    public final Symbol.Type[] argumentTypes;
+    /** Where its code starts */
+    int address;
+    /** Slots for arguments and local variables */
+    int frameSize;
+    /** Most values its code has on the stack above the frame at once */
+    int maxStack;
+
+    Function(String name, Symbol.Type returnType, Symbol.Type[] argumentTypes) {
+      this.name = name;
+      this.returnType = returnType;
+      this.argumentTypes = argumentTypes;
+    }
+  }
+
+  final int[] code;
+  final Function[] functions;
+  final Map<String, Function> byName = new HashMap<String, Function>();
+  final int globals;
+  /** Runs the global variables' initializers, as a function without arguments */
+  final Function init;
+
+  CymbolProgram(int[] code, Function[] functions, int globals, Function init) {
+    this.code = code;
+    this.functions = functions;
+    this.globals = globals;
+    this.init = init;
+    for (Function f : functions) byName.put(f.name, f);
+  }
+
+  /** @return The function with a name, or null if there is none. */
+  public Function getFunction(String name) {
+    return byName.get(name);
+  }
+
+  /** @return A listing of the code, one instruction per line, each function under its name. */
+  public String disassemble() {
+    Map<Integer, String> labels = new HashMap<Integer, String>();
+    labels.put(init.address, "<init>");
+    for (Function f : functions) labels.put(f.address, f.name);
+    StringBuilder buf = new StringBuilder();
+    for (int pc = 0; pc < code.length; ) {
+      String label = labels.get(pc);
+      if (label != null) buf.append(label).append(":\n");
+      int op = code[pc];
+      buf.append(String.format("%6d  %s", pc, NAMES[op]));
+      if (hasOperand(op)) {
+        int operand = code[pc + 1];
+        buf.append(' ').append(operand);
+        if (op == CALL) buf.append(" (").append(functions[operand].name).append(')');
+      }
+      buf.append('\n');
+      pc += hasOperand(op) ? 2 : 1;
+    }
+    return buf.toString();
+  }
+}
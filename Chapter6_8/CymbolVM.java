@@ -0,0 +1,245 @@
+import common.Inputs;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Runs a `CymbolProgram`. The interpreter is one loop switching over opcodes, with the program
+ * counter, stack pointer and frame pointer in local variables and all values as `int`s, floats
+ * by their bits. Arguments and local variables are slots of the caller's stack, so a call only
+ * zeroes the callee's locals and records where to return.
+ *
+ * <p>Global variables are initialized before the first call. A machine is not thread-safe, but
+ * any number of machines can share one program.
+ *
+ * <p>Usage: {@code CymbolVM [-dis] [file]} runs the file's `main`, after printing the code with
+ * `-dis`.
+ */
+public class CymbolVM {
+  /** Most calls active at once, so runaway recursion fails instead of exhausting memory */
+  public static final int MAX_CALL_DEPTH = 1 << 20;
+
+  final CymbolProgram program;
+  final int[] globals;
+  int[] stack = new int[1024];
+  /** Return address and frame pointer of each active call */
+  int[] calls = new int[64];
+  boolean initialized;
+  /** Where `print` prints */
+  public PrintStream out = System.out;
+
+  public CymbolVM(CymbolProgram program) {
+    this.program = program;
+    this.globals = new int[program.globals];
+  }
+
+  /**
+   * Calls a function of the program.
+   * @param name The function.
+   * @param args Its arguments, converted to the types of its parameters.
+   * @return An `Integer` or `Float` result, or null if the function is `void`.
+   * @throws IllegalArgumentException If there is no such function or the arguments don't match.
+   * @throws IllegalStateException If calls nest deeper than `MAX_CALL_DEPTH`.
+   */
+  public Number call(String name, Number... args) {
+    CymbolProgram.Function f = program.getFunction(name);
+    if (f == null) throw new IllegalArgumentException("no such function: " + name);
+    if (args.length != f.argumentTypes.length) {
+      throw new IllegalArgumentException(
+          name + " takes " + f.argumentTypes.length + " arguments, not " + args.length);
+    }
+    if (!initialized) {
+      initialized = true;
+      execute(program.init);
+    }
+    if (stack.length < args.length) stack = Arrays.copyOf(stack, args.length);
+    for (int i = 0; i < args.length; i++) {
+      stack[i] =
+          f.argumentTypes[i] == Symbol.Type.tFLOAT
+              ? Float.floatToRawIntBits(args[i].floatValue())
+              : args[i].intValue();
+    }
+    int result = execute(f);
+    switch (f.returnType) {
+      case tINT:
+        return result;
+      case tFLOAT:
+        return Float.intBitsToFloat(result);
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Runs `entry` with its arguments at the bottom of the stack.
+   * @return What it returns, or 0.
+   */
+  int execute(CymbolProgram.Function entry) {
+    int[] code = program.code;
+    CymbolProgram.Function[] functions = program.functions;
+    int[] globals = this.globals;
+    int[] stack = this.stack;
+    int[] calls = this.calls;
+    int depth = 0; // calls active besides `entry`
+    int fp = 0;
+    int sp = entry.argumentTypes.length;
+    int end = entry.frameSize;
+    if (end + entry.maxStack > stack.length) {
+      stack = this.stack = Arrays.copyOf(stack, end + entry.maxStack);
+    }
+    while (sp < end) stack[sp++] = 0;
+    int pc = entry.address;
+    for (; ; ) {
+      switch (code[pc++]) {
+        case CymbolProgram.ICONST:
+          stack[sp++] = code[pc++];
+          break;
+        case CymbolProgram.LOAD:
+          stack[sp++] = stack[fp + code[pc++]];
+          break;
+        case CymbolProgram.STORE:
+          stack[fp + code[pc++]] = stack[--sp];
+          break;
+        case CymbolProgram.GLOAD:
+          stack[sp++] = globals[code[pc++]];
+          break;
+        case CymbolProgram.GSTORE:
+          globals[code[pc++]] = stack[--sp];
+          break;
+        case CymbolProgram.IADD:
+          sp--;
+          stack[sp - 1] += stack[sp];
+          break;
+        case CymbolProgram.ISUB:
+          sp--;
+          stack[sp - 1] -= stack[sp];
+          break;
+        case CymbolProgram.IMUL:
+          sp--;
+          stack[sp - 1] *= stack[sp];
+          break;
+        case CymbolProgram.IEQ:
+          sp--;
+          stack[sp - 1] = stack[sp - 1] == stack[sp] ? 1 : 0;
+          break;
+        case CymbolProgram.INEG:
+          stack[sp - 1] = -stack[sp - 1];
+          break;
+        case CymbolProgram.FADD:
+          sp--;
+          stack[sp - 1] = bits(f(stack[sp - 1]) + f(stack[sp]));
+          break;
+        case CymbolProgram.FSUB:
+          sp--;
+          stack[sp - 1] = bits(f(stack[sp - 1]) - f(stack[sp]));
+          break;
+        case CymbolProgram.FMUL:
+          sp--;
+          stack[sp - 1] = bits(f(stack[sp - 1]) * f(stack[sp]));
+          break;
+        case CymbolProgram.FEQ:
+          sp--;
+          stack[sp - 1] = f(stack[sp - 1]) == f(stack[sp]) ? 1 : 0;
+          break;
+        case CymbolProgram.FNEG:
+          stack[sp - 1] = bits(-f(stack[sp - 1]));
+          break;
+        case CymbolProgram.NOT:
+          stack[sp - 1] = stack[sp - 1] == 0 ? 1 : 0;
+          break;
+        case CymbolProgram.I2F:
+          stack[sp - 1] = bits(stack[sp - 1]);
+          break;
+        case CymbolProgram.I2F2:
+          stack[sp - 2] = bits(stack[sp - 2]);
+          break;
+        case CymbolProgram.JMP:
+          pc = code[pc];
+          break;
+        case CymbolProgram.JZ:
+          pc = stack[--sp] == 0 ? code[pc] : pc + 1;
+          break;
+        case CymbolProgram.CALL:
+          {
+            CymbolProgram.Function callee = functions[code[pc++]];
+            if (depth == MAX_CALL_DEPTH) {
+              throw new IllegalStateException("calls nested too deeply in " + callee.name);
+            }
+            if (2 * depth + 2 > calls.length) {
+              calls = this.calls = Arrays.copyOf(calls, calls.length * 2);
+            }
+            calls[2 * depth] = pc;
+            calls[2 * depth + 1] = fp;
+            depth++;
+            fp = sp - callee.argumentTypes.length;
+            end = fp + callee.frameSize;
+            if (end + callee.maxStack > stack.length) {
+              stack = this.stack = Arrays.copyOf(stack, 2 * (end + callee.maxStack));
+            }
+            while (sp < end) stack[sp++] = 0;
+            pc = callee.address;
+            break;
+          }
+        case CymbolProgram.RET:
+          {
+            int value = stack[sp - 1];
+            if (depth == 0) return value;
+            sp = fp;
+            depth--;
+            pc = calls[2 * depth];
+            fp = calls[2 * depth + 1];
+            stack[sp++] = value;
+            break;
+          }
+        case CymbolProgram.RETV:
+          if (depth == 0) return 0;
+          sp = fp;
+          depth--;
+          pc = calls[2 * depth];
+          fp = calls[2 * depth + 1];
+          break;
+        case CymbolProgram.POP:
+          sp--;
+          break;
+        case CymbolProgram.IPRINT:
+          out.println(stack[--sp]);
+          break;
+        case CymbolProgram.FPRINT:
+          out.println(f(stack[--sp]));
+          break;
+        default:
+          throw new IllegalStateException("bad opcode " + code[pc - 1] + " at " + (pc - 1));
+      }
+    }
+  }
+
+  static float f(int bits) {
+    return Float.intBitsToFloat(bits);
+  }
+
+  static int bits(float f) {
+    return Float.floatToRawIntBits(f);
+  }
+
+  public static void main(String[] args) throws Exception {
+    boolean disassemble = false;
+    String inputFile = null;
+    for (String arg : args) {
+      if (arg.equals("-dis")) disassemble = true;
+      else inputFile = arg;
+    }
+    CymbolProgram program;
+    try {
+      program = CymbolCompiler.compile(Inputs.openFully(inputFile));
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      return;
+    }
+    if (disassemble) System.out.print(program.disassemble());
+    CymbolProgram.Function main = program.getFunction("main");
+    if (main == null || main.argumentTypes.length != 0) {
+      System.err.println("no main() to run");
+      return;
+    }
+    new CymbolVM(program).call("main");
+  }
+}
@@ -20,6 +20,21 @@ public class DefPhase extends CymbolBaseListener {
   ParseTreeProperty<Scope> scopes = new ParseTreeProperty<Scope>();
   GlobalScope globals;
   Scope currentScope; // define symbols in this scope
+  /** Whether to skip printing each scope as it closes, for tools that only want the symbols */
+  boolean quiet;
+  /** Encloses the global scope, for names defined by libraries rather than the file; may be null */
+  Scope library;
+
+  public DefPhase() {}
+
+  /**
+   * Constructs a definition phase for a file that uses libraries.
+   * @param library The libraries' symbols, e.g. from `SymbolSnapshot.load`; resolved when the
+   *     file doesn't define a name itself.
+   */
+  public DefPhase(Scope library) {
+    this.library = library;
+  }
 
   /**
    * Called when the listener enters the top-level file rule. Initializes the global scope and sets
@@ -27,7 +42,7 @@ public class DefPhase extends CymbolBaseListener {
    * @param ctx The parse tree context for the file rule.
    */
   public void enterFile(CymbolParser.FileContext ctx) {
-    globals = new GlobalScope(null);
+    globals = new GlobalScope(library);
     currentScope = globals;
   }
 
@@ -37,7 +52,7 @@ public class DefPhase extends CymbolBaseListener {
    * @param ctx The parse tree context for the file rule.
    */
   public void exitFile(CymbolParser.FileContext ctx) {
-    System.out.println(globals);
+    if (!quiet) System.out.println(globals);
   }
 
   /**
@@ -69,7 +84,7 @@ public class DefPhase extends CymbolBaseListener {
    * @param ctx The parse tree context for the function declaration.
    */
   public void exitFunctionDecl(CymbolParser.FunctionDeclContext ctx) {
-    System.out.println(currentScope);
+    if (!quiet) System.out.println(currentScope);
     currentScope = currentScope.getEnclosingScope(); // pop scope
   }
 
@@ -91,7 +106,7 @@ public class DefPhase extends CymbolBaseListener {
    * @param ctx The parse tree context for the block statement.
    */
   public void exitBlock(CymbolParser.BlockContext ctx) {
-    System.out.println(currentScope);
+    if (!quiet) System.out.println(currentScope);
     currentScope = currentScope.getEnclosingScope(); // pop scope
   }
 
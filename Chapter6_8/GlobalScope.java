@@ -7,6 +7,9 @@
  * Visit http://www.pragmaticprogrammer.com/titles/tpantlr2 for more book information.
  ***/
 public class GlobalScope extends BaseScope {
+  /** For a library's scope, its `SymbolSnapshot` key, which covers enclosing libraries too */
+  byte[] snapshotKey;
+
   public GlobalScope(Scope enclosingScope) {
     super(enclosingScope);
   }
@@ -6,8 +6,12 @@
  * We make no guarantees that this code is fit for any purpose.
  * Visit http://www.pragmaticprogrammer.com/titles/tpantlr2 for more book information.
  ***/
-import java.io.FileInputStream;
-import java.io.InputStream;
+import common.FlatTree;
+import common.Inputs;
+import common.Metrics;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
 import org.antlr.v4.runtime.*;
 import org.antlr.v4.runtime.tree.*;
 
@@ -110,24 +114,126 @@ public class JSON2XML {
     }
   }
 
+  /**
+   * Writes the same XML as `XMLEmitter`, but as the parser goes instead of assembling strings per
+   * subtree after it: run it as a parse listener on a parser that builds no tree. Labeled
+   * alternatives only get exit events from a parser, so entries are handled in `enterEveryRule`,
+   * peeking at the token after `{` or `[` to tell an empty object or array from a full one.
+   */
+  public static class StreamingXMLEmitter extends JSONBaseListener {
+    final TokenStream tokens;
+    final Appendable out;
+    final List<String> tags = new ArrayList<String>();
+
+    public StreamingXMLEmitter(TokenStream tokens, Appendable out) {
+      this.tokens = tokens;
+      this.out = out;
+    }
+
+    void write(String s) {
+      try {
+        out.append(s);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    boolean inArray(ParserRuleContext ctx) {
+      return ctx.getParent() instanceof JSONParser.ArrayContext;
+    }
+
+    @Override
+    public void enterEveryRule(ParserRuleContext ctx) {
+      switch (ctx.getRuleIndex()) {
+        case JSONParser.RULE_object:
+          if (!tokens.LT(2).getText().equals("}")) write("\n");
+          break;
+        case JSONParser.RULE_array:
+          if (!tokens.LT(2).getText().equals("]")) write("\n");
+          break;
+        case JSONParser.RULE_pair:
+          String tag = XMLEmitter.stripQuotes(ctx.start.getText());
+          tags.add(tag);
+          write("<" + tag + ">");
+          break;
+        case JSONParser.RULE_value:
+          if (inArray(ctx)) write("<element>");
+          break;
+      }
+    }
+
+    @Override
+    public void exitEveryRule(ParserRuleContext ctx) {
+      switch (ctx.getRuleIndex()) {
+        case JSONParser.RULE_pair:
+          write("</" + tags.remove(tags.size() - 1) + ">\n");
+          break;
+        case JSONParser.RULE_value:
+          if (inArray(ctx)) write("</element>\n");
+          break;
+        case JSONParser.RULE_json:
+          write("\n");
+          break;
+      }
+    }
+
+    @Override
+    public void exitAtom(JSONParser.AtomContext ctx) {
+      write(ctx.start.getText());
+    }
+
+    @Override
+    public void exitString(JSONParser.StringContext ctx) {
+      write(XMLEmitter.stripQuotes(ctx.start.getText()));
+    }
+  }
+
   public static void main(String[] args) throws Exception {
     String inputFile = null;
-    if (args.length > 0) inputFile = args[0];
-    InputStream is = System.in;
-    if (inputFile != null) {
-      is = new FileInputStream(inputFile);
+    boolean flat = false; // keep the tree as a FlatTree instead of context objects
+    boolean lowmem = false; // write XML during the parse from a sliding window of tokens
+    for (String arg : args) {
+      if (arg.equals("-flat")) flat = true;
+      else if (arg.equals("-lowmem")) lowmem = true;
+      else inputFile = arg;
     }
-    ANTLRInputStream input = new ANTLRInputStream(is);
+    if (flat && lowmem) throw new IllegalArgumentException("-flat needs every token; not -lowmem");
+    CharStream input = Inputs.open(inputFile);
     JSONLexer lexer = new JSONLexer(input);
-    CommonTokenStream tokens = new CommonTokenStream(lexer);
+    if (lowmem) {
+      Metrics.Run run = Metrics.start("JSON2XML", inputFile);
+      TokenStream tokens = Inputs.streamingTokens(lexer);
+      JSONParser parser = new JSONParser(tokens);
+      parser.setBuildParseTree(false);
+      Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+      parser.addParseListener(new StreamingXMLEmitter(tokens, out));
+      run.parse(parser, parser::json);
+      out.flush();
+      run.finish(null);
+      return;
+    }
+    CommonTokenStream tokens = Inputs.tokens(lexer);
+    Metrics.Run run = Metrics.start("JSON2XML", inputFile);
+    run.lex(tokens);
     JSONParser parser = new JSONParser(tokens);
+    XMLEmitter converter = new XMLEmitter();
+    if (flat) {
+      FlatTree.Builder builder = new FlatTree.Builder(tokens);
+      parser.setBuildParseTree(false);
+      parser.addParseListener(builder);
+      run.parse(parser, parser::json);
+      ParseTree root = run.walk(() -> builder.tree().walk(converter));
+      run.finish(null);
+      System.out.println(converter.getXML(root));
+      return;
+    }
     parser.setBuildParseTree(true);
-    ParseTree tree = parser.json();
+    ParseTree tree = run.parse(parser, parser::json);
     // show tree in text form
 
     ParseTreeWalker walker = new ParseTreeWalker();
-    XMLEmitter converter = new XMLEmitter();
-    walker.walk(converter, tree);
+    run.walk(() -> walker.walk(converter, tree));
+    run.finish(tree);
     System.out.println(converter.getXML(tree));
   }
 }
@@ -0,0 +1,330 @@
+import common.Inputs;
+import java.util.Arrays;
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+/**
+ * A read-only JSON document backed by a structural index instead of a tree of objects. One parse
+ * with JSONParser records, for every value, its kind and its start and end offsets in the input,
+ * plus first-child/next-sibling links, all in int arrays. Nothing is converted to Strings or
+ * numbers until asked for, so reading a few fields of a large document costs one parse plus the
+ * fields actually read.
+ *
+ * <p>Values are identified by their index; the root is 0. Members of an object are values whose
+ * `key` is the offset of their name in the input.
+ */
+public class JSONIndex {
+  public static final int OBJECT = 0, ARRAY = 1, STRING = 2, NUMBER = 3, TRUE = 4, FALSE = 5,
+      NULL = 6;
+
+  CharStream input;
+  int size;
+  int[] kind = new int[64];
+  int[] start = new int[64]; // offset of first char
+  int[] stop = new int[64]; // offset of last char
+  int[] key = new int[64]; // offset of the name token of an object member, else -1
+  int[] keyStop = new int[64]; // offset of the name token's closing quote
+  int[] firstChild = new int[64];
+  int[] nextSibling = new int[64];
+  int[] childCount = new int[64];
+
+  JSONIndex(CharStream input) {
+    this.input = input;
+  }
+
+  /**
+   * Builds the index for a document. Syntax errors are reported as usual and the index covers
+   * whatever the parser recognized.
+   * @param input The document; it is kept and read again as values are accessed.
+   * @return The index; value 0 is the top-level object or array.
+   */
+  public static JSONIndex parse(CharStream input) {
+    JSONLexer lexer = new JSONLexer(input);
+    CommonTokenStream tokens = new CommonTokenStream(lexer);
+    JSONParser parser = new JSONParser(tokens);
+    parser.setBuildParseTree(false);
+    JSONIndex index = new JSONIndex(input);
+    parser.addParseListener(index.new Indexer());
+    parser.json();
+    return index;
+  }
+
+  /** Records values as the parser enters and exits them */
+  class Indexer extends JSONBaseListener {
+    int[] open = new int[16]; // values being parsed, innermost last
+    int[] lastChild = new int[16];
+    int depth;
+
+    @Override
+    public void enterEveryRule(ParserRuleContext ctx) {
+      int rule = ctx.getRuleIndex();
+      if (rule == JSONParser.RULE_value) {
+        // value wraps object/array; those are indexed when entered below
+        int t = ctx.start.getType();
+        if (t == JSONParser.LCURLY || t == JSONParser.LBRACK) return;
+        push(ctx);
+      } else if (rule == JSONParser.RULE_object || rule == JSONParser.RULE_array) {
+        push(ctx);
+      }
+    }
+
+    @Override
+    public void exitEveryRule(ParserRuleContext ctx) {
+      int rule = ctx.getRuleIndex();
+      boolean scalar =
+          rule == JSONParser.RULE_value
+              && ctx.start.getType() != JSONParser.LCURLY
+              && ctx.start.getType() != JSONParser.LBRACK;
+      if (scalar || rule == JSONParser.RULE_object || rule == JSONParser.RULE_array) {
+        int v = open[--depth];
+        stop[v] = ctx.stop != null ? ctx.stop.getStopIndex() : start[v];
+      }
+    }
+
+    @Override
+    public void visitTerminal(TerminalNode node) {
+      ((ParserRuleContext) node.getParent()).removeLastChild(); // indexed by offset; not needed
+    }
+
+    void push(ParserRuleContext ctx) {
+      int v = add(ctx);
+      if (depth > 0) {
+        int parent = open[depth - 1];
+        if (lastChild[depth - 1] < 0) firstChild[parent] = v;
+        else nextSibling[lastChild[depth - 1]] = v;
+        lastChild[depth - 1] = v;
+        childCount[parent]++;
+      }
+      if (depth == open.length) {
+        open = Arrays.copyOf(open, depth * 2);
+        lastChild = Arrays.copyOf(lastChild, depth * 2);
+      }
+      open[depth] = v;
+      lastChild[depth] = -1;
+      depth++;
+    }
+
+    int add(ParserRuleContext ctx) {
+      if (size == kind.length) grow();
+      int v = size++;
+      Token t = ctx.start;
+      switch (t.getType()) {
+        case JSONParser.LCURLY:
+          kind[v] = OBJECT;
+          break;
+        case JSONParser.LBRACK:
+          kind[v] = ARRAY;
+          break;
+        case JSONParser.STRING:
+          kind[v] = STRING;
+          break;
+        case JSONParser.NUMBER:
+          kind[v] = NUMBER;
+          break;
+        default:
+          String s = t.getText();
+          kind[v] = s.equals("true") ? TRUE : s.equals("false") ? FALSE : NULL;
+      }
+      start[v] = t.getStartIndex();
+      ParserRuleContext owner = ctx.getRuleIndex() == JSONParser.RULE_value ? ctx : ctx.getParent();
+      // object and array contexts hang off a value context whose parent may be a pair
+      ParserRuleContext parent = owner.getParent();
+      boolean member = parent != null && parent.getRuleIndex() == JSONParser.RULE_pair;
+      key[v] = member ? parent.start.getStartIndex() : -1;
+      keyStop[v] = member ? parent.start.getStopIndex() : -1;
+      firstChild[v] = -1;
+      nextSibling[v] = -1;
+      childCount[v] = 0;
+      return v;
+    }
+  }
+
+  void grow() {
+    int n = kind.length * 2;
+    kind = Arrays.copyOf(kind, n);
+    start = Arrays.copyOf(start, n);
+    stop = Arrays.copyOf(stop, n);
+    key = Arrays.copyOf(key, n);
+    keyStop = Arrays.copyOf(keyStop, n);
+    firstChild = Arrays.copyOf(firstChild, n);
+    nextSibling = Arrays.copyOf(nextSibling, n);
+    childCount = Arrays.copyOf(childCount, n);
+  }
+
+  /** @return The number of values in the document. */
+  public int size() {
+    return size;
+  }
+
+  public int kind(int v) {
+    return kind[v];
+  }
+
+  /** @return The number of members of an object or elements of an array. */
+  public int length(int v) {
+    return childCount[v];
+  }
+
+  /**
+   * Looks up an object member by name. Names are compared against the raw input, and those too
+   * short to match are skipped without reading it.
+   * @param v An object.
+   * @param name The member name.
+   * @return The member's value, or -1 if `v` is not an object or has no such member.
+   */
+  public int get(int v, String name) {
+    if (kind[v] != OBJECT) return -1;
+    for (int c = firstChild[v]; c >= 0; c = nextSibling[c]) {
+      if (keyEquals(key[c], keyStop[c], name)) return c;
+    }
+    return -1;
+  }
+
+  /**
+   * @param v An array.
+   * @param i Index of the element.
+   * @return The element, or -1 if `v` is not an array or is too short.
+   */
+  public int at(int v, int i) {
+    if (kind[v] != ARRAY) return -1;
+    int c = firstChild[v];
+    while (c >= 0 && i-- > 0) c = nextSibling[c];
+    return c;
+  }
+
+  /**
+   * Follows a path of member names and array indexes from the root, e.g. {@code path("logs",
+   * "level")} or {@code path("admin", 1)}.
+   * @return The value at the end of the path, or -1 if any step is missing.
+   */
+  public int path(Object... steps) {
+    int v = 0;
+    for (Object step : steps) {
+      if (v < 0 || size == 0) return -1;
+      v = step instanceof Integer ? at(v, (Integer) step) : get(v, step.toString());
+    }
+    return size == 0 ? -1 : v;
+  }
+
+  /** @return The first member or element of `v`, or -1. */
+  public int firstChild(int v) {
+    return firstChild[v];
+  }
+
+  /** @return The member or element after `v` in its parent, or -1. */
+  public int nextSibling(int v) {
+    return nextSibling[v];
+  }
+
+  /** @return The decoded name of an object member, or null for other values. */
+  public String key(int v) {
+    if (key[v] < 0) return null;
+    return decodeString(key[v], keyStop[v]);
+  }
+
+  /** @return The decoded value of a string, or null if `v` is not a string. */
+  public String stringValue(int v) {
+    if (kind[v] != STRING) return null;
+    return decodeString(start[v], stop[v]);
+  }
+
+  /**
+   * @return The value of a number.
+   * @throws NumberFormatException If `v` is not a number.
+   */
+  public double numberValue(int v) {
+    if (kind[v] != NUMBER) throw new NumberFormatException("not a number: " + text(v));
+    return Double.parseDouble(text(v));
+  }
+
+  public long longValue(int v) {
+    if (kind[v] != NUMBER) throw new NumberFormatException("not a number: " + text(v));
+    return Long.parseLong(text(v));
+  }
+
+  public boolean booleanValue(int v) {
+    return kind[v] == TRUE;
+  }
+
+  /** @return The source text of any value, e.g. a whole object. */
+  public String text(int v) {
+    return input.getText(Interval.of(start[v], stop[v]));
+  }
+
+  /**
+   * Compares a string token with `s`. Offsets are in code points, as in the `CharStream`, and the
+   * text between the quotes has at least as many as the name it holds: escapes only lengthen it.
+   */
+  boolean keyEquals(int offset, int stop, String s) {
+    int length = stop - offset - 1; // between the quotes
+    if (length < s.codePointCount(0, s.length())) return false;
+    String raw = input.getText(Interval.of(offset + 1, stop - 1));
+    if (raw.indexOf('\\') >= 0) return decode(raw).equals(s); // escapes: compare decoded
+    return raw.equals(s);
+  }
+
+  /** Decode the string token from `offset` to `stop`, both quotes included */
+  String decodeString(int offset, int stop) {
+    return decode(input.getText(Interval.of(offset + 1, stop - 1)));
+  }
+
+  /**
+   * Replaces the escapes in a string token's text. Everything else, surrogate pairs included, is
+   * copied as is; `\\u` escapes are UTF-16 units, so escaped pairs come out whole too.
+   */
+  static String decode(String raw) {
+    int i = raw.indexOf('\\');
+    if (i < 0) return raw;
+    StringBuilder buf = new StringBuilder(raw.length());
+    buf.append(raw, 0, i);
+    while (i < raw.length()) {
+      char c = raw.charAt(i++);
+      if (c != '\\') {
+        buf.append(c);
+        continue;
+      }
+      c = raw.charAt(i++);
+      switch (c) {
+        case 'b':
+          buf.append('\b');
+          break;
+        case 'f':
+          buf.append('\f');
+          break;
+        case 'n':
+          buf.append('\n');
+          break;
+        case 'r':
+          buf.append('\r');
+          break;
+        case 't':
+          buf.append('\t');
+          break;
+        case 'u':
+          buf.append((char) Integer.parseInt(raw.substring(i, i + 4), 16));
+          i += 4;
+          break;
+        default:
+          buf.append(c); // \" \\ \/
+      }
+    }
+    return buf.toString();
+  }
+
+  /** Print the values at the paths given as arguments, e.g. "logs.level" or "admin.1" */
+  public static void main(String[] args) throws Exception {
+    String inputFile = null;
+    if (args.length > 0) inputFile = args[0];
+    JSONIndex doc = parse(Inputs.openFully(inputFile)); // values are decoded from it later
+    for (int i = 1; i < args.length; i++) {
+      String[] names = args[i].split("\\.");
+      Object[] steps = new Object[names.length];
+      for (int k = 0; k < names.length; k++) {
+        steps[k] = names[k].matches("[0-9]+") ? (Object) Integer.valueOf(names[k]) : names[k];
+      }
+      int v = doc.path(steps);
+      System.out.println(args[i] + " = " + (v < 0 ? "(missing)" : doc.text(v)));
+    }
+  }
+}
@@ -0,0 +1,298 @@
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+/**
+ * Evaluates simple JSONPath queries while JSONParser runs, without building a tree. Each value the
+ * parser enters is checked against the queries still alive for its parent; once no query can
+ * match below a value, the listener only counts nesting until the parser leaves it. Matching
+ * values are reassembled from their tokens and handed to a `Sink` as soon as the parser exits
+ * them, so results stream out while the rest of the input is still being read.
+ *
+ * <p>Supported steps: {@code $} (the root), {@code .name}, {@code ['name']}, {@code .*}, {@code
+ * [n]} and {@code [*]}. Matched text is the value's tokens without the whitespace between them.
+ */
+public class JSONPathStream {
+  /** Receives matches in input order */
+  public interface Sink {
+    /**
+     * @param query Index of the query that matched, in the order given to the constructor.
+     * @param path The concrete path of the value, e.g. {@code $.admin[1]}.
+     * @param text The value as compact JSON.
+     */
+    void match(int query, String path, String text);
+  }
+
+  /** One step of a query; `name` null means an array index step */
+  static class Step {
+    String name; // member name, or null
+    int index; // array index; -1 for any
+    boolean any; // .* or [*]
+
+    boolean matches(String key, int i) {
+      if (any) return true;
+      if (name != null) return name.equals(key);
+      return key == null && index == i;
+    }
+  }
+
+  String[] queries;
+  Step[][] steps;
+
+  /**
+   * Compiles queries.
+   * @param queries JSONPath expressions starting with `$`; at most 64.
+   * @throws IllegalArgumentException If a query is malformed or uses unsupported syntax.
+   */
+  public JSONPathStream(String... queries) {
+    if (queries.length > 64) throw new IllegalArgumentException("at most 64 queries");
+    this.queries = queries;
+    steps = new Step[queries.length][];
+    for (int q = 0; q < queries.length; q++) steps[q] = compile(queries[q]);
+  }
+
+  static Step[] compile(String query) {
+    if (!query.startsWith("$")) throw new IllegalArgumentException(query + ": must start with $");
+    List<Step> result = new ArrayList<Step>();
+    int i = 1;
+    while (i < query.length()) {
+      Step s = new Step();
+      char c = query.charAt(i);
+      if (c == '.' && query.startsWith("..", i)) {
+        throw new IllegalArgumentException(query + ": recursive descent is not supported");
+      } else if (c == '.') {
+        int end = i + 1;
+        while (end < query.length() && query.charAt(end) != '.' && query.charAt(end) != '[') end++;
+        String name = query.substring(i + 1, end);
+        if (name.isEmpty()) throw new IllegalArgumentException(query + ": empty name at " + i);
+        if (name.equals("*")) s.any = true;
+        else s.name = name;
+        i = end;
+      } else if (c == '[') {
+        int end = query.indexOf(']', i);
+        if (end < 0) throw new IllegalArgumentException(query + ": missing ]");
+        String sel = query.substring(i + 1, end);
+        if (sel.equals("*")) {
+          s.any = true;
+          s.index = -1;
+        } else if (sel.length() >= 2 && sel.startsWith("'") && sel.endsWith("'")) {
+          s.name = sel.substring(1, sel.length() - 1);
+        } else {
+          try {
+            s.index = Integer.parseInt(sel);
+          } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(query + ": bad index " + sel);
+          }
+        }
+        i = end + 1;
+      } else {
+        throw new IllegalArgumentException(query + ": unexpected '" + c + "' at " + i);
+      }
+      result.add(s);
+    }
+    return result.toArray(new Step[0]);
+  }
+
+  /**
+   * Runs the queries over a document.
+   * @param is The JSON text, read incrementally.
+   * @param sink Receives each match as soon as the parser has read the whole value.
+   */
+  public void run(InputStream is, Sink sink) {
+    CharStream input = new UnbufferedCharStream(is, 4096, StandardCharsets.UTF_8);
+    JSONLexer lexer = new JSONLexer(input);
+    lexer.setTokenFactory(new CommonTokenFactory(true)); // chars are gone once consumed
+    TokenStream tokens = new UnbufferedTokenStream<Token>(lexer);
+    JSONParser parser = new JSONParser(tokens);
+    parser.setBuildParseTree(false);
+    parser.addParseListener(new Matcher(sink));
+    parser.json();
+  }
+
+  /**
+   * Tracks the path to the value being parsed. Frame `d` holds the value at depth `d` (the root
+   * is 0): the queries whose first `d` steps match its path, its member name or array index, the
+   * number of elements seen so far if it is an array, and the queries that end there.
+   */
+  class Matcher extends JSONBaseListener {
+    Sink sink;
+    long[] alive = new long[16];
+    String[] keys = new String[16];
+    int[] indexes = new int[16];
+    int[] nextIndex = new int[16];
+    int depth = -1; // frame of the innermost value with live queries
+    int dead; // nesting of values below `depth` that no query can reach
+    long[] matched = new long[16]; // queries that end at each frame
+    int[] captureFrom = new int[16]; // where each matched frame's text starts in `capture`
+    StringBuilder capture = new StringBuilder(); // tokens of the outermost matched value
+    int capturing; // number of open matched frames
+
+    Matcher(Sink sink) {
+      this.sink = sink;
+    }
+
+    @Override
+    public void enterEveryRule(ParserRuleContext ctx) {
+      int rule = ctx.getRuleIndex();
+      if (rule != JSONParser.RULE_value && rule != JSONParser.RULE_json) return;
+      if (dead > 0) { // nothing below can match; just keep count
+        dead++;
+        return;
+      }
+      String key = null;
+      int index = -1;
+      long live;
+      if (rule == JSONParser.RULE_json) {
+        live = queries.length == 64 ? -1L : (1L << queries.length) - 1;
+      } else {
+        ParserRuleContext parent = ctx.getParent();
+        if (parent.getRuleIndex() == JSONParser.RULE_pair) key = unquote(parent.start.getText());
+        else index = nextIndex[depth]++;
+        live = 0;
+        int d = depth; // steps[q][d] applies to children of frame d
+        for (long m = alive[depth]; m != 0; m &= m - 1) {
+          int q = Long.numberOfTrailingZeros(m);
+          if (steps[q].length > d && steps[q][d].matches(key, index)) live |= 1L << q;
+        }
+        if (live == 0) {
+          dead = 1;
+          return;
+        }
+      }
+      push(key, index, live);
+      long complete = 0;
+      for (long m = live; m != 0; m &= m - 1) {
+        int q = Long.numberOfTrailingZeros(m);
+        if (steps[q].length == depth) complete |= 1L << q;
+      }
+      if (complete != 0) {
+        matched[depth] = complete;
+        captureFrom[depth] = capture.length(); // text of an inner match is a suffix of outer text
+        capturing++;
+      }
+    }
+
+    @Override
+    public void exitEveryRule(ParserRuleContext ctx) {
+      int rule = ctx.getRuleIndex();
+      if (rule != JSONParser.RULE_value && rule != JSONParser.RULE_json) return;
+      if (dead > 0) {
+        dead--;
+        return;
+      }
+      if (matched[depth] != 0) {
+        emit(matched[depth], capture.substring(captureFrom[depth]));
+        if (--capturing == 0) capture.setLength(0);
+      }
+      depth--;
+    }
+
+    @Override
+    public void visitTerminal(TerminalNode node) {
+      if (capturing > 0) capture.append(node.getText());
+      ((ParserRuleContext) node.getParent()).removeLastChild(); // don't keep a child per token
+    }
+
+    @Override
+    public void visitErrorNode(ErrorNode node) {
+      ((ParserRuleContext) node.getParent()).removeLastChild();
+    }
+
+    void push(String key, int index, long live) {
+      depth++;
+      if (depth == alive.length) {
+        int n = depth * 2;
+        alive = Arrays.copyOf(alive, n);
+        keys = Arrays.copyOf(keys, n);
+        indexes = Arrays.copyOf(indexes, n);
+        nextIndex = Arrays.copyOf(nextIndex, n);
+        matched = Arrays.copyOf(matched, n);
+        captureFrom = Arrays.copyOf(captureFrom, n);
+      }
+      alive[depth] = live;
+      keys[depth] = key;
+      indexes[depth] = index;
+      nextIndex[depth] = 0;
+      matched[depth] = 0;
+    }
+
+    void emit(long complete, String text) {
+      String path = path();
+      for (long m = complete; m != 0; m &= m - 1) {
+        sink.match(Long.numberOfTrailingZeros(m), path, text);
+      }
+    }
+
+    /** The concrete path of frame `depth` */
+    String path() {
+      StringBuilder buf = new StringBuilder("$");
+      for (int d = 1; d <= depth; d++) {
+        if (keys[d] != null) buf.append('.').append(keys[d]);
+        else buf.append('[').append(indexes[d]).append(']');
+      }
+      return buf.toString();
+    }
+  }
+
+  /** Strip quotes from a STRING token and resolve its escapes */
+  static String unquote(String s) {
+    s = s.substring(1, s.length() - 1);
+    if (s.indexOf('\\') < 0) return s;
+    StringBuilder buf = new StringBuilder();
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c != '\\') {
+        buf.append(c);
+        continue;
+      }
+      c = s.charAt(++i);
+      switch (c) {
+        case 'b':
+          buf.append('\b');
+          break;
+        case 'f':
+          buf.append('\f');
+          break;
+        case 'n':
+          buf.append('\n');
+          break;
+        case 'r':
+          buf.append('\r');
+          break;
+        case 't':
+          buf.append('\t');
+          break;
+        case 'u':
+          buf.append((char) Integer.parseInt(s.substring(i + 1, i + 5), 16));
+          i += 4;
+          break;
+        default:
+          buf.append(c); // \" \\ \/
+      }
+    }
+    return buf.toString();
+  }
+
+  /**
+   * Arguments starting with `$` are queries; another argument names the input file, which
+   * defaults to stdin. Prints one "path = value" line per match.
+   */
+  public static void main(String[] args) throws Exception {
+    String inputFile = null;
+    List<String> queries = new ArrayList<String>();
+    for (String a : args) {
+      if (a.startsWith("$")) queries.add(a);
+      else inputFile = a;
+    }
+    InputStream is = System.in;
+    if (inputFile != null) is = new FileInputStream(inputFile);
+    JSONPathStream stream = new JSONPathStream(queries.toArray(new String[0]));
+    stream.run(is, (q, path, text) -> System.out.println(path + " = " + text));
+  }
+}
@@ -6,10 +6,10 @@
  * We make no guarantees that this code is fit for any purpose.
  * Visit http://www.pragmaticprogrammer.com/titles/tpantlr2 for more book information.
  ***/
-import java.io.FileInputStream;
-import java.io.InputStream;
+import common.FlatTree;
+import common.Inputs;
+import common.Metrics;
 import java.util.*;
-import org.antlr.v4.runtime.ANTLRInputStream;
 import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.tree.ParseTree;
 import org.antlr.v4.runtime.tree.ParseTreeWalker;
@@ -65,18 +65,47 @@ public class LoadCSV {
 
   public static void main(String[] args) throws Exception {
     String inputFile = null;
-    if (args.length > 0) inputFile = args[0];
-    InputStream is = System.in;
-    if (inputFile != null) is = new FileInputStream(inputFile);
-    CSVLexer lexer = new CSVLexer(new ANTLRInputStream(is));
-    CommonTokenStream tokens = new CommonTokenStream(lexer);
+    boolean flat = false; // keep the tree as a FlatTree instead of context objects
+    boolean lowmem = false; // load rows during the parse from a sliding window of tokens
+    for (String arg : args) {
+      if (arg.equals("-flat")) flat = true;
+      else if (arg.equals("-lowmem")) lowmem = true;
+      else inputFile = arg;
+    }
+    if (flat && lowmem) throw new IllegalArgumentException("-flat needs every token; not -lowmem");
+    Metrics.Run run = Metrics.start("LoadCSV", inputFile);
+    CSVLexer lexer = new CSVLexer(Inputs.open(inputFile));
+    Loader loader = new Loader();
+    if (lowmem) {
+      // Loader only reads the tokens of the field it has just finished, so it can run as the
+      // parser goes; no tree, and tokens are dropped once the parser is past them
+      CSVParser parser = new CSVParser(Inputs.streamingTokens(lexer));
+      parser.setBuildParseTree(false);
+      parser.addParseListener(loader);
+      run.parse(parser, parser::file);
+      run.finish(null);
+      System.out.println(loader.rows);
+      return;
+    }
+    CommonTokenStream tokens = Inputs.tokens(lexer);
+    run.lex(tokens);
     CSVParser parser = new CSVParser(tokens);
+    if (flat) {
+      FlatTree.Builder builder = new FlatTree.Builder(tokens);
+      parser.setBuildParseTree(false);
+      parser.addParseListener(builder);
+      run.parse(parser, parser::file);
+      run.walk(() -> builder.tree().walk(loader));
+      run.finish(null);
+      System.out.println(loader.rows);
+      return;
+    }
     parser.setBuildParseTree(true); // tell ANTLR to build a parse tree
-    ParseTree tree = parser.file();
+    ParseTree tree = run.parse(parser, parser::file);
 
     ParseTreeWalker walker = new ParseTreeWalker();
-    Loader loader = new Loader();
-    walker.walk(loader, tree);
+    run.walk(() -> walker.walk(loader, tree));
+    run.finish(tree);
     System.out.println(loader.rows);
   }
 }
@@ -0,0 +1,309 @@
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+/**
+ * Loads a DOT file into a compact in-memory graph. Node names are interned to consecutive ints,
+ * edges live in two int arrays, and attribute maps are kept out of line for just the nodes and
+ * edges that have attributes. No parse tree is built: a parse listener picks up node ids and edge
+ * statements while the parser runs over unbuffered char and token streams, so memory holds the
+ * graph itself rather than the file.
+ */
+public class LoadDOT {
+  /** A graph with nodes numbered in order of first appearance */
+  public static class Graph {
+    public String name;
+    public boolean directed;
+    /** Attributes set with `graph [...]` or `a=b` statements */
+    public Map<String, String> graphAttributes = new LinkedHashMap<String, String>();
+    /** Defaults set with `node [...]` and `edge [...]` statements */
+    public Map<String, String> nodeDefaults = new LinkedHashMap<String, String>();
+    public Map<String, String> edgeDefaults = new LinkedHashMap<String, String>();
+
+    Map<String, Integer> ids = new HashMap<String, Integer>();
+    String[] names = new String[16];
+    int nodeCount;
+    int[] sources = new int[64];
+    int[] targets = new int[64];
+    int edgeCount;
+    /** Attribute maps by node or edge number; most nodes and edges have none */
+    Map<Integer, Map<String, String>> nodeAttributes = new HashMap<Integer, Map<String, String>>();
+    Map<Integer, Map<String, String>> edgeAttributes = new HashMap<Integer, Map<String, String>>();
+
+    /** Successors in compressed sparse row form; built on first query */
+    int[] outStart;
+    int[] outTargets;
+
+    /** @return The number of `name`, assigning the next free number if it is new. */
+    public int node(String name) {
+      Integer id = ids.get(name);
+      if (id != null) return id;
+      if (nodeCount == names.length) names = Arrays.copyOf(names, nodeCount * 2);
+      names[nodeCount] = name;
+      ids.put(name, nodeCount);
+      return nodeCount++;
+    }
+
+    /** @return The number of the new edge. */
+    public int edge(int source, int target) {
+      if (edgeCount == sources.length) {
+        sources = Arrays.copyOf(sources, edgeCount * 2);
+        targets = Arrays.copyOf(targets, edgeCount * 2);
+      }
+      sources[edgeCount] = source;
+      targets[edgeCount] = target;
+      outStart = null; // adjacency is stale
+      return edgeCount++;
+    }
+
+    public int nodeCount() {
+      return nodeCount;
+    }
+
+    public int edgeCount() {
+      return edgeCount;
+    }
+
+    public String name(int node) {
+      return names[node];
+    }
+
+    /** @return The number of node `name`, or -1 if the graph has no such node. */
+    public int lookup(String name) {
+      Integer id = ids.get(name);
+      return id != null ? id : -1;
+    }
+
+    public int source(int edge) {
+      return sources[edge];
+    }
+
+    public int target(int edge) {
+      return targets[edge];
+    }
+
+    /** @return The attributes of a node; empty if it has none. */
+    public Map<String, String> attributes(int node) {
+      Map<String, String> attrs = nodeAttributes.get(node);
+      return attrs != null ? attrs : Collections.<String, String>emptyMap();
+    }
+
+    /** @return The attributes of an edge; empty if it has none. */
+    public Map<String, String> edgeAttributes(int edge) {
+      Map<String, String> attrs = edgeAttributes.get(edge);
+      return attrs != null ? attrs : Collections.<String, String>emptyMap();
+    }
+
+    /**
+     * Returns the targets of the edges leaving a node, in the order the edges appear in the file.
+     * For undirected graphs an edge is listed under its first endpoint only.
+     */
+    public int[] successors(int node) {
+      if (outStart == null) buildAdjacency();
+      return Arrays.copyOfRange(outTargets, outStart[node], outStart[node + 1]);
+    }
+
+    public int outDegree(int node) {
+      if (outStart == null) buildAdjacency();
+      return outStart[node + 1] - outStart[node];
+    }
+
+    void buildAdjacency() {
+      int[] start = new int[nodeCount + 1];
+      for (int e = 0; e < edgeCount; e++) start[sources[e] + 1]++;
+      for (int n = 0; n < nodeCount; n++) start[n + 1] += start[n];
+      int[] next = Arrays.copyOf(start, nodeCount);
+      int[] out = new int[edgeCount];
+      for (int e = 0; e < edgeCount; e++) out[next[sources[e]]++] = targets[e];
+      outStart = start;
+      outTargets = out;
+    }
+
+    public String toString() {
+      return (directed ? "digraph " : "graph ")
+          + (name != null ? name + " " : "")
+          + nodeCount
+          + " nodes, "
+          + edgeCount
+          + " edges";
+    }
+  }
+
+  /** Operands of an edge statement, e.g. `a -> {b c} -> d` has three */
+  static class EdgeStatement {
+    List<int[]> operands = new ArrayList<int[]>();
+    Map<String, String> attributes;
+  }
+
+  /**
+   * Builds a `Graph` from parse events. It relies only on each context's start token, never on
+   * its children, and drops terminal nodes as soon as it has seen them so that contexts spanning
+   * the whole file, like stmt_list, do not accumulate a child per statement.
+   */
+  public static class Loader extends DOTBaseListener {
+    Graph graph = new Graph();
+    Deque<EdgeStatement> edges = new ArrayDeque<EdgeStatement>();
+    /** Nodes mentioned inside each open subgraph */
+    Deque<Set<Integer>> subgraphs = new ArrayDeque<Set<Integer>>();
+    int currentNode = -1; // node of the innermost node_stmt
+    /** Where the attributes of the attr_list being parsed go */
+    Map<String, String> attributes;
+    String key; // attribute name awaiting its value
+    boolean sawEquals; // '=' seen after `key`
+
+    public void enterEdge_stmt(DOTParser.Edge_stmtContext ctx) {
+      edges.push(new EdgeStatement());
+    }
+
+    public void exitEdge_stmt(DOTParser.Edge_stmtContext ctx) {
+      EdgeStatement stmt = edges.pop();
+      for (int i = 0; i + 1 < stmt.operands.size(); i++) {
+        for (int s : stmt.operands.get(i)) {
+          for (int t : stmt.operands.get(i + 1)) {
+            int e = graph.edge(s, t);
+            // edges of one statement share a single attribute map
+            if (stmt.attributes != null) graph.edgeAttributes.put(e, stmt.attributes);
+          }
+        }
+      }
+    }
+
+    public void enterSubgraph(DOTParser.SubgraphContext ctx) {
+      subgraphs.push(new LinkedHashSet<Integer>());
+    }
+
+    public void exitSubgraph(DOTParser.SubgraphContext ctx) {
+      Set<Integer> members = subgraphs.pop();
+      if (!subgraphs.isEmpty()) subgraphs.peek().addAll(members);
+      if (isEdgeOperand(ctx)) {
+        int[] operand = new int[members.size()];
+        int i = 0;
+        for (int n : members) operand[i++] = n;
+        edges.peek().operands.add(operand);
+      }
+    }
+
+    public void exitNode_id(DOTParser.Node_idContext ctx) {
+      int n = graph.node(idText(ctx.start));
+      if (!subgraphs.isEmpty()) subgraphs.peek().add(n);
+      if (isEdgeOperand(ctx)) edges.peek().operands.add(new int[] {n});
+      else currentNode = n; // node_stmt
+    }
+
+    public void enterAttr_list(DOTParser.Attr_listContext ctx) {
+      int parent = ctx.getParent().getRuleIndex();
+      if (parent == DOTParser.RULE_node_stmt) {
+        attributes = graph.nodeAttributes.get(currentNode);
+        if (attributes == null) {
+          attributes = new LinkedHashMap<String, String>();
+          graph.nodeAttributes.put(currentNode, attributes);
+        }
+      } else if (parent == DOTParser.RULE_edge_stmt) {
+        attributes = new LinkedHashMap<String, String>();
+        edges.peek().attributes = attributes;
+      } else { // attr_stmt
+        switch (ctx.getParent().start.getType()) {
+          case DOTParser.NODE:
+            attributes = graph.nodeDefaults;
+            break;
+          case DOTParser.EDGE:
+            attributes = graph.edgeDefaults;
+            break;
+          default:
+            attributes = graph.graphAttributes;
+        }
+      }
+    }
+
+    public void exitA_list(DOTParser.A_listContext ctx) {
+      flushKey();
+    }
+
+    public void exitStmt(DOTParser.StmtContext ctx) {
+      flushKey(); // `id '=' id` statements set graph attributes through `key`
+    }
+
+    public void exitId(DOTParser.IdContext ctx) {
+      int parent = ctx.getParent().getRuleIndex();
+      if (parent == DOTParser.RULE_graph) {
+        graph.name = idText(ctx.start);
+      } else if (parent == DOTParser.RULE_a_list || parent == DOTParser.RULE_stmt) {
+        if (parent == DOTParser.RULE_stmt) attributes = graph.graphAttributes;
+        if (sawEquals) {
+          attributes.put(key, idText(ctx.start));
+          key = null;
+          sawEquals = false;
+        } else {
+          flushKey();
+          key = idText(ctx.start);
+        }
+      }
+      // ids of ports and subgraph names carry nothing we keep
+    }
+
+    @Override
+    public void visitTerminal(TerminalNode node) {
+      ParserRuleContext parent = (ParserRuleContext) node.getParent();
+      if (key != null && node.getText().equals("=")) sawEquals = true;
+      if (node.getSymbol().getType() == DOTParser.DIGRAPH) graph.directed = true;
+      parent.removeLastChild(); // the parser added it only because we listen; don't keep it
+    }
+
+    /** An attribute given without a value, like `[bold]`, means true */
+    void flushKey() {
+      if (key != null) attributes.put(key, "true");
+      key = null;
+      sawEquals = false;
+    }
+
+    static boolean isEdgeOperand(ParserRuleContext ctx) {
+      int parent = ctx.getParent().getRuleIndex();
+      return parent == DOTParser.RULE_edge_stmt || parent == DOTParser.RULE_edgeRHS;
+    }
+  }
+
+  /** Strip quotes and unescape \" in quoted ids; other ids are used as is */
+  static String idText(Token t) {
+    String s = t.getText();
+    if (t.getType() != DOTParser.STRING) return s;
+    s = s.substring(1, s.length() - 1);
+    return s.indexOf('\\') < 0 ? s : s.replace("\\\"", "\"");
+  }
+
+  /**
+   * Loads a DOT graph from a stream.
+   * @param is The DOT text, read incrementally.
+   * @return The graph.
+   */
+  public static Graph load(InputStream is) {
+    CharStream input = new UnbufferedCharStream(is, 4096, StandardCharsets.UTF_8);
+    DOTLexer lexer = new DOTLexer(input);
+    lexer.setTokenFactory(new CommonTokenFactory(true)); // chars are gone once consumed
+    TokenStream tokens = new UnbufferedTokenStream<Token>(lexer);
+    DOTParser parser = new DOTParser(tokens);
+    parser.setBuildParseTree(false);
+    Loader loader = new Loader();
+    parser.addParseListener(loader);
+    parser.graph();
+    return loader.graph;
+  }
+
+  public static void main(String[] args) throws Exception {
+    String inputFile = null;
+    if (args.length > 0) inputFile = args[0];
+    InputStream is = System.in;
+    if (inputFile != null) is = new FileInputStream(inputFile);
+    Graph g = load(is);
+    System.out.println(g);
+    for (int n = 0; n < g.nodeCount(); n++) {
+      StringBuilder buf = new StringBuilder(g.name(n));
+      if (!g.attributes(n).isEmpty()) buf.append(' ').append(g.attributes(n));
+      buf.append(" ->");
+      for (int t : g.successors(n)) buf.append(' ').append(g.name(t));
+      System.out.println(buf);
+    }
+  }
+}
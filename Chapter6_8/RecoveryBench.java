@@ -0,0 +1,210 @@
+import common.ErrorStrategies;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+
+/**
+ * Measures what each error mode of `ErrorStrategies` costs on malformed input. Each bundled
+ * sample (CSV, JSON, DOT, Cymbol, R) is repeated into a document of about `-mb` megabytes, then
+ * damaged at several rates: random characters deleted, inserted or overwritten, and finally
+ * replaced by noise altogether. Every document is parsed under every mode, without a parse tree
+ * and with error printing off, and the report gives milliseconds per MB, errors reported, and
+ * whether the parse ran to the end or was cancelled.
+ *
+ * <p>Usage: {@code RecoveryBench [-mb n] [-modes default,bounded,bail] [-seed n]}, run from this
+ * directory so the samples are found.
+ */
+public class RecoveryBench {
+  /** How to build a parseable document from a sample and parse it */
+  static class Target {
+    String name;
+    String prefix, unit, separator, suffix;
+    Function<CharStream, Lexer> lexer;
+    Function<TokenStream, Parser> parser;
+    Consumer<Parser> start;
+
+    Target(
+        String name,
+        String prefix,
+        String unit,
+        String separator,
+        String suffix,
+        Function<CharStream, Lexer> lexer,
+        Function<TokenStream, Parser> parser,
+        Consumer<Parser> start) {
+      this.name = name;
+      this.prefix = prefix;
+      this.unit = unit;
+      this.separator = separator;
+      this.suffix = suffix;
+      this.lexer = lexer;
+      this.parser = parser;
+      this.start = start;
+    }
+
+    /** @return Copies of `unit` joined into one valid document of at least `size` chars. */
+    String document(int size) {
+      StringBuilder buf = new StringBuilder(size + unit.length() + 64).append(prefix);
+      buf.append(unit);
+      while (buf.length() < size) buf.append(separator).append(unit);
+      return buf.append(suffix).toString();
+    }
+  }
+
+  static String read(String file) throws Exception {
+    return new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8);
+  }
+
+  static List<Target> targets() throws Exception {
+    List<Target> targets = new ArrayList<Target>();
+    String csv = read("data.csv");
+    int eol = csv.indexOf('\n') + 1;
+    targets.add(
+        new Target("csv", csv.substring(0, eol), csv.substring(eol), "", "",
+            CSVLexer::new, CSVParser::new, p -> ((CSVParser) p).file()));
+    targets.add(
+        new Target("json", "[", read("t.json"), ",\n", "]\n",
+            JSONLexer::new, JSONParser::new, p -> ((JSONParser) p).json()));
+    String dot = read("t.dot");
+    String body = dot.substring(dot.indexOf('{') + 1, dot.lastIndexOf('}'));
+    targets.add(
+        new Target("dot", "digraph G {", body, "\n", "}\n",
+            DOTLexer::new, DOTParser::new, p -> ((DOTParser) p).graph()));
+    String cymbol = read("t.cymbol");
+    cymbol = cymbol.substring(0, cymbol.lastIndexOf('}') + 1); // drop the stray text at the end
+    targets.add(
+        new Target("cymbol", "", cymbol, "\n", "",
+            CymbolLexer::new, CymbolParser::new, p -> ((CymbolParser) p).file()));
+    targets.add(
+        new Target("R", "", read("t.R"), "\n", "",
+            RLexer::new, RParser::new, p -> ((RParser) p).prog()));
+    return targets;
+  }
+
+  static final String NOISE = "{}[]()<>;:,.=+-*/\"'#\n abcxyz019_";
+
+  /**
+   * Damages `rate` of the characters of `s`; a rate of 1 or more replaces all of it with noise.
+   */
+  static String corrupt(String s, double rate, Random random) {
+    if (rate <= 0) return s;
+    StringBuilder buf = new StringBuilder(s.length());
+    if (rate >= 1) {
+      for (int i = 0; i < s.length(); i++) buf.append(NOISE.charAt(random.nextInt(NOISE.length())));
+      return buf.toString();
+    }
+    for (int i = 0; i < s.length(); i++) {
+      if (random.nextDouble() >= rate) {
+        buf.append(s.charAt(i));
+        continue;
+      }
+      switch (random.nextInt(3)) {
+        case 0: // delete
+          break;
+        case 1: // insert
+          buf.append(NOISE.charAt(random.nextInt(NOISE.length()))).append(s.charAt(i));
+          break;
+        default: // overwrite
+          buf.append(NOISE.charAt(random.nextInt(NOISE.length())));
+      }
+    }
+    return buf.toString();
+  }
+
+  /** Outcome of one parse */
+  static class Run {
+    long nanos;
+    int errors;
+    String outcome = "completed";
+  }
+
+  /** Counts every error reported, by lexer or parser, without printing it */
+  static class Counter extends BaseErrorListener {
+    int errors;
+
+    @Override
+    public void syntaxError(
+        Recognizer<?, ?> recognizer,
+        Object offendingSymbol,
+        int line,
+        int charPositionInLine,
+        String msg,
+        RecognitionException e) {
+      errors++;
+    }
+  }
+
+  static Run parse(Target target, String text, String mode) {
+    Run run = new Run();
+    Counter counter = new Counter();
+    long start = System.nanoTime();
+    Lexer lexer = target.lexer.apply(CharStreams.fromString(text));
+    lexer.removeErrorListeners();
+    lexer.addErrorListener(counter);
+    CommonTokenStream tokens = new CommonTokenStream(lexer);
+    Parser parser = target.parser.apply(tokens);
+    parser.removeErrorListeners();
+    parser.addErrorListener(counter);
+    parser.setBuildParseTree(false);
+    ErrorStrategies.install(lexer, parser, mode);
+    try {
+      target.start.accept(parser);
+    } catch (ParseCancellationException e) {
+      run.outcome = "cancelled";
+    }
+    run.nanos = System.nanoTime() - start;
+    run.errors = counter.errors;
+    // none of the start rules demand EOF, so recovery can also end a parse early. Read the
+    // buffer rather than LT(1), which would run a lexer that gave up straight into its limit again
+    int i = tokens.index();
+    Token t = i >= 0 && i < tokens.size() ? tokens.get(i) : null;
+    if (t == null || t.getType() != Token.EOF) {
+      if (run.outcome.equals("completed")) run.outcome = "stopped";
+      long at = t == null ? 0 : t.getStartIndex();
+      run.outcome += String.format(" at %d%%", at * 100 / text.length());
+    }
+    return run;
+  }
+
+  public static void main(String[] args) throws Exception {
+    double mb = 1;
+    String[] modes = {"default", "bounded", "bail"};
+    long seed = 42;
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      if (args[i].equals("-mb")) mb = Double.parseDouble(args[i + 1]);
+      else if (args[i].equals("-modes")) modes = args[i + 1].split(",");
+      else if (args[i].equals("-seed")) seed = Long.parseLong(args[i + 1]);
+      else throw new IllegalArgumentException("unknown option " + args[i]);
+    }
+    double[] rates = {0, 0.001, 0.01, 0.1, 1};
+    System.out.printf(
+        "%-7s %-8s %-10s %10s %8s %s\n", "sample", "damage", "mode", "ms/MB", "errors",
+        "outcome");
+    for (Target target : targets()) {
+      String clean = target.document((int) (mb * 1024 * 1024));
+      double megabytes = clean.getBytes(StandardCharsets.UTF_8).length / (1024.0 * 1024);
+      for (double rate : rates) {
+        String text = corrupt(clean, rate, new Random(seed));
+        String damage = rate >= 1 ? "noise" : rate * 100 + "%";
+        for (String mode : modes) {
+          for (int k = 0; k < 3; k++) parse(target, text, mode); // warm up JIT and DFA caches
+          Run best = null;
+          for (int k = 0; k < 5; k++) {
+            Run run = parse(target, text, mode);
+            if (best == null || run.nanos < best.nanos) best = run;
+          }
+          System.out.printf(
+              "%-7s %-8s %-10s %10.1f %8d %s\n", target.name, damage, mode,
+              best.nanos / 1e6 / megabytes, best.errors, best.outcome);
+        }
+      }
+    }
+  }
+}
@@ -6,6 +6,8 @@
  * We make no guarantees that this code is fit for any purpose.
  * Visit http://www.pragmaticprogrammer.com/titles/tpantlr2 for more book information.
  ***/
+import java.nio.file.Path;
+import org.antlr.v4.runtime.Token;
 import org.antlr.v4.runtime.tree.ParseTreeProperty;
 
 /**
@@ -18,6 +20,10 @@ public class RefPhase extends CymbolBaseListener {
   ParseTreeProperty<Scope> scopes;
   GlobalScope globals;
   Scope currentScope; // resolve symbols starting in this scope
+  /** How many errors were reported */
+  int errors;
+  /** Printed before each error when checking a library; null for the file being checked */
+  Path library;
 
   /**
    * Constructs a new `RefPhase` listener.
@@ -85,10 +91,10 @@ public class RefPhase extends CymbolBaseListener {
     String name = ctx.ID().getSymbol().getText();
     Symbol var = currentScope.resolve(name);
     if (var == null) {
-      CheckSymbols.error(ctx.ID().getSymbol(), "no such variable: " + name);
+      error(ctx.ID().getSymbol(), "no such variable: " + name);
     }
     if (var instanceof FunctionSymbol) {
-      CheckSymbols.error(ctx.ID().getSymbol(), name + " is not a variable");
+      error(ctx.ID().getSymbol(), name + " is not a variable");
     }
   }
 
@@ -103,10 +109,16 @@ public class RefPhase extends CymbolBaseListener {
     String funcName = ctx.ID().getText();
     Symbol meth = currentScope.resolve(funcName);
     if (meth == null) {
-      CheckSymbols.error(ctx.ID().getSymbol(), "no such function: " + funcName);
+      error(ctx.ID().getSymbol(), "no such function: " + funcName);
     }
     if (meth instanceof VariableSymbol) {
-      CheckSymbols.error(ctx.ID().getSymbol(), funcName + " is not a function");
+      error(ctx.ID().getSymbol(), funcName + " is not a function");
     }
   }
+
+  void error(Token t, String msg) {
+    errors++;
+    if (library == null) CheckSymbols.error(t, msg);
+    else System.err.printf("%s:%d:%d %s\n", library, t.getLine(), t.getCharPositionInLine(), msg);
+  }
 }
@@ -0,0 +1,220 @@
+import common.FileErrorListener;
+import common.Inputs;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+
+/**
+ * Precompiled symbol tables for Cymbol library files, much like precompiled headers. The global
+ * scope of a checked library is saved next to it as `file.sym`, a binary snapshot of its
+ * variables and functions with their types and arguments, under a SHA-256 key covering the
+ * library's content and the keys of the libraries enclosing it. Later checks load the snapshot
+ * instead of parsing the library again, as long as the key still matches; otherwise the library
+ * is checked again and the snapshot rewritten. A library with errors gets no snapshot, so they
+ * are reported on every check until fixed, and so does one enclosed by a scope that isn't a
+ * library's.
+ *
+ * <p>The format is a magic number and version, the key, the symbol count, and per symbol a kind,
+ * name and type, followed for a function by its arguments' names and types. Symbols local to the
+ * library's functions are not saved, since nothing outside them can refer to them.
+ */
+public class SymbolSnapshot {
+  static final int MAGIC = 0x43594d53; // "CYMS"
+  static final int VERSION = 2;
+  static final int VARIABLE = 0;
+  static final int FUNCTION = 1;
+
+  /**
+   * Loads the global symbols of a library, from its snapshot if that is up to date.
+   * @param library A Cymbol file.
+   * @param enclosing Where names the library doesn't define resolve, e.g. the scope of another
+   *     library; may be null.
+   * @return The library's global scope, enclosed by `enclosing`.
+   * @throws IOException If the library cannot be read.
+   */
+  public static GlobalScope load(Path library, Scope enclosing) throws IOException {
+    byte[] source = Files.readAllBytes(library);
+    byte[] key = key(source, enclosing);
+    Path snapshot = snapshotFile(library);
+    if (key != null && Files.exists(snapshot)) {
+      try (DataInputStream in =
+          new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+        GlobalScope globals = read(in, key, enclosing);
+        if (globals != null) {
+          globals.snapshotKey = key;
+          return globals;
+        }
+      } catch (IOException e) {
+        // truncated or garbled; check the library again and replace it
+      }
+    }
+    Checked checked = check(library, source, enclosing);
+    GlobalScope globals = checked.globals;
+    if (key == null || checked.errors > 0) return globals;
+    globals.snapshotKey = key;
+    try {
+      write(globals, key, snapshot);
+    } catch (IOException e) {
+      System.err.println("can't save " + snapshot + ": " + e); // still checked, just slower
+    }
+    return globals;
+  }
+
+  /**
+   * @return The SHA-256 of the enclosing library's key followed by `source`, or null if the
+   *     enclosing scope isn't a library loaded here and so can't be keyed.
+   */
+  static byte[] key(byte[] source, Scope enclosing) {
+    byte[] outer = new byte[0];
+    if (enclosing != null) {
+      if (!(enclosing instanceof GlobalScope)) return null;
+      outer = ((GlobalScope) enclosing).snapshotKey;
+      if (outer == null) return null;
+    }
+    MessageDigest digest = sha256();
+    digest.update(outer);
+    return digest.digest(source);
+  }
+
+  static Path snapshotFile(Path library) {
+    return library.resolveSibling(library.getFileName() + ".sym");
+  }
+
+  static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e); // every JVM has SHA-256
+    }
+  }
+
+  /** A checked library's scope and how many errors checking it reported */
+  static class Checked {
+    final GlobalScope globals;
+    final int errors;
+
+    Checked(GlobalScope globals, int errors) {
+      this.globals = globals;
+      this.errors = errors;
+    }
+  }
+
+  /** Runs both phases of `CheckSymbols` on a library, reporting its errors with its path */
+  static Checked check(Path library, byte[] source, Scope enclosing) throws IOException {
+    CymbolLexer lexer = new CymbolLexer(Inputs.decode(source, library.toString()));
+    FileErrorListener syntaxErrors = new FileErrorListener(library);
+    lexer.removeErrorListeners();
+    lexer.addErrorListener(syntaxErrors);
+    CymbolParser parser = new CymbolParser(new CommonTokenStream(lexer));
+    parser.removeErrorListeners();
+    parser.addErrorListener(syntaxErrors);
+    ParseTree tree = parser.file();
+    ParseTreeWalker walker = new ParseTreeWalker();
+    DefPhase def = new DefPhase(enclosing);
+    def.quiet = true;
+    walker.walk(def, tree);
+    RefPhase ref = new RefPhase(def.globals, def.scopes);
+    ref.library = library;
+    walker.walk(ref, tree);
+    int errors = syntaxErrors.getErrors() + ref.errors;
+    return new Checked(def.globals, errors);
+  }
+
+  /**
+   * Saves a global scope, through a temporary file so readers never see half a snapshot.
+   * @param globals The scope.
+   * @param key The key of the source it was built from, as `load` computes it.
+   * @param snapshot Where to save it.
+   * @throws IOException If it can't be written.
+   */
+  public static void write(GlobalScope globals, byte[] key, Path snapshot) throws IOException {
+    Path tmp = Files.createTempFile(snapshot.toAbsolutePath().getParent(), "sym", ".tmp");
+    try {
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.write(key);
+        out.writeInt(globals.symbols.size());
+        for (Symbol symbol : globals.symbols.values()) {
+          out.writeByte(symbol instanceof FunctionSymbol ? FUNCTION : VARIABLE);
+          out.writeUTF(symbol.name);
+          out.writeByte(symbol.type.ordinal());
+          if (symbol instanceof FunctionSymbol) {
+            FunctionSymbol function = (FunctionSymbol) symbol;
+            out.writeShort(function.arguments.size());
+            for (Symbol arg : function.arguments.values()) {
+              out.writeUTF(arg.name);
+              out.writeByte(arg.type.ordinal());
+            }
+          }
+        }
+      }
+      try {
+        Files.move(
+            tmp, snapshot, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  /**
+   * Loads a global scope saved by `write`.
+   * @param in The snapshot.
+   * @param key The key the source and enclosing libraries must still have.
+   * @param enclosing Scope enclosing the loaded one; may be null.
+   * @return The scope, or null if the snapshot is of other content or another format version.
+   * @throws IOException If the snapshot can't be read or is garbled.
+   */
+  public static GlobalScope read(DataInputStream in, byte[] key, Scope enclosing)
+      throws IOException {
+    if (in.readInt() != MAGIC) throw new IOException("not a symbol snapshot");
+    if (in.readShort() != VERSION) return null;
+    byte[] saved = new byte[key.length];
+    in.readFully(saved);
+    if (!Arrays.equals(saved, key)) return null;
+    GlobalScope globals = new GlobalScope(enclosing);
+    for (int n = in.readInt(); n > 0; n--) {
+      int kind = in.readByte();
+      String name = in.readUTF();
+      Symbol.Type type = type(in.readByte());
+      if (kind == FUNCTION) {
+        FunctionSymbol function = new FunctionSymbol(name, type, globals);
+        for (int args = in.readShort(); args > 0; args--) {
+          String arg = in.readUTF();
+          function.define(new VariableSymbol(arg, type(in.readByte())));
+        }
+        globals.define(function);
+      } else if (kind == VARIABLE) {
+        globals.define(new VariableSymbol(name, type));
+      } else {
+        throw new IOException("garbled symbol snapshot: symbol kind " + kind);
+      }
+    }
+    return globals;
+  }
+
+  static final Symbol.Type[] TYPES = Symbol.Type.values();
+
+  static Symbol.Type type(int ordinal) throws IOException {
+    if (ordinal < 0 || ordinal >= TYPES.length) {
+      throw new IOException("garbled symbol snapshot: type " + ordinal);
+    }
+    return TYPES[ordinal];
+  }
+}
@@ -0,0 +1,38 @@
+import org.antlr.v4.runtime.CharStreams;
+
+/**
+ * Checks that JSONIndex reads names and strings by code point, with characters outside the BMP
+ * both raw and escaped. Prints each failed check and exits with status 1 if there was any.
+ */
+public class TestJSONIndex {
+  static int failures;
+
+  static void check(String what, Object expected, Object actual) {
+    if (expected.equals(actual)) return;
+    System.err.println(what + ": expected " + expected + " but got " + actual);
+    failures++;
+  }
+
+  public static void main(String[] args) {
+    JSONIndex doc =
+        JSONIndex.parse(
+            CharStreams.fromString(
+                "{\"\uD83D\uDE00k\": \"x\uD83D\uDE00y\","
+                    + " \"e\\uD83D\\uDE00\": [\"\\u00e9\uD83D\uDE00\"],"
+                    + " \"after\": 1}"));
+    int v = doc.path("\uD83D\uDE00k");
+    check("non-BMP key", true, v >= 0);
+    if (v >= 0) {
+      check("non-BMP value", "x\uD83D\uDE00y", doc.stringValue(v));
+      check("non-BMP value length", 4, doc.stringValue(v).length());
+      check("non-BMP key decoded", "\uD83D\uDE00k", doc.key(v));
+    }
+    check("escaped key", true, doc.path("e\uD83D\uDE00", 0) >= 0);
+    int e = doc.path("e\uD83D\uDE00", 0);
+    if (e >= 0) check("escaped value", "\u00e9\uD83D\uDE00", doc.stringValue(e));
+    check("member after non-BMP text", 1L, doc.longValue(doc.path("after")));
+    check("missing key", -1, doc.path("\uD83D\uDE00"));
+    if (failures > 0) System.exit(1);
+    System.out.println("ok");
+  }
+}
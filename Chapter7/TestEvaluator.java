@@ -6,8 +6,7 @@
  * We make no guarantees that this code is fit for any purpose.
  * Visit http://www.pragmaticprogrammer.com/titles/tpantlr2 for more book information.
  ***/
-import java.io.FileInputStream;
-import java.io.InputStream;
+import common.Inputs;
 import java.util.Stack;
 import org.antlr.v4.runtime.*;
 import org.antlr.v4.runtime.tree.ParseTree;
@@ -74,13 +73,9 @@ public class TestEvaluator {
   public static void main(String[] args) throws Exception {
     String inputFile = null;
     if (args.length > 0) inputFile = args[0];
-    InputStream is = System.in;
-    if (inputFile != null) {
-      is = new FileInputStream(inputFile);
-    }
-    ANTLRInputStream input = new ANTLRInputStream(is);
+    CharStream input = Inputs.open(inputFile);
     ExprLexer lexer = new ExprLexer(input);
-    CommonTokenStream tokens = new CommonTokenStream(lexer);
+    CommonTokenStream tokens = Inputs.tokens(lexer);
     ExprParser parser = new ExprParser(tokens);
     parser.setBuildParseTree(true); // tell ANTLR to build a parse tree
     ParseTree tree = parser.s(); // parse
@@ -6,8 +6,7 @@
  * We make no guarantees that this code is fit for any purpose.
  * Visit http://www.pragmaticprogrammer.com/titles/tpantlr2 for more book information.
  ***/
-import java.io.FileInputStream;
-import java.io.InputStream;
+import common.Inputs;
 import java.util.*;
 import org.antlr.v4.runtime.*;
 import org.antlr.v4.runtime.tree.*;
@@ -37,13 +36,9 @@ public class TestLEvaluator {
   public static void main(String[] args) throws Exception {
     String inputFile = null;
     if (args.length > 0) inputFile = args[0];
-    InputStream is = System.in;
-    if (inputFile != null) {
-      is = new FileInputStream(inputFile);
-    }
-    ANTLRInputStream input = new ANTLRInputStream(is);
+    CharStream input = Inputs.open(inputFile);
     LExprLexer lexer = new LExprLexer(input);
-    CommonTokenStream tokens = new CommonTokenStream(lexer);
+    CommonTokenStream tokens = Inputs.tokens(lexer);
     LExprParser parser = new LExprParser(tokens);
     parser.setBuildParseTree(true); // tell ANTLR to build a parse tree
     ParseTree tree = parser.s(); // parse
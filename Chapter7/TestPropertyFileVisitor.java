@@ -6,6 +6,7 @@
  * We make no guarantees that this code is fit for any purpose.
  * Visit http://www.pragmaticprogrammer.com/titles/tpantlr2 for more book information.
  ***/
+import common.Inputs;
 import java.io.*;
 import java.util.Map;
 import org.antlr.v4.misc.OrderedHashMap;
@@ -27,13 +28,9 @@ public class TestPropertyFileVisitor {
   public static void main(String[] args) throws Exception {
     String inputFile = null;
     if (args.length > 0) inputFile = args[0];
-    InputStream is = System.in;
-    if (inputFile != null) {
-      is = new FileInputStream(inputFile);
-    }
-    ANTLRInputStream input = new ANTLRInputStream(is);
+    CharStream input = Inputs.open(inputFile);
     PropertyFileLexer lexer = new PropertyFileLexer(input);
-    CommonTokenStream tokens = new CommonTokenStream(lexer);
+    CommonTokenStream tokens = Inputs.tokens(lexer);
     PropertyFileParser parser = new PropertyFileParser(tokens);
     ParseTree tree = parser.file();
 
@@ -0,0 +1,38 @@
+import common.ErrorStrategies;
+import common.Inputs;
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+
+/**
+ * Runs Simple.g4, whose actions print what it recognizes, under a chosen error mode. Try it on
+ * input with mistakes, e.g. {@code class T ; { int i; }}, to compare how each mode reacts.
+ *
+ * <p>Usage: {@code TestSimple [-errors bail|bounded[:errors[:tokens]]|default] [file]}
+ */
+public class TestSimple {
+  public static void main(String[] args) throws Exception {
+    String inputFile = null;
+    String errors = "default";
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-errors") && i + 1 < args.length) errors = args[++i];
+      else inputFile = args[i];
+    }
+    SimpleLexer lexer = new SimpleLexer(Inputs.open(inputFile));
+    CommonTokenStream tokens = Inputs.tokens(lexer);
+    SimpleParser parser = new SimpleParser(tokens);
+    ErrorStrategies.install(lexer, parser, errors);
+    try {
+      parser.prog();
+    } catch (ParseCancellationException e) {
+      // bail reports nothing itself; its cause is the error it stopped at
+      Throwable why = e.getCause() != null ? e.getCause() : e;
+      String msg = why.getMessage();
+      if (why instanceof RecognitionException) {
+        Token t = ((RecognitionException) why).getOffendingToken();
+        msg = "line " + t.getLine() + ":" + t.getCharPositionInLine() + " at " + t.getText();
+      }
+      System.err.println("parse cancelled: " + msg);
+      System.exit(1);
+    }
+  }
+}
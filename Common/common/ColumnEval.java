@@ -0,0 +1,256 @@
+package common;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Evaluates a `PreparedExpr` over many rows at once, each variable bound to a column holding its
+ * value in every row. Instead of running the postfix code once per row, it runs it once per chunk
+ * of `CHUNK` rows, and each operator becomes one loop over the chunk, simple enough for the JIT to
+ * unroll and vectorize. Every stack level has a chunk-sized buffer, so a chunk's working set stays
+ * in cache; columns are read in place, and constants are buffers filled once. Row ranges of at
+ * least `MIN_TASK` rows are spread over the common fork/join pool.
+ *
+ * <p>Results equal `PreparedExpr.evaluate` row by row. In particular int division by zero throws
+ * `ArithmeticException`, so no result is returned if any row divides by zero.
+ */
+public final class ColumnEval {
+  /** Rows per pass over the code */
+  public static final int CHUNK = 1024;
+  /** Fewest rows worth handing to another thread */
+  public static final int MIN_TASK = 64 * CHUNK;
+
+  private ColumnEval() {}
+
+  /**
+   * Evaluates an expression in int arithmetic.
+   * @param expr The expression.
+   * @param rows How many rows to evaluate.
+   * @param columns Each variable's values, in the order of `expr.getVariables()`.
+   * @return The expression's value in each row.
+   * @throws IllegalArgumentException If there are fewer columns than variables, or a column is
+   *     shorter than `rows`.
+   * @throws ArithmeticException If some row divides by zero.
+   */
+  public static int[] evaluate(PreparedExpr expr, int rows, int[]... columns) {
+    check(expr, rows, columns.length);
+    for (int[] column : columns) checkLength(column.length, rows);
+    int[] result = new int[rows];
+    run(new IntTask(expr, columns, result, 0, rows));
+    return result;
+  }
+
+  /**
+   * Evaluates an expression in long arithmetic, for values or results that overflow an int.
+   * @param expr The expression; its constants, folded ones included, are evaluated in long.
+   * @param rows How many rows to evaluate.
+   * @param columns Each variable's values, in the order of `expr.getVariables()`.
+   * @return The expression's value in each row.
+   * @throws IllegalArgumentException If there are fewer columns than variables, or a column is
+   *     shorter than `rows`.
+   * @throws ArithmeticException If some row divides by zero.
+   */
+  public static long[] evaluateLong(PreparedExpr expr, int rows, long[]... columns) {
+    check(expr, rows, columns.length);
+    for (long[] column : columns) checkLength(column.length, rows);
+    long[] result = new long[rows];
+    run(new LongTask(expr, columns, result, 0, rows));
+    return result;
+  }
+
+  static void check(PreparedExpr expr, int rows, int columns) {
+    if (rows < 0) throw new IllegalArgumentException("negative row count " + rows);
+    if (columns < expr.variables.size()) {
+      throw new IllegalArgumentException(
+          "expected columns for " + expr.variables + " but got " + columns);
+    }
+  }
+
+  static void checkLength(int length, int rows) {
+    if (length < rows) {
+      throw new IllegalArgumentException("column of " + length + " rows; expected " + rows);
+    }
+  }
+
+  static void run(Task task) {
+    if (task.to - task.from < 2 * MIN_TASK) task.compute();
+    else ForkJoinPool.commonPool().invoke(task);
+  }
+
+  /** Evaluates rows `from` to `to`, splitting them in halves of whole chunks while large enough */
+  abstract static class Task extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    final PreparedExpr expr;
+    final int from;
+    final int to;
+
+    Task(PreparedExpr expr, int from, int to) {
+      this.expr = expr;
+      this.from = from;
+      this.to = to;
+    }
+
+    abstract Task subtask(int from, int to);
+
+    /** Evaluates rows `from` to `to` in this thread */
+    abstract void evaluate();
+
+    @Override
+    protected void compute() {
+      if (to - from < 2 * MIN_TASK) {
+        evaluate();
+        return;
+      }
+      int middle = from + (to - from) / 2 / CHUNK * CHUNK;
+      invokeAll(subtask(from, middle), subtask(middle, to));
+    }
+  }
+
+  static final class IntTask extends Task {
+    private static final long serialVersionUID = 1L;
+
+    final int[][] columns;
+    final int[] result;
+
+    IntTask(PreparedExpr expr, int[][] columns, int[] result, int from, int to) {
+      super(expr, from, to);
+      this.columns = columns;
+      this.result = result;
+    }
+
+    @Override
+    Task subtask(int from, int to) {
+      return new IntTask(expr, columns, result, from, to);
+    }
+
+    @Override
+    void evaluate() {
+      int[] ops = expr.ops;
+      int[] args = expr.args;
+      int[][] buffers = new int[expr.maxDepth][CHUNK];
+      int[][] constants = new int[ops.length][];
+      for (int i = 0; i < ops.length; i++) {
+        if (ops[i] != PreparedExpr.CONST) continue;
+        constants[i] = new int[CHUNK];
+        Arrays.fill(constants[i], args[i]);
+      }
+      // the stack holds an array and the offset of the chunk's first row in it
+      int[][] arrays = new int[expr.maxDepth][];
+      int[] offsets = new int[expr.maxDepth];
+      for (int base = from; base < to; base += CHUNK) {
+        int n = Math.min(CHUNK, to - base);
+        int sp = 0;
+        for (int i = 0; i < ops.length; i++) {
+          switch (ops[i]) {
+            case PreparedExpr.CONST:
+              arrays[sp] = constants[i];
+              offsets[sp++] = 0;
+              break;
+            case PreparedExpr.VAR:
+              arrays[sp] = columns[args[i]];
+              offsets[sp++] = base;
+              break;
+            default:
+              sp--;
+              int[] d = buffers[sp - 1];
+              apply(ops[i], arrays[sp - 1], offsets[sp - 1], arrays[sp], offsets[sp], d, n);
+              arrays[sp - 1] = d;
+              offsets[sp - 1] = 0;
+          }
+        }
+        System.arraycopy(arrays[0], offsets[0], result, base, n);
+      }
+    }
+
+    /** d[i] = a[ai + i] op b[bi + i] for i < n; `d` may be `a` when `ai` is 0 */
+    static void apply(int op, int[] a, int ai, int[] b, int bi, int[] d, int n) {
+      switch (op) {
+        case PreparedExpr.MUL:
+          for (int i = 0; i < n; i++) d[i] = a[ai + i] * b[bi + i];
+          break;
+        case PreparedExpr.DIV:
+          for (int i = 0; i < n; i++) d[i] = a[ai + i] / b[bi + i];
+          break;
+        case PreparedExpr.ADD:
+          for (int i = 0; i < n; i++) d[i] = a[ai + i] + b[bi + i];
+          break;
+        default: // SUB
+          for (int i = 0; i < n; i++) d[i] = a[ai + i] - b[bi + i];
+      }
+    }
+  }
+
+  static final class LongTask extends Task {
+    private static final long serialVersionUID = 1L;
+
+    final long[][] columns;
+    final long[] result;
+
+    LongTask(PreparedExpr expr, long[][] columns, long[] result, int from, int to) {
+      super(expr, from, to);
+      this.columns = columns;
+      this.result = result;
+    }
+
+    @Override
+    Task subtask(int from, int to) {
+      return new LongTask(expr, columns, result, from, to);
+    }
+
+    @Override
+    void evaluate() {
+      int[] ops = expr.ops;
+      int[] args = expr.args;
+      long[][] buffers = new long[expr.maxDepth][CHUNK];
+      long[][] constants = new long[ops.length][];
+      for (int i = 0; i < ops.length; i++) {
+        if (ops[i] != PreparedExpr.CONST) continue;
+        constants[i] = new long[CHUNK];
+        Arrays.fill(constants[i], expr.wide[i]);
+      }
+      long[][] arrays = new long[expr.maxDepth][];
+      int[] offsets = new int[expr.maxDepth];
+      for (int base = from; base < to; base += CHUNK) {
+        int n = Math.min(CHUNK, to - base);
+        int sp = 0;
+        for (int i = 0; i < ops.length; i++) {
+          switch (ops[i]) {
+            case PreparedExpr.CONST:
+              arrays[sp] = constants[i];
+              offsets[sp++] = 0;
+              break;
+            case PreparedExpr.VAR:
+              arrays[sp] = columns[args[i]];
+              offsets[sp++] = base;
+              break;
+            default:
+              sp--;
+              long[] d = buffers[sp - 1];
+              apply(ops[i], arrays[sp - 1], offsets[sp - 1], arrays[sp], offsets[sp], d, n);
+              arrays[sp - 1] = d;
+              offsets[sp - 1] = 0;
+          }
+        }
+        System.arraycopy(arrays[0], offsets[0], result, base, n);
+      }
+    }
+
+    static void apply(int op, long[] a, int ai, long[] b, int bi, long[] d, int n) {
+      switch (op) {
+        case PreparedExpr.MUL:
+          for (int i = 0; i < n; i++) d[i] = a[ai + i] * b[bi + i];
+          break;
+        case PreparedExpr.DIV:
+          for (int i = 0; i < n; i++) d[i] = a[ai + i] / b[bi + i];
+          break;
+        case PreparedExpr.ADD:
+          for (int i = 0; i < n; i++) d[i] = a[ai + i] + b[bi + i];
+          break;
+        default: // SUB
+          for (int i = 0; i < n; i++) d[i] = a[ai + i] - b[bi + i];
+      }
+    }
+  }
+}
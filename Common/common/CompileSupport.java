@@ -0,0 +1,67 @@
+package common;
+
+import org.antlr.v4.runtime.*;
+
+/**
+ * Helpers for compilers that parse short, complete inputs, such as an expression or a script,
+ * where any syntax error is fatal: rather than reporting errors and recovering as `ErrorStrategies`
+ * does for whole source trees, they throw `IllegalArgumentException` with the position of the
+ * first error, and check what the grammar alone doesn't, that no input is left over and that
+ * integer literals fit.
+ */
+public class CompileSupport {
+  /** Throws `IllegalArgumentException` at the first error */
+  public static class FailFast extends BaseErrorListener {
+    @Override
+    public void syntaxError(
+        Recognizer<?, ?> recognizer,
+        Object offendingSymbol,
+        int line,
+        int charPositionInLine,
+        String msg,
+        RecognitionException e) {
+      throw new IllegalArgumentException("line " + line + ":" + charPositionInLine + " " + msg);
+    }
+  }
+
+  /** Shared `FailFast` listener; it keeps no state */
+  public static final FailFast FAIL_FAST = new FailFast();
+
+  /**
+   * Makes a lexer or parser throw at its first error instead of printing it and recovering. A
+   * parser reads its first token when constructed, so set up its lexer before creating it.
+   * @param recognizer The lexer or parser.
+   */
+  public static void failFast(Recognizer<?, ?> recognizer) {
+    recognizer.removeErrorListeners();
+    recognizer.addErrorListener(FAIL_FAST);
+  }
+
+  /**
+   * Checks that a parser used all its input, for strings that must hold exactly one of what its
+   * start rule matches.
+   * @param parser A parser its start rule returned from.
+   * @throws IllegalArgumentException If tokens are left, at the first of them.
+   */
+  public static void requireEOF(Parser parser) {
+    Token next = parser.getCurrentToken();
+    if (next.getType() != Token.EOF) {
+      throw new IllegalArgumentException("line " + next.getLine() + ":"
+          + next.getCharPositionInLine() + " extraneous input '" + next.getText() + "'");
+    }
+  }
+
+  /**
+   * @param t An integer literal token.
+   * @return Its value.
+   * @throws IllegalArgumentException If it doesn't fit an int, at the token.
+   */
+  public static int intLiteral(Token t) {
+    try {
+      return Integer.parseInt(t.getText());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("line " + t.getLine() + ":"
+          + t.getCharPositionInLine() + " integer out of range: " + t.getText());
+    }
+  }
+}
@@ -0,0 +1,239 @@
+package common;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.atn.ATN;
+import org.antlr.v4.runtime.atn.ATNSimulator;
+import org.antlr.v4.runtime.atn.LexerATNSimulator;
+import org.antlr.v4.runtime.atn.ParserATNSimulator;
+import org.antlr.v4.runtime.atn.PredictionContextCache;
+import org.antlr.v4.runtime.dfa.DFA;
+
+/**
+ * Bounds the DFA caches of generated lexers and parsers in long-running processes. Each generated
+ * recognizer class keeps its DFA states and prediction contexts in static caches that all its
+ * instances share and that only grow; prediction gets faster as they fill, but input that keeps
+ * varying, like days of different Java files, keeps adding states. Limits are set with system
+ * properties:
+ *
+ * <ul>
+ *   <li>{@code dfa.maxStates=n}: clear every registered cache once together they hold more than
+ *       n DFA states.
+ *   <li>{@code dfa.maxAge=s}: clear them every s seconds regardless.
+ * </ul>
+ *
+ * Recognizers are registered as `Metrics.Run` sees them, and `Run.finish` checks the limits, so a
+ * tool's caches are checked between files; tools that don't go through `Metrics` call `register`
+ * and `checkpoint` themselves. With neither property set nothing is ever cleared. Clearing is
+ * safe while other threads parse: they finish predictions in the DFA they started with and build
+ * new states in the fresh one. A warm-up set with `setWarmup` runs after each clear, on its own
+ * thread, to refill the caches with the common cases; checkpoints on that thread do nothing, and
+ * a warm-up that alone goes over `dfa.maxStates` gets a warning.
+ *
+ * <p>`report` and the `antlr_dfa_*` series in `Metrics.prometheus` give the states per decision.
+ */
+public class DFACache {
+  static final long MAX_STATES = Long.getLong("dfa.maxStates", 0);
+  static final long MAX_AGE_NANOS = Long.getLong("dfa.maxAge", 0) * 1_000_000_000L;
+
+  /** The shared caches of one generated recognizer class */
+  static class Caches {
+    final String name;
+    final String[] ruleNames;
+    final ATN atn;
+    final DFA[] decisionToDFA;
+    final PredictionContextCache contexts;
+
+    Caches(Recognizer<?, ?> recognizer) {
+      ATNSimulator interp = recognizer.getInterpreter();
+      name = recognizer.getClass().getSimpleName();
+      ruleNames = recognizer.getRuleNames();
+      atn = interp.atn;
+      decisionToDFA =
+          interp instanceof LexerATNSimulator
+              ? ((LexerATNSimulator) interp).decisionToDFA
+              : ((ParserATNSimulator) interp).decisionToDFA;
+      contexts = interp.getSharedContextCache();
+    }
+
+    long states() {
+      long n = 0;
+      for (DFA dfa : decisionToDFA) n += dfa.states.size();
+      return n;
+    }
+
+    String rule(int decision) {
+      int rule = atn.getDecisionState(decision).ruleIndex;
+      return rule >= 0 && rule < ruleNames.length ? ruleNames[rule] : "";
+    }
+
+    void clear() {
+      for (int d = 0; d < decisionToDFA.length; d++) {
+        decisionToDFA[d] = new DFA(atn.getDecisionState(d), d);
+      }
+      if (contexts != null && CONTEXT_MAP != null) {
+        synchronized (contexts) { // as ATNSimulator.getCachedContext
+          try {
+            ((Map<?, ?>) CONTEXT_MAP.get(contexts)).clear();
+          } catch (IllegalAccessException e) {
+            // leave the contexts; the DFA states were the bulk
+          }
+        }
+      }
+    }
+  }
+
+  /** `PredictionContextCache` has no way to empty it, so its map is cleared directly */
+  static final Field CONTEXT_MAP = contextMap();
+
+  static Field contextMap() {
+    try {
+      Field f = PredictionContextCache.class.getDeclaredField("cache");
+      f.setAccessible(true);
+      return f;
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  // keyed by class rather than instance: all instances share the arrays
+  static final Map<Class<?>, Caches> registered = new TreeMap<Class<?>, Caches>(
+      (a, b) -> a.getName().compareTo(b.getName()));
+  static long lastClear = System.nanoTime();
+  static long clears;
+  static Runnable warmup;
+  static ThreadPoolExecutor warmer;
+  static Thread warmupThread;
+  static boolean warned;
+
+  /**
+   * Puts a recognizer's caches under the limits; registering another instance of the same class
+   * does nothing.
+   * @param recognizer A generated lexer or parser.
+   */
+  public static synchronized void register(Recognizer<?, ?> recognizer) {
+    if (!registered.containsKey(recognizer.getClass())) {
+      registered.put(recognizer.getClass(), new Caches(recognizer));
+    }
+  }
+
+  /** Clears the caches if they are over `dfa.maxStates` or older than `dfa.maxAge` */
+  public static synchronized void checkpoint() {
+    if (MAX_STATES <= 0 && MAX_AGE_NANOS <= 0) return;
+    // clearing here would queue the warm-up again, and one over the limit would never stop
+    if (Thread.currentThread() == warmupThread) return;
+    boolean old = MAX_AGE_NANOS > 0 && System.nanoTime() - lastClear >= MAX_AGE_NANOS;
+    if (old || (MAX_STATES > 0 && states() > MAX_STATES)) clear();
+  }
+
+  /** Clears every registered cache now, then starts the warm-up if there is one */
+  public static synchronized void clear() {
+    for (Caches c : registered.values()) c.clear();
+    clears++;
+    lastClear = System.nanoTime();
+    if (warmer != null) {
+      Runnable w = warmup;
+      try {
+        warmer.execute(() -> {
+          w.run();
+          warnIfOver();
+        });
+      } catch (RejectedExecutionException e) {
+        // a warm-up is already waiting, which will do
+      }
+    }
+  }
+
+  /** Warns once if the warm-up alone leaves the caches over `dfa.maxStates` */
+  static synchronized void warnIfOver() {
+    if (warned || MAX_STATES <= 0 || states() <= MAX_STATES) return;
+    warned = true;
+    System.err.println("DFACache: the warm-up alone fills " + states()
+        + " DFA states, over dfa.maxStates=" + MAX_STATES
+        + "; the caches will be cleared after every job");
+  }
+
+  /**
+   * Sets what refills the caches after they are cleared, typically parsing a few representative
+   * files. It runs on a thread of its own, at most one at a time.
+   * @param warmup The warm-up, or null for none.
+   */
+  public static synchronized void setWarmup(Runnable warmup) {
+    if (warmer != null) warmer.shutdown();
+    DFACache.warmup = warmup;
+    warmer = null;
+    if (warmup == null) return;
+    warmer =
+        new ThreadPoolExecutor(
+            1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(1), r -> {
+              Thread t = new Thread(r, "DFACache warm-up");
+              t.setDaemon(true);
+              synchronized (DFACache.class) {
+                warmupThread = t;
+              }
+              return t;
+            });
+  }
+
+  /** @return DFA states in all registered caches. */
+  public static synchronized long states() {
+    long n = 0;
+    for (Caches c : registered.values()) n += c.states();
+    return n;
+  }
+
+  /** @return How many times the caches were cleared. */
+  public static synchronized long clears() {
+    return clears;
+  }
+
+  /**
+   * @return A line per registered recognizer with its total states and prediction contexts,
+   *     followed by a line per decision that has states, largest first.
+   */
+  public static synchronized String report() {
+    StringBuilder buf = new StringBuilder();
+    buf.append(String.format("%d states, %d clears%n", states(), clears));
+    for (Caches c : registered.values()) {
+      buf.append(String.format("%s: %d states", c.name, c.states()));
+      if (c.contexts != null) buf.append(String.format(", %d contexts", c.contexts.size()));
+      buf.append(String.format("%n"));
+      List<int[]> decisions = new ArrayList<int[]>();
+      for (int d = 0; d < c.decisionToDFA.length; d++) {
+        int n = c.decisionToDFA[d].states.size();
+        if (n > 0) decisions.add(new int[] {d, n});
+      }
+      decisions.sort((a, b) -> b[1] - a[1]);
+      for (int[] d : decisions) {
+        buf.append(String.format("  decision %d (%s): %d%n", d[0], c.rule(d[0]), d[1]));
+      }
+    }
+    return buf.toString();
+  }
+
+  /** Appends the per-decision states and the clear count in Prometheus text format */
+  static synchronized void prometheus(StringBuilder buf) {
+    buf.append("# HELP antlr_dfa_states DFA states cached per decision\n");
+    buf.append("# TYPE antlr_dfa_states gauge\n");
+    for (Caches c : registered.values()) {
+      for (int d = 0; d < c.decisionToDFA.length; d++) {
+        int n = c.decisionToDFA[d].states.size();
+        if (n == 0) continue;
+        buf.append("antlr_dfa_states{recognizer=").append(Metrics.quote(c.name))
+            .append(",decision=\"").append(d).append("\",rule=").append(Metrics.quote(c.rule(d)))
+            .append("} ").append(n).append('\n');
+      }
+    }
+    buf.append("# HELP antlr_dfa_clears_total Times the DFA caches were cleared\n");
+    buf.append("# TYPE antlr_dfa_clears_total counter\n");
+    buf.append("antlr_dfa_clears_total ").append(clears).append('\n');
+  }
+}
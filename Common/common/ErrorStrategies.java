@@ -0,0 +1,147 @@
+package common;
+
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.misc.IntervalSet;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+
+/**
+ * Error handling modes for drivers that may be handed malformed input:
+ *
+ * <ul>
+ *   <li>{@code bail}: stop at the first lexer or parser error.
+ *   <li>{@code bounded[:errors[:tokens]]}: recover like ANTLR normally does, but give up after
+ *       more than `errors` syntax errors or once resynchronization has skipped more than `tokens`
+ *       tokens in total.
+ *   <li>{@code default}: ANTLR's `DefaultErrorStrategy`, which recovers from anything.
+ * </ul>
+ *
+ * Giving up means throwing `ParseCancellationException` out of the parser's start rule.
+ */
+public class ErrorStrategies {
+  public static final int DEFAULT_MAX_ERRORS = 25;
+  public static final int DEFAULT_MAX_RESYNC_TOKENS = 1000;
+
+  /** `DefaultErrorStrategy` with limits on errors reported and tokens skipped while recovering */
+  public static class BoundedErrorStrategy extends DefaultErrorStrategy {
+    final int maxErrors;
+    final int maxResyncTokens;
+    int errors;
+    int resyncTokens;
+
+    public BoundedErrorStrategy(int maxErrors, int maxResyncTokens) {
+      this.maxErrors = maxErrors;
+      this.maxResyncTokens = maxResyncTokens;
+    }
+
+    /** Called once per error actually reported; errors hidden by recovery mode don't count */
+    @Override
+    protected void beginErrorCondition(Parser recognizer) {
+      if (++errors > maxErrors) {
+        throw cancel(recognizer, "more than " + maxErrors + " syntax errors");
+      }
+      super.beginErrorCondition(recognizer);
+    }
+
+    @Override
+    protected void consumeUntil(Parser recognizer, IntervalSet set) {
+      int ttype = recognizer.getInputStream().LA(1);
+      while (ttype != Token.EOF && !set.contains(ttype)) {
+        if (++resyncTokens > maxResyncTokens) {
+          throw cancel(recognizer, "recovery skipped more than " + maxResyncTokens + " tokens");
+        }
+        recognizer.consume();
+        ttype = recognizer.getInputStream().LA(1);
+      }
+    }
+
+    public int getErrors() {
+      return errors;
+    }
+
+    public int getResyncTokens() {
+      return resyncTokens;
+    }
+
+    @Override
+    public void reset(Parser recognizer) {
+      super.reset(recognizer);
+      errors = 0;
+      resyncTokens = 0;
+    }
+  }
+
+  /** Cancels lexing once more than `max` token recognition errors have been seen */
+  public static class LexerErrorLimit extends BaseErrorListener {
+    final int max;
+    int errors;
+
+    public LexerErrorLimit(int max) {
+      this.max = max;
+    }
+
+    @Override
+    public void syntaxError(
+        Recognizer<?, ?> recognizer,
+        Object offendingSymbol,
+        int line,
+        int charPositionInLine,
+        String msg,
+        RecognitionException e) {
+      if (++errors > max) {
+        String what = max == 0 ? msg : "more than " + max + " token recognition errors";
+        throw new ParseCancellationException(
+            "line " + line + ":" + charPositionInLine + " " + what);
+      }
+    }
+
+    public int getErrors() {
+      return errors;
+    }
+  }
+
+  static ParseCancellationException cancel(Parser recognizer, String msg) {
+    Token t = recognizer.getCurrentToken();
+    return new ParseCancellationException(
+        "line " + t.getLine() + ":" + t.getCharPositionInLine() + " " + msg);
+  }
+
+  /**
+   * Configures a lexer and parser for an error mode.
+   * @param lexer The lexer feeding `parser`; may be null.
+   * @param parser The parser.
+   * @param spec {@code bail}, {@code default}, or {@code bounded} with optional limits, e.g.
+   *     {@code bounded:10:500}.
+   * @return The strategy installed in `parser`.
+   * @throws IllegalArgumentException If `spec` names no mode.
+   */
+  public static ANTLRErrorStrategy install(Lexer lexer, Parser parser, String spec) {
+    String[] parts = spec.split(":");
+    ANTLRErrorStrategy strategy;
+    int lexerErrors;
+    switch (parts[0]) {
+      case "bail":
+        strategy = new BailErrorStrategy();
+        lexerErrors = 0;
+        break;
+      case "bounded":
+        try {
+          int errors = parts.length > 1 ? Integer.parseInt(parts[1]) : DEFAULT_MAX_ERRORS;
+          int tokens = parts.length > 2 ? Integer.parseInt(parts[2]) : DEFAULT_MAX_RESYNC_TOKENS;
+          strategy = new BoundedErrorStrategy(errors, tokens);
+          lexerErrors = errors;
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException("bad error mode " + spec);
+        }
+        break;
+      case "default":
+        strategy = new DefaultErrorStrategy();
+        lexerErrors = -1;
+        break;
+      default:
+        throw new IllegalArgumentException("unknown error mode " + spec);
+    }
+    parser.setErrorHandler(strategy);
+    if (lexer != null && lexerErrors >= 0) lexer.addErrorListener(new LexerErrorLimit(lexerErrors));
+    return strategy;
+  }
+}
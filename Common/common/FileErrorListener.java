@@ -0,0 +1,38 @@
+package common;
+
+import java.nio.file.Path;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+
+/**
+ * Prints syntax errors prefixed with the file they occur in, as `file:line:column message`, for
+ * tools that parse many files and would otherwise print bare positions. Add one instance to both
+ * the lexer and the parser of a file to count all its errors.
+ */
+public class FileErrorListener extends BaseErrorListener {
+  final Path file;
+  int errors;
+
+  /** @param file Printed before each error. */
+  public FileErrorListener(Path file) {
+    this.file = file;
+  }
+
+  @Override
+  public void syntaxError(
+      Recognizer<?, ?> recognizer,
+      Object offendingSymbol,
+      int line,
+      int charPositionInLine,
+      String msg,
+      RecognitionException e) {
+    errors++;
+    System.err.println(file + ":" + line + ":" + charPositionInLine + " " + msg);
+  }
+
+  /** @return How many errors were reported. */
+  public int getErrors() {
+    return errors;
+  }
+}
@@ -0,0 +1,370 @@
+package common;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
+import org.antlr.v4.runtime.tree.TerminalNode;
+import org.antlr.v4.runtime.tree.TerminalNodeImpl;
+
+/**
+ * A parse tree stored as parallel int arrays instead of one `ParserRuleContext` per node and one
+ * `TerminalNodeImpl` per token. Node `n` has a rule index, a context class (an index into a small
+ * per-tree table, so labeled alternatives keep their own class), the token indexes of its first
+ * and last token, and first-child/next-sibling links to other rule nodes. Terminal children are
+ * not stored at all; they are the tokens of a node's range that its rule children don't cover.
+ *
+ * <p>A tree is made from a finished `ParserRuleContext` tree with `from`, or built during the
+ * parse, with no context tree at all, by adding a `Builder` as a parse listener to a parser that
+ * has `setBuildParseTree(false)`.
+ *
+ * <p>`walk` drives an existing generated listener. It materializes a context of the node's class
+ * on entry, with its terminal children and shells of its rule children, and lets go of a node's
+ * grandchildren once the node is exited; memory therefore follows the path being walked, not the
+ * tree. During `enterX` a context's children are present but theirs are not yet, and by `exitX`
+ * two levels below it are. That covers listeners that read tokens and child contexts (`ctx.ID()`,
+ * `ctx.expr(0).start`, values stored per child context), but not `ctx.getText()` on a rule
+ * context or fields set by labels in the grammar, which are not restored. Trees with syntax
+ * errors walk with skipped tokens as ordinary terminals and without tokens the parser conjured
+ * up during recovery.
+ */
+public class FlatTree {
+  final List<Token> tokens;
+  final List<Class<? extends ParserRuleContext>> classes =
+      new ArrayList<Class<? extends ParserRuleContext>>();
+  final Map<Class<?>, Integer> classIds = new HashMap<Class<?>, Integer>();
+  int size;
+  int[] rule = new int[64];
+  int[] type = new int[64]; // index into `classes`
+  int[] start = new int[64]; // token index
+  int[] stop = new int[64]; // token index; start - 1 for rules that matched nothing
+  int[] firstChild = new int[64];
+  int[] nextSibling = new int[64];
+  int root = -1;
+
+  FlatTree(List<Token> tokens) {
+    this.tokens = tokens;
+  }
+
+  /**
+   * Converts a finished tree.
+   * @param tree The tree; it may be discarded afterwards.
+   * @param tokens The stream the tree was parsed from; the flat tree keeps its token list.
+   */
+  public static FlatTree from(ParserRuleContext tree, BufferedTokenStream tokens) {
+    FlatTree flat = new FlatTree(tokens.getTokens());
+    flat.root = flat.add(tree, tree.getClass());
+    flat.stop[flat.root] = stopIndex(tree);
+    // preorder with an explicit stack, so deep trees don't overflow the Java stack
+    List<ParserRuleContext> ctxs = new ArrayList<ParserRuleContext>();
+    List<Integer> ids = new ArrayList<Integer>();
+    ctxs.add(tree);
+    ids.add(flat.root);
+    while (!ctxs.isEmpty()) {
+      ParserRuleContext ctx = ctxs.remove(ctxs.size() - 1);
+      int id = ids.remove(ids.size() - 1);
+      int last = -1;
+      for (int i = 0; i < ctx.getChildCount(); i++) {
+        if (!(ctx.getChild(i) instanceof ParserRuleContext)) continue;
+        ParserRuleContext child = (ParserRuleContext) ctx.getChild(i);
+        int c = flat.add(child, child.getClass());
+        flat.stop[c] = stopIndex(child);
+        if (last < 0) flat.firstChild[id] = c;
+        else flat.nextSibling[last] = c;
+        last = c;
+        ctxs.add(child);
+        ids.add(c);
+      }
+    }
+    return flat;
+  }
+
+  static int stopIndex(ParserRuleContext ctx) {
+    if (ctx.stop == null || ctx.stop.getTokenIndex() < ctx.start.getTokenIndex()) {
+      return ctx.start.getTokenIndex() - 1;
+    }
+    return ctx.stop.getTokenIndex();
+  }
+
+  int add(ParserRuleContext ctx, Class<? extends ParserRuleContext> cls) {
+    if (size == rule.length) {
+      int n = size * 2;
+      rule = Arrays.copyOf(rule, n);
+      type = Arrays.copyOf(type, n);
+      start = Arrays.copyOf(start, n);
+      stop = Arrays.copyOf(stop, n);
+      firstChild = Arrays.copyOf(firstChild, n);
+      nextSibling = Arrays.copyOf(nextSibling, n);
+    }
+    int id = size++;
+    rule[id] = ctx.getRuleIndex();
+    type[id] = classId(cls);
+    start[id] = ctx.start.getTokenIndex();
+    stop[id] = start[id] - 1;
+    firstChild[id] = -1;
+    nextSibling[id] = -1;
+    return id;
+  }
+
+  int classId(Class<? extends ParserRuleContext> cls) {
+    Integer id = classIds.get(cls);
+    if (id == null) {
+      id = classes.size();
+      classes.add(cls);
+      classIds.put(cls, id);
+    }
+    return id;
+  }
+
+  /**
+   * Builds a flat tree while the parser runs. Add it with `addParseListener` to a parser that
+   * doesn't build a tree, and call `tree()` once the start rule returns.
+   */
+  public static class Builder implements ParseTreeListener {
+    FlatTree flat;
+    // per open node: the node, its last child so far, and the child before that
+    int[] open = new int[32];
+    int[] lastChild = new int[32];
+    int[] beforeLast = new int[32];
+    int depth;
+    ParserRuleContext lastExited;
+    int lastExitedId = -1;
+    int lastExitedPrev = -1;
+
+    /** @param tokens The token stream the parser reads; it must keep every token. */
+    public Builder(BufferedTokenStream tokens) {
+      flat = new FlatTree(tokens.getTokens());
+    }
+
+    @Override
+    public void enterEveryRule(ParserRuleContext ctx) {
+      int id = flat.add(ctx, ctx.getClass()); // class is set again at exit; labeled alts swap it
+      if (lastExited != null && lastExited.parent == ctx) {
+        // left recursion: the node just exited moves under this one, which takes its place. The
+        // parser set the moved node's stop token only after its exit event
+        flat.stop[lastExitedId] = stopIndex(lastExited);
+        if (depth > 0) {
+          int parent = open[depth - 1];
+          if (lastExitedPrev < 0) flat.firstChild[parent] = id;
+          else flat.nextSibling[lastExitedPrev] = id;
+          lastChild[depth - 1] = id;
+        } else {
+          flat.root = id;
+        }
+        push(id);
+        flat.firstChild[id] = lastExitedId;
+        lastChild[depth - 1] = lastExitedId;
+        lastExited = null;
+        return;
+      }
+      lastExited = null;
+      if (depth > 0) {
+        int parent = open[depth - 1];
+        int prev = lastChild[depth - 1];
+        if (prev < 0) flat.firstChild[parent] = id;
+        else flat.nextSibling[prev] = id;
+        beforeLast[depth - 1] = prev;
+        lastChild[depth - 1] = id;
+      } else {
+        flat.root = id;
+      }
+      push(id);
+    }
+
+    void push(int id) {
+      if (depth == open.length) {
+        open = Arrays.copyOf(open, depth * 2);
+        lastChild = Arrays.copyOf(lastChild, depth * 2);
+        beforeLast = Arrays.copyOf(beforeLast, depth * 2);
+      }
+      open[depth] = id;
+      lastChild[depth] = -1;
+      beforeLast[depth] = -1;
+      depth++;
+    }
+
+    @Override
+    public void exitEveryRule(ParserRuleContext ctx) {
+      int id = open[--depth];
+      flat.type[id] = flat.classId(ctx.getClass());
+      flat.stop[id] = stopIndex(ctx);
+      lastExited = ctx;
+      lastExitedId = id;
+      lastExitedPrev = depth > 0 ? beforeLast[depth - 1] : -1;
+    }
+
+    @Override
+    public void visitTerminal(TerminalNode node) {
+      // the parser adds tokens to contexts when a listener is attached; don't let them pile up
+      ((ParserRuleContext) node.getParent()).removeLastChild();
+    }
+
+    @Override
+    public void visitErrorNode(ErrorNode node) {
+      ((ParserRuleContext) node.getParent()).removeLastChild();
+    }
+
+    /** @return The tree built so far; complete once the start rule has returned. */
+    public FlatTree tree() {
+      return flat;
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int root() {
+    return root;
+  }
+
+  public int ruleIndex(int n) {
+    return rule[n];
+  }
+
+  /** @return The first token of node `n`. */
+  public Token start(int n) {
+    return tokens.get(start[n]);
+  }
+
+  /** @return The last token of node `n`, or null if the rule matched no tokens. */
+  public Token stop(int n) {
+    return stop[n] >= start[n] ? tokens.get(stop[n]) : null;
+  }
+
+  /** @return The first rule child of `n`, or -1. */
+  public int firstChild(int n) {
+    return firstChild[n];
+  }
+
+  /** @return The next rule child of `n`'s parent, or -1. */
+  public int nextSibling(int n) {
+    return nextSibling[n];
+  }
+
+  /** @return The text of the tokens `n` spans, without hidden tokens. */
+  public String getText(int n) {
+    StringBuilder buf = new StringBuilder();
+    for (int t = start[n]; t <= stop[n]; t++) {
+      Token token = tokens.get(t);
+      if (token.getChannel() == Token.DEFAULT_CHANNEL && token.getType() != Token.EOF) {
+        buf.append(token.getText());
+      }
+    }
+    return buf.toString();
+  }
+
+  /** An entered node: its context, the nodes of its rule children, and the next child */
+  static class Frame {
+    ParserRuleContext ctx;
+    int[] nodes; // node of each child of ctx, or -1 for a terminal
+    int next;
+
+    Frame(ParserRuleContext ctx, int[] nodes) {
+      this.ctx = ctx;
+      this.nodes = nodes;
+    }
+  }
+
+  /**
+   * Walks the tree depth-first, calling the listener as `ParseTreeWalker` would.
+   * @param listener A listener generated for the grammar, or any `ParseTreeListener`.
+   * @return The context materialized for the root, e.g. to look up values the listener stored.
+   */
+  public ParserRuleContext walk(ParseTreeListener listener) {
+    ParserRuleContext rootCtx = shell(root, null);
+    List<Frame> stack = new ArrayList<Frame>();
+    stack.add(enter(root, rootCtx, listener));
+    while (!stack.isEmpty()) {
+      Frame f = stack.get(stack.size() - 1);
+      if (f.next == f.nodes.length) {
+        f.ctx.exitRule(listener);
+        listener.exitEveryRule(f.ctx);
+        for (int i = 0; i < f.nodes.length; i++) {
+          if (f.nodes[i] >= 0) ((ParserRuleContext) f.ctx.children.get(i)).children = null;
+        }
+        stack.remove(stack.size() - 1);
+        continue;
+      }
+      int i = f.next++;
+      if (f.nodes[i] < 0) {
+        listener.visitTerminal((TerminalNode) f.ctx.children.get(i));
+      } else {
+        stack.add(enter(f.nodes[i], (ParserRuleContext) f.ctx.children.get(i), listener));
+      }
+    }
+    return rootCtx;
+  }
+
+  /** Fill in the children of node `n`'s context, then fire its enter events */
+  Frame enter(int n, ParserRuleContext ctx, ParseTreeListener listener) {
+    int t = start[n];
+    for (int c = firstChild[n]; c >= 0; c = nextSibling[c]) {
+      addTerminals(ctx, t, start[c] - 1);
+      ctx.addChild(shell(c, ctx));
+      t = Math.max(t, stop[c] + 1);
+    }
+    addTerminals(ctx, t, stop[n]);
+    int count = ctx.getChildCount();
+    int[] nodes = new int[count];
+    int c = firstChild[n];
+    for (int i = 0; i < count; i++) {
+      if (ctx.getChild(i) instanceof TerminalNode) {
+        nodes[i] = -1;
+      } else {
+        nodes[i] = c;
+        c = nextSibling[c];
+      }
+    }
+    listener.enterEveryRule(ctx);
+    ctx.enterRule(listener);
+    return new Frame(ctx, nodes);
+  }
+
+  /** Add the default-channel tokens from..to as terminal children */
+  void addTerminals(ParserRuleContext ctx, int from, int to) {
+    for (int t = from; t <= to; t++) {
+      Token token = tokens.get(t);
+      if (token.getChannel() != Token.DEFAULT_CHANNEL) continue;
+      TerminalNodeImpl node = new TerminalNodeImpl(token);
+      node.setParent(ctx);
+      ctx.addAnyChild(node);
+    }
+  }
+
+  /** A context of node `n`'s class with its tokens set but no children yet */
+  ParserRuleContext shell(int n, ParserRuleContext parent) {
+    ParserRuleContext ctx = instantiate(classes.get(type[n]), parent);
+    ctx.start = tokens.get(start[n]);
+    ctx.stop = stop[n] >= 0 ? tokens.get(stop[n]) : null; // like LT(-1) for empty rules
+    return ctx;
+  }
+  final Map<Class<?>, Constructor<?>> constructors = new HashMap<Class<?>, Constructor<?>>();
+
+  /**
+   * Generated rule contexts have a (ParserRuleContext parent, int invokingState) constructor;
+   * contexts of labeled alternatives instead take a context of the rule's base class to copy.
+   */
+  ParserRuleContext instantiate(Class<?> cls, ParserRuleContext parent) {
+    try {
+      Constructor<?> k = constructors.get(cls);
+      if (k == null) {
+        try {
+          k = cls.getConstructor(ParserRuleContext.class, int.class);
+        } catch (NoSuchMethodException e) {
+          k = cls.getConstructor(cls.getSuperclass());
+        }
+        constructors.put(cls, k);
+      }
+      if (k.getParameterCount() == 2) return (ParserRuleContext) k.newInstance(parent, -1);
+      return (ParserRuleContext) k.newInstance(instantiate(cls.getSuperclass(), parent));
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("can't create a " + cls.getName(), e);
+    }
+  }
+}
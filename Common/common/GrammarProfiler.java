@@ -0,0 +1,230 @@
+package common;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.atn.ATNState;
+import org.antlr.v4.runtime.atn.DecisionInfo;
+import org.antlr.v4.tool.Grammar;
+import org.antlr.v4.tool.LeftRecursiveRule;
+import org.antlr.v4.tool.LexerGrammar;
+import org.antlr.v4.tool.Rule;
+import org.antlr.v4.tool.ast.GrammarAST;
+
+/**
+ * Runs a grammar with ANTLR's profiling simulator over a corpus and reports, for every decision,
+ * how often it was predicted, how much lookahead it took in SLL and full LL mode, how often SLL
+ * had to fall back to LL, how many ambiguities it hit and how long prediction took. Decisions are
+ * mapped back to the rule and grammar line they come from.
+ *
+ * <p>The grammar is loaded from its .g4 file and run through the tool's `ParserInterpreter`, so
+ * any bundled grammar can be profiled without its generated code. The interpreter simulates the
+ * same ATN the generated parser does, but skips actions and semantic predicates other than
+ * precedence predicates; grammars whose parse depends on predicates (e.g. Enum.g4) profile as if
+ * every predicate were true.
+ *
+ * <p>Usage: {@code GrammarProfiler [-csv] [-ext .java] grammar.g4 startRule file-or-dir...}
+ */
+public class GrammarProfiler {
+  /** Totals for one decision over all files profiled */
+  public static class DecisionStats {
+    public final int decision;
+    public String rule;
+    public int line;
+    public int charPositionInLine;
+    public long invocations;
+    public long timeInPrediction; // ns
+    public long sllTotalLook;
+    public long sllMaxLook;
+    public long llFallbacks;
+    public long llTotalLook;
+    public long llMaxLook;
+    public long ambiguities;
+    public long contextSensitivities;
+    public long errors;
+
+    DecisionStats(int decision) {
+      this.decision = decision;
+    }
+
+    void add(DecisionInfo d) {
+      invocations += d.invocations;
+      timeInPrediction += d.timeInPrediction;
+      sllTotalLook += d.SLL_TotalLook;
+      sllMaxLook = Math.max(sllMaxLook, d.SLL_MaxLook);
+      llFallbacks += d.LL_Fallback;
+      llTotalLook += d.LL_TotalLook;
+      llMaxLook = Math.max(llMaxLook, d.LL_MaxLook);
+      ambiguities += d.ambiguities.size();
+      contextSensitivities += d.contextSensitivities.size();
+      errors += d.errors.size();
+    }
+  }
+
+  Grammar g;
+  LexerGrammar lg;
+  int startRule;
+  DecisionStats[] stats;
+  int files;
+  long tokens;
+  int syntaxErrors;
+
+  /**
+   * Loads a grammar for profiling.
+   * @param grammarFile A combined grammar; its implicit lexer tokenizes the input.
+   * @param startRuleName The rule to parse each input file with.
+   */
+  public GrammarProfiler(String grammarFile, String startRuleName) {
+    g = Grammar.load(grammarFile);
+    if (g == null) throw new IllegalArgumentException("can't load grammar " + grammarFile);
+    lg = g.getImplicitLexer();
+    if (lg == null) throw new IllegalArgumentException(grammarFile + " is not a combined grammar");
+    Rule r = g.getRule(startRuleName);
+    if (r == null) throw new IllegalArgumentException("no rule " + startRuleName);
+    startRule = r.index;
+    stats = new DecisionStats[g.atn.getNumberOfDecisions()];
+    for (int d = 0; d < stats.length; d++) stats[d] = new DecisionStats(d);
+    locateDecisions();
+  }
+
+  /** Fill in rule name and grammar position of every decision */
+  void locateDecisions() {
+    Map<ATNState, GrammarAST> nodes = new HashMap<ATNState, GrammarAST>();
+    List<GrammarAST> work = new ArrayList<GrammarAST>();
+    work.add(g.ast);
+    while (!work.isEmpty()) {
+      GrammarAST t = work.remove(work.size() - 1);
+      if (t.atnState != null && !nodes.containsKey(t.atnState)) nodes.put(t.atnState, t);
+      for (int i = 0; i < t.getChildCount(); i++) work.add((GrammarAST) t.getChild(i));
+    }
+    for (DecisionStats s : stats) {
+      ATNState state = g.atn.getDecisionState(s.decision);
+      Rule r = g.getRule(state.ruleIndex);
+      s.rule = r.name;
+      GrammarAST where = nodes.get(state);
+      if (r instanceof LeftRecursiveRule) {
+        // the tool rewrites left-recursive rules from generated text; only the rule maps back
+        where = ((LeftRecursiveRule) r).getOriginalAST();
+      } else if (where == null || where.getLine() == 0) {
+        where = r.ast; // loop-back decisions have no node of their own
+      }
+      s.line = where.getLine();
+      s.charPositionInLine = where.getCharPositionInLine();
+    }
+  }
+
+  /**
+   * Parses one file with profiling on and adds its decision statistics to the totals.
+   * @param file The input to parse.
+   * @throws IOException If the file cannot be read.
+   */
+  public void profile(Path file) throws IOException {
+    CharStream input = Inputs.fromFile(file);
+    LexerInterpreter lexer = lg.createLexerInterpreter(input);
+    lexer.removeErrorListeners();
+    CommonTokenStream tokenStream = new CommonTokenStream(lexer);
+    ParserInterpreter parser = g.createParserInterpreter(tokenStream);
+    parser.removeErrorListeners();
+    parser.setProfile(true);
+    parser.parse(startRule);
+    for (DecisionInfo d : parser.getParseInfo().getDecisionInfo()) stats[d.decision].add(d);
+    files++;
+    tokens += tokenStream.size();
+    syntaxErrors += parser.getNumberOfSyntaxErrors();
+  }
+
+  /** @return Decisions that were invoked at least once, most expensive first. */
+  public List<DecisionStats> report() {
+    List<DecisionStats> used = new ArrayList<DecisionStats>();
+    for (DecisionStats s : stats) {
+      if (s.invocations > 0) used.add(s);
+    }
+    used.sort(
+        (a, b) -> {
+          int c = Long.compare(b.timeInPrediction, a.timeInPrediction);
+          return c != 0 ? c : Integer.compare(a.decision, b.decision);
+        });
+    return used;
+  }
+
+  public void printReport(boolean csv) {
+    String grammar = g.fileName;
+    if (csv) {
+      System.out.println(
+          "decision,rule,line,col,invocations,time_ms,sll_avg_k,sll_max_k,ll_fallbacks,"
+              + "ll_avg_k,ll_max_k,ambiguities,context_sensitivities,errors");
+    } else {
+      System.out.printf(
+          "%s: %d files, %d tokens, %d syntax errors\n", grammar, files, tokens, syntaxErrors);
+      System.out.printf(
+          "%-8s %-28s %-9s %11s %9s %7s %5s %9s %7s %5s %5s %5s %5s\n",
+          "decision", "rule", "line", "invocations", "time(ms)", "SLL k", "max",
+          "LL fallbk", "LL k", "max", "ambig", "ctxs", "errs");
+    }
+    for (DecisionStats s : report()) {
+      double sllAvg = (double) s.sllTotalLook / s.invocations;
+      double llAvg = s.llFallbacks > 0 ? (double) s.llTotalLook / s.llFallbacks : 0;
+      double ms = s.timeInPrediction / 1e6;
+      if (csv) {
+        System.out.printf(
+            "%d,%s,%d,%d,%d,%.3f,%.2f,%d,%d,%.2f,%d,%d,%d,%d\n",
+            s.decision, s.rule, s.line, s.charPositionInLine, s.invocations, ms, sllAvg,
+            s.sllMaxLook, s.llFallbacks, llAvg, s.llMaxLook, s.ambiguities,
+            s.contextSensitivities, s.errors);
+      } else {
+        System.out.printf(
+            "%-8d %-28s %-9s %11d %9.3f %7.2f %5d %9d %7.2f %5d %5d %5d %5d\n",
+            s.decision, s.rule, s.line + ":" + s.charPositionInLine, s.invocations, ms, sllAvg,
+            s.sllMaxLook, s.llFallbacks, llAvg, s.llMaxLook, s.ambiguities,
+            s.contextSensitivities, s.errors);
+      }
+    }
+  }
+
+  /** Expand directories into the files under them ending in `ext`, in sorted order */
+  static List<Path> corpus(List<String> args, String ext) throws IOException {
+    List<Path> files = new ArrayList<Path>();
+    for (String a : args) {
+      Path p = Paths.get(a);
+      if (!Files.isDirectory(p)) {
+        files.add(p);
+        continue;
+      }
+      try (Stream<Path> paths = Files.walk(p)) {
+        files.addAll(
+            paths
+                .filter(f -> Files.isRegularFile(f) && f.toString().endsWith(ext))
+                .sorted()
+                .collect(Collectors.toList()));
+      }
+    }
+    return files;
+  }
+
+  public static void main(String[] args) throws Exception {
+    List<String> rest = new ArrayList<String>();
+    boolean csv = false;
+    String ext = "";
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-csv")) csv = true;
+      else if (args[i].equals("-ext") && i + 1 < args.length) ext = args[++i];
+      else rest.add(args[i]);
+    }
+    if (rest.size() < 3) {
+      System.err.println(
+          "usage: GrammarProfiler [-csv] [-ext .java] grammar.g4 startRule file-or-dir...");
+      System.exit(2);
+    }
+    GrammarProfiler profiler = new GrammarProfiler(rest.get(0), rest.get(1));
+    for (Path file : corpus(rest.subList(2, rest.size()), ext)) profiler.profile(file);
+    profiler.printReport(csv);
+  }
+}
@@ -0,0 +1,205 @@
+package common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.antlr.v4.runtime.*;
+
+/**
+ * Opens UTF-8 input for the drivers. Files are memory-mapped and decoded straight into a
+ * `CodePointCharStream` whose buffer uses the narrowest element that holds every character: one
+ * byte per char for ASCII and Latin-1 text, two for the rest of the BMP, four otherwise. Unlike
+ * `ANTLRInputStream`, there is no Reader and no intermediate char[] copy of the file, and
+ * characters beyond the BMP are single symbols. Standard input is read through an
+ * `UnbufferedCharStream`, so piped input is lexed as it arrives instead of after EOF.
+ *
+ * <p>Input is always UTF-8. Bytes that aren't valid UTF-8 become U+FFFD, as they do in
+ * `CharStreams` and the `Reader` behind `ANTLRInputStream`, so a file in another encoding still
+ * parses; only `decodeExact`, for tools that write the text back, rejects them.
+ *
+ * <p>Tokens from an unbuffered stream must copy their text, since the chars are released as the
+ * lexer moves on; create token streams with `tokens(lexer)`, which takes care of that, or with
+ * `streamingTokens(lexer)` where holding every token would cost too much.
+ */
+public class Inputs {
+  /** Files smaller than this are read rather than mapped; mapping has a fixed setup cost */
+  static final int MAP_THRESHOLD = 64 * 1024;
+
+  /**
+   * Opens a driver's input.
+   * @param fileName A file to read, or null for standard input.
+   * @return The input; unbuffered if it is standard input.
+   * @throws IOException If the file cannot be read.
+   */
+  public static CharStream open(String fileName) throws IOException {
+    return fileName != null ? fromFile(Paths.get(fileName)) : stdin();
+  }
+
+  /**
+   * Opens a driver's input for drivers that read back from the char stream after lexing, which
+   * an unbuffered stream cannot do.
+   * @param fileName A file to read, or null to read all of standard input.
+   * @return The whole input.
+   * @throws IOException If the input cannot be read.
+   */
+  public static CharStream openFully(String fileName) throws IOException {
+    if (fileName != null) return fromFile(Paths.get(fileName));
+    return CharStreams.fromStream(System.in, StandardCharsets.UTF_8);
+  }
+
+  /** @return Standard input as an unbuffered UTF-8 stream. */
+  public static CharStream stdin() {
+    return new UnbufferedCharStream(System.in, 4096, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Reads a file, mapping it if it is large.
+   * @param file A UTF-8 file.
+   * @return The file's text; its source name is the file name.
+   * @throws IOException If the file cannot be read.
+   */
+  public static CharStream fromFile(Path file) throws IOException {
+    return new Decoder(CodingErrorAction.REPLACE).decode(file);
+  }
+
+  /**
+   * Reads every file under a directory whose name ends with `ext`, sharing one decoder and one
+   * decode buffer across all of them.
+   * @param dir The directory to search recursively.
+   * @param ext Suffix of the files to read, e.g. ".java"; "" for all files.
+   * @return The files' text in path order.
+   * @throws IOException If the directory cannot be walked or a file cannot be read.
+   */
+  public static Map<Path, CharStream> fromDirectory(Path dir, String ext) throws IOException {
+    List<Path> files;
+    try (Stream<Path> paths = Files.walk(dir)) {
+      files =
+          paths
+              .filter(p -> Files.isRegularFile(p) && p.toString().endsWith(ext))
+              .sorted()
+              .collect(Collectors.toList());
+    }
+    Decoder decoder = new Decoder(CodingErrorAction.REPLACE);
+    Map<Path, CharStream> inputs = new LinkedHashMap<Path, CharStream>();
+    for (Path file : files) inputs.put(file, decoder.decode(file));
+    return inputs;
+  }
+
+  /**
+   * Decodes UTF-8 bytes already in memory, e.g. a file read for hashing.
+   * @param bytes The encoded text.
+   * @param sourceName Name reported by the stream, e.g. the file name.
+   * @return The text.
+   */
+  public static CharStream decode(byte[] bytes, String sourceName) {
+    try {
+      return new Decoder(CodingErrorAction.REPLACE).decode(ByteBuffer.wrap(bytes), sourceName);
+    } catch (CharacterCodingException e) {
+      throw new IllegalStateException(e); // not when replacing
+    }
+  }
+
+  /**
+   * Decodes UTF-8 bytes that must be valid, for tools that write the text back: replacing what
+   * isn't would overwrite the file's original bytes with U+FFFD.
+   * @param bytes The encoded text.
+   * @param sourceName Name reported by the stream, e.g. the file name.
+   * @return The text.
+   * @throws CharacterCodingException If the bytes are not valid UTF-8.
+   */
+  public static CharStream decodeExact(byte[] bytes, String sourceName)
+      throws CharacterCodingException {
+    return new Decoder(CodingErrorAction.REPORT).decode(ByteBuffer.wrap(bytes), sourceName);
+  }
+
+  /**
+   * Creates the token stream for a lexer, switching the lexer to text-copying tokens if it reads
+   * an unbuffered stream.
+   * @param lexer The lexer, already attached to its input.
+   * @return A token stream over `lexer`.
+   */
+  public static CommonTokenStream tokens(Lexer lexer) {
+    if (lexer.getInputStream() instanceof UnbufferedCharStream) {
+      lexer.setTokenFactory(new CommonTokenFactory(true)); // chars are gone once consumed
+    }
+    return new CommonTokenStream(lexer);
+  }
+
+  /**
+   * Creates a token stream that keeps only a sliding window of `SlimToken`s, for drivers whose
+   * listeners run during the parse and never look back at earlier tokens. Tokens read their text
+   * from the input when asked, unless the input is unbuffered and they have to copy it.
+   * @param lexer The lexer, already attached to its input.
+   * @return An unbuffered token stream over `lexer`.
+   */
+  public static UnbufferedTokenStream<SlimToken> streamingTokens(Lexer lexer) {
+    boolean copyText = lexer.getInputStream() instanceof UnbufferedCharStream;
+    lexer.setTokenFactory(new SlimTokenFactory(copyText));
+    return new UnbufferedTokenStream<SlimToken>(lexer);
+  }
+
+  /** UTF-8 decoding into code point buffers; reusable, but not thread-safe */
+  static class Decoder {
+    final CharsetDecoder decoder;
+    final CharBuffer chars = CharBuffer.allocate(16 * 1024);
+
+    /** @param onError What to do with bytes that aren't UTF-8: `REPLACE` or `REPORT`. */
+    Decoder(CodingErrorAction onError) {
+      decoder =
+          StandardCharsets.UTF_8
+              .newDecoder()
+              .onMalformedInput(onError)
+              .onUnmappableCharacter(onError);
+    }
+
+    CharStream decode(Path file) throws IOException {
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) throw new IOException(file + " is too large to parse");
+        ByteBuffer bytes;
+        if (size < MAP_THRESHOLD) {
+          bytes = ByteBuffer.allocate((int) size);
+          while (bytes.hasRemaining() && channel.read(bytes) >= 0) {}
+          bytes.flip();
+        } else {
+          bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        return decode(bytes, file.toString());
+      }
+    }
+
+    CharStream decode(ByteBuffer bytes, String sourceName) throws CharacterCodingException {
+      // UTF-8 never has fewer bytes than code points, so the buffer never has to grow
+      CodePointBuffer.Builder text = CodePointBuffer.builder(Math.max(bytes.remaining(), 1));
+      decoder.reset();
+      chars.clear();
+      while (true) {
+        CoderResult result = decoder.decode(bytes, chars, true);
+        if (result.isError()) result.throwException();
+        chars.flip();
+        text.append(chars);
+        chars.compact(); // keeps a high surrogate whose low half is still to come
+        if (result.isUnderflow()) break;
+      }
+      decoder.flush(chars);
+      chars.flip();
+      text.append(chars);
+      return CodePointCharStream.fromBuffer(text.build(), sourceName);
+    }
+  }
+}
@@ -0,0 +1,398 @@
+package common;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.Map;
+import java.util.TreeMap;
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.atn.ATNConfigSet;
+import org.antlr.v4.runtime.dfa.DFA;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+/**
+ * Per-file measurements for the grammar tools: lex, parse and walk time, token and parse tree
+ * node counts, syntax errors, SLL-to-LL fallbacks and bytes allocated by the measuring thread.
+ * Nothing is measured unless one of these system properties asks for output:
+ *
+ * <ul>
+ *   <li>{@code metrics.jsonl=file}: append one JSON object per file as it finishes.
+ *   <li>{@code metrics.prom=file}: keep this process's per-tool totals in Prometheus text
+ *       format, rewritten at most once a second and at exit, e.g. for node_exporter's textfile
+ *       collector.
+ *   <li>{@code metrics.port=n}: serve the same totals live at http://127.0.0.1:n/metrics.
+ * </ul>
+ *
+ * A driver brackets its phases with a `Run`:
+ *
+ * <pre>
+ * Metrics.Run run = Metrics.start("Calc", inputFile);
+ * run.lex(tokens);
+ * ParseTree tree = run.parse(parser, parser::prog);
+ * run.walk(() -&gt; eval.visit(tree));
+ * run.finish(tree);
+ * </pre>
+ *
+ * When metrics are off the same calls just run the phases. When on, `lex` fills the token stream
+ * up front so lexing is timed apart from parsing.
+ */
+public class Metrics {
+  static final String JSONL = System.getProperty("metrics.jsonl");
+  static final String PROM = System.getProperty("metrics.prom");
+  static final String PORT = System.getProperty("metrics.port");
+  static final boolean ENABLED = JSONL != null || PROM != null || PORT != null;
+  static final Map<String, Totals> totals = new TreeMap<String, Totals>();
+  static final Exporter exporter = ENABLED ? new Exporter() : null;
+
+  /** A phase that produces a value, like a parser's start rule */
+  public interface Phase<T> {
+    T run() throws Exception;
+  }
+
+  /** A phase run for its effect, like a listener walk */
+  public interface Step {
+    void run() throws Exception;
+  }
+
+  /** Measurements for one file */
+  public static class Run extends BaseErrorListener {
+    final boolean enabled;
+    public final String tool;
+    public final String file;
+    public long lexNanos, parseNanos, walkNanos;
+    public long tokens, nodes, errors, llFallbacks, allocatedBytes;
+    long startAllocated;
+    boolean finished;
+
+    Run(String tool, String file, boolean enabled) {
+      this.tool = tool;
+      this.file = file;
+      this.enabled = enabled;
+      if (enabled) startAllocated = allocatedBytes();
+    }
+
+    /**
+     * Lexes all input now, counting tokens and lexer errors.
+     * @param tokens A token stream whose lexer has not run yet.
+     */
+    public void lex(BufferedTokenStream tokens) {
+      TokenSource source = tokens.getTokenSource();
+      if (source instanceof Lexer) DFACache.register((Lexer) source);
+      if (!enabled) return;
+      if (source instanceof Lexer) ((Lexer) source).addErrorListener(this);
+      long start = System.nanoTime();
+      tokens.fill();
+      lexNanos += System.nanoTime() - start;
+      this.tokens += tokens.size();
+    }
+
+    /**
+     * Runs a parser's start rule, counting syntax errors and full-context retries.
+     * @param parser The parser; a listener is added to it.
+     * @param start Calls the start rule.
+     * @return What the start rule returned.
+     */
+    public <T> T parse(Parser parser, Phase<T> start) throws Exception {
+      DFACache.register(parser);
+      if (!enabled) return start.run();
+      parser.addErrorListener(this);
+      long begin = System.nanoTime();
+      try {
+        return start.run();
+      } finally {
+        parseNanos += System.nanoTime() - begin;
+      }
+    }
+
+    /** Runs a walk or visit, adding its time to the walk phase */
+    public void walk(Step walk) throws Exception {
+      if (!enabled) {
+        walk.run();
+        return;
+      }
+      long begin = System.nanoTime();
+      try {
+        walk.run();
+      } finally {
+        walkNanos += System.nanoTime() - begin;
+      }
+    }
+
+    /** Runs a walk or visit that produces a result, adding its time to the walk phase */
+    public <T> T walk(Phase<T> walk) throws Exception {
+      if (!enabled) return walk.run();
+      long begin = System.nanoTime();
+      try {
+        return walk.run();
+      } finally {
+        walkNanos += System.nanoTime() - begin;
+      }
+    }
+
+    /**
+     * Records this run. Later calls do nothing.
+     * @param tree The parse tree, whose nodes are counted; null if none was built.
+     */
+    public void finish(ParseTree tree) {
+      DFACache.checkpoint();
+      if (!enabled || finished) return;
+      finished = true;
+      if (tree != null) nodes = countNodes(tree);
+      long now = allocatedBytes();
+      if (now >= 0 && startAllocated >= 0) allocatedBytes = now - startAllocated;
+      record(this);
+    }
+
+    @Override
+    public void syntaxError(
+        Recognizer<?, ?> recognizer,
+        Object offendingSymbol,
+        int line,
+        int charPositionInLine,
+        String msg,
+        RecognitionException e) {
+      errors++;
+    }
+
+    /** The parser reports each switch from SLL to full LL prediction here */
+    @Override
+    public void reportAttemptingFullContext(
+        Parser recognizer,
+        DFA dfa,
+        int startIndex,
+        int stopIndex,
+        BitSet conflictingAlts,
+        ATNConfigSet configs) {
+      llFallbacks++;
+    }
+
+    String toJSON() {
+      return String.format(
+          "{\"tool\":%s,\"file\":%s,\"lex_ms\":%.3f,\"parse_ms\":%.3f,\"walk_ms\":%.3f,"
+              + "\"tokens\":%d,\"nodes\":%d,\"errors\":%d,\"ll_fallbacks\":%d,"
+              + "\"allocated_bytes\":%d}",
+          quote(tool), quote(file), lexNanos / 1e6, parseNanos / 1e6, walkNanos / 1e6, tokens,
+          nodes, errors, llFallbacks, allocatedBytes);
+    }
+  }
+
+  /**
+   * Starts measuring one file.
+   * @param tool Name the totals are grouped under, e.g. the driver's class name.
+   * @param file The input, or null for standard input.
+   * @return A run to record phases in; inert unless metrics are enabled.
+   */
+  public static Run start(String tool, String file) {
+    return new Run(tool, file != null ? file : "<stdin>", ENABLED);
+  }
+
+  public static boolean enabled() {
+    return ENABLED;
+  }
+
+  static long countNodes(ParseTree tree) {
+    long n = 0;
+    Deque<ParseTree> work = new ArrayDeque<ParseTree>();
+    work.push(tree);
+    while (!work.isEmpty()) {
+      ParseTree t = work.pop();
+      n++;
+      for (int i = 0; i < t.getChildCount(); i++) work.push(t.getChild(i));
+    }
+    return n;
+  }
+
+  /** @return Bytes allocated so far by the current thread, or -1 if the JVM can't tell. */
+  static long allocatedBytes() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (!(bean instanceof com.sun.management.ThreadMXBean)) return -1;
+    return ((com.sun.management.ThreadMXBean) bean)
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  static String quote(String s) {
+    StringBuilder buf = new StringBuilder("\"");
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\') buf.append('\\').append(c);
+      else if (c < 0x20) buf.append(String.format("\\u%04x", (int) c));
+      else buf.append(c);
+    }
+    return buf.append('"').toString();
+  }
+
+  /** Running totals for one tool */
+  static class Totals {
+    long files, lexNanos, parseNanos, walkNanos, tokens, nodes, errors, llFallbacks, allocated;
+
+    void add(Run r) {
+      files++;
+      lexNanos += r.lexNanos;
+      parseNanos += r.parseNanos;
+      walkNanos += r.walkNanos;
+      tokens += r.tokens;
+      nodes += r.nodes;
+      errors += r.errors;
+      llFallbacks += r.llFallbacks;
+      allocated += r.allocatedBytes;
+    }
+  }
+
+  static void record(Run run) {
+    synchronized (totals) {
+      Totals t = totals.get(run.tool);
+      if (t == null) totals.put(run.tool, t = new Totals());
+      t.add(run);
+    }
+    exporter.written(run);
+  }
+
+  /** @return The totals of every tool in Prometheus text exposition format. */
+  public static String prometheus() {
+    StringBuilder buf = new StringBuilder();
+    synchronized (totals) {
+      counter(buf, "antlr_files_total", "Files processed");
+      for (Map.Entry<String, Totals> e : totals.entrySet()) {
+        sample(buf, "antlr_files_total", e.getKey(), null, e.getValue().files);
+      }
+      counter(buf, "antlr_phase_seconds_total", "Time spent per phase");
+      for (Map.Entry<String, Totals> e : totals.entrySet()) {
+        Totals t = e.getValue();
+        sample(buf, "antlr_phase_seconds_total", e.getKey(), "lex", t.lexNanos / 1e9);
+        sample(buf, "antlr_phase_seconds_total", e.getKey(), "parse", t.parseNanos / 1e9);
+        sample(buf, "antlr_phase_seconds_total", e.getKey(), "walk", t.walkNanos / 1e9);
+      }
+      String[][] counts = {
+        {"antlr_tokens_total", "Tokens lexed"},
+        {"antlr_tree_nodes_total", "Parse tree nodes built"},
+        {"antlr_syntax_errors_total", "Lexer and parser errors reported"},
+        {"antlr_ll_fallbacks_total", "Decisions retried with full LL after an SLL conflict"},
+        {"antlr_allocated_bytes_total", "Bytes allocated while processing files"},
+      };
+      for (int i = 0; i < counts.length; i++) {
+        counter(buf, counts[i][0], counts[i][1]);
+        for (Map.Entry<String, Totals> e : totals.entrySet()) {
+          Totals t = e.getValue();
+          long[] v = {t.tokens, t.nodes, t.errors, t.llFallbacks, t.allocated};
+          sample(buf, counts[i][0], e.getKey(), null, v[i]);
+        }
+      }
+    }
+    DFACache.prometheus(buf);
+    return buf.toString();
+  }
+
+  static void counter(StringBuilder buf, String name, String help) {
+    buf.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    buf.append("# TYPE ").append(name).append(" counter\n");
+  }
+
+  static void sample(StringBuilder buf, String name, String tool, String phase, double value) {
+    buf.append(name).append("{tool=").append(quote(tool));
+    if (phase != null) buf.append(",phase=\"").append(phase).append('"');
+    buf.append("} ");
+    if (value == Math.rint(value)) buf.append((long) value);
+    else buf.append(value);
+    buf.append('\n');
+  }
+
+  /** Writes the outputs that were asked for */
+  static class Exporter {
+    PrintWriter jsonl;
+    long lastPromWrite;
+
+    Exporter() {
+      try {
+        if (JSONL != null) {
+          jsonl =
+              new PrintWriter(
+                  new OutputStreamWriter(
+                      new FileOutputStream(JSONL, true), StandardCharsets.UTF_8));
+        }
+        if (PORT != null) serve(Integer.parseInt(PORT));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+    }
+
+    synchronized void written(Run run) {
+      if (jsonl != null) {
+        jsonl.println(run.toJSON());
+        jsonl.flush();
+      }
+      long now = System.currentTimeMillis();
+      if (PROM != null && now - lastPromWrite >= 1000) {
+        writeProm();
+        lastPromWrite = now;
+      }
+    }
+
+    synchronized void close() {
+      if (jsonl != null) jsonl.close();
+      if (PROM != null) writeProm();
+    }
+
+    /** Replace the file in one step so a collector never reads half of it */
+    void writeProm() {
+      try {
+        Path target = Paths.get(PROM).toAbsolutePath();
+        Path tmp = Files.createTempFile(target.getParent(), ".metrics", ".tmp");
+        Files.write(tmp, prometheus().getBytes(StandardCharsets.UTF_8));
+        Files.move(
+            tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+        System.err.println("can't write " + PROM + ": " + e);
+      }
+    }
+
+    /** Milliseconds a metrics client may take to send each line of its request */
+    static final int REQUEST_TIMEOUT = 5000;
+
+    /** A minimal HTTP responder on a daemon thread, so it never keeps a finished tool alive */
+    void serve(int port) throws IOException {
+      ServerSocket server = new ServerSocket(port, 16, InetAddress.getLoopbackAddress());
+      Thread t =
+          new Thread(
+              () -> {
+                while (true) {
+                  try (Socket s = server.accept()) {
+                    s.setSoTimeout(REQUEST_TIMEOUT); // one silent client would block all others
+                    BufferedReader in =
+                        new BufferedReader(
+                            new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII));
+                    String request = in.readLine();
+                    String line;
+                    while ((line = in.readLine()) != null && !line.isEmpty()) {} // headers
+                    boolean ok = request != null && request.startsWith("GET /metrics");
+                    String text = ok ? prometheus() : "not found\n";
+                    byte[] body = text.getBytes(StandardCharsets.UTF_8);
+                    OutputStream out = s.getOutputStream();
+                    out.write(
+                        ((ok ? "HTTP/1.0 200 OK" : "HTTP/1.0 404 Not Found")
+                                + "\r\nContent-Type: text/plain; version=0.0.4\r\nContent-Length: "
+                                + body.length
+                                + "\r\n\r\n")
+                            .getBytes(StandardCharsets.US_ASCII));
+                    out.write(body);
+                  } catch (IOException e) {
+                    // a client went away; keep serving
+                  }
+                }
+              },
+              "metrics-http");
+      t.setDaemon(true);
+      t.start();
+    }
+  }
+}
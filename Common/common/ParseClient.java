@@ -0,0 +1,128 @@
+package common;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Runs a tool in a `ParseDaemon`, with the tool's output and exit status as its own. Arguments
+ * naming existing files are made absolute first, since the daemon may run elsewhere. The tool
+ * reads no input unless `-stdin` is given, which sends the client's own. The daemon's token is
+ * read from `ParseDaemon.defaultTokenFile` for the port, or the file `-token` names.
+ *
+ * <p>Usage: {@code ParseClient [-port n] [-token file] [-stdin] tool [arg...]}; {@code ParseClient
+ * -dfa} to print the daemon's DFA cache sizes, or {@code ParseClient -stop} to stop it once its
+ * jobs finish.
+ */
+public class ParseClient {
+  /**
+   * Runs one job.
+   * @param port The daemon's port.
+   * @param token The daemon's token, from its token file.
+   * @param tool The tool class, or `ParseDaemon.STOP`.
+   * @param args The tool's arguments.
+   * @param stdin The tool's input, or null for none.
+   * @param out Where the tool's stdout goes.
+   * @param err Where the tool's stderr goes.
+   * @return The tool's exit status; `ParseDaemon.BUSY` if the daemon had no room for it, or
+   *     `ParseDaemon.DENIED` if the token was wrong.
+   * @throws IOException If the daemon can't be reached or hangs up.
+   */
+  public static int run(
+      int port,
+      byte[] token,
+      String tool,
+      String[] args,
+      InputStream stdin,
+      OutputStream out,
+      OutputStream err)
+      throws IOException {
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+      DataOutputStream request =
+          new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      request.write(token);
+      request.writeInt(args.length + 1);
+      request.writeUTF(tool);
+      for (String arg : args) request.writeUTF(arg);
+      request.writeBoolean(stdin != null);
+      request.flush();
+      if (stdin != null) {
+        Thread pump = new Thread(() -> {
+          try {
+            byte[] buf = new byte[8192];
+            for (int n; (n = stdin.read(buf)) > 0; ) request.write(buf, 0, n);
+            request.flush();
+            socket.shutdownOutput();
+          } catch (IOException e) {
+            // the job ended without reading it all
+          }
+        });
+        pump.setDaemon(true);
+        pump.start();
+      }
+      DataInputStream response =
+          new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      byte[] buf = new byte[8192];
+      while (true) {
+        int channel = response.readByte();
+        if (channel == ParseDaemon.EXIT) {
+          out.flush();
+          err.flush();
+          return response.readInt();
+        }
+        int n = response.readInt();
+        if (n > buf.length) buf = new byte[n];
+        response.readFully(buf, 0, n);
+        OutputStream target = channel == ParseDaemon.ERR ? err : out;
+        target.write(buf, 0, n);
+        target.flush();
+      }
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    int port = ParseDaemon.DEFAULT_PORT;
+    Path tokenFile = null;
+    boolean stdin = false;
+    int i = 0;
+    for (; i < args.length && args[i].startsWith("-"); i++) {
+      if (args[i].equals("-port") && i + 1 < args.length) port = Integer.parseInt(args[++i]);
+      else if (args[i].equals("-token") && i + 1 < args.length) tokenFile = Paths.get(args[++i]);
+      else if (args[i].equals("-stdin")) stdin = true;
+      else break; // -stop or -dfa
+    }
+    if (i == args.length) {
+      System.err.println(
+          "usage: ParseClient [-port n] [-token file] [-stdin] tool [arg...] | -dfa | -stop");
+      System.exit(2);
+    }
+    if (tokenFile == null) tokenFile = ParseDaemon.defaultTokenFile(port);
+    byte[] token;
+    try {
+      token = Files.readAllBytes(tokenFile);
+      if (token.length != ParseDaemon.TOKEN_BYTES) throw new IOException("not a token file");
+    } catch (IOException e) {
+      System.err.println("can't read the daemon's token: " + e + "; is it running?");
+      System.exit(2);
+      return;
+    }
+    String tool = args[i];
+    String[] toolArgs = new String[args.length - i - 1];
+    for (int j = 0; j < toolArgs.length; j++) {
+      String arg = args[i + 1 + j];
+      toolArgs[j] = new File(arg).exists() ? new File(arg).getAbsolutePath() : arg;
+    }
+    System.exit(
+        run(port, token, tool, toolArgs, stdin ? System.in : null, System.out, System.err));
+  }
+}
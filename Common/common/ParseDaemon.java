@@ -0,0 +1,479 @@
+package common;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A resident process that runs the grammar tools' `main` methods on request, so that calling a
+ * tool many times costs neither a JVM start nor a cold DFA cache: the generated recognizers share
+ * their DFA caches within the process, and they stay warm from job to job. It listens on a
+ * localhost TCP port; `ParseClient` sends it a job, a tool and its arguments, and the tool's
+ * stdout and stderr stream back as it runs.
+ *
+ * <p>Jobs run on a pool of `-jobs` threads, and up to `-queue` more wait for one; a job arriving
+ * when all are taken is turned away at once with status `BUSY`. Only the tools named by `-tools`
+ * can be run, the bundled ones by default. While a job runs, `System.out`, `System.err` and
+ * `System.in` are its own on its thread and on threads it starts; output from threads shared by
+ * all jobs, like the common fork/join pool's, may reach the daemon's own stdout instead. Tools
+ * end with `exit` rather than `System.exit`, which here ends just the job.
+ *
+ * <p>Relative paths are resolved against the daemon's directory, so the client makes file
+ * arguments absolute. The daemon only listens on the loopback address, but any local user can
+ * connect to that, so each connection must first send a token: random bytes the daemon writes at
+ * startup to a file only its user can read, {@code ~/.parsedaemon/token-<port>} unless `-token`
+ * names another. Connections that don't are turned away with status `DENIED`, before any job.
+ *
+ * <p>The recognizers' DFA caches grow with every new kind of input; run the daemon with
+ * `DFACache`'s `dfa.maxStates` or `dfa.maxAge` to bound them. A `-warmup` file lists jobs, one
+ * per line as a tool and its arguments separated by spaces, that run with their output discarded
+ * before the daemon accepts jobs and again whenever the caches are cleared. {@code ParseClient
+ * -dfa} prints the states cached per decision.
+ *
+ * <p>Usage: {@code ParseDaemon [-port n] [-token file] [-jobs n] [-queue n] [-tools Calc,Col,...]
+ * [-warmup file]}; stop it with {@code ParseClient -stop}.
+ */
+public class ParseDaemon {
+  public static final int DEFAULT_PORT = 7543;
+  public static final String[] DEFAULT_TOOLS = {
+    "Calc", "Col", "LoadCSV", "JSON2XML", "CallGraph", "CheckSymbols", "ExtractInterfaceTool",
+    "InsertSerialID", "tools.Calc"
+  };
+  /** Job name that stops the daemon once running jobs finish */
+  public static final String STOP = "-stop";
+  /** Job name that reports the DFA caches, as `DFACache.report` */
+  public static final String DFA = "-dfa";
+  /** Exit status of a job turned away because the daemon is full, as `EX_TEMPFAIL` */
+  public static final int BUSY = 75;
+  /** Exit status of a connection turned away for a wrong token, as `EX_NOPERM` */
+  public static final int DENIED = 77;
+  /** Length of the token a connection starts with */
+  public static final int TOKEN_BYTES = 32;
+  /** How long a connection may take to send its token, in milliseconds */
+  static final int TOKEN_TIMEOUT = 10000;
+
+  // a response is a series of frames: a channel byte, then for OUT and ERR an int length and that
+  // many bytes, for EXIT an int status, which ends it
+  static final int EXIT = 0;
+  static final int OUT = 1;
+  static final int ERR = 2;
+
+  static final InheritableThreadLocal<Channel> jobOut = new InheritableThreadLocal<Channel>();
+  static final InheritableThreadLocal<Channel> jobErr = new InheritableThreadLocal<Channel>();
+  static final InheritableThreadLocal<InputStream> jobIn =
+      new InheritableThreadLocal<InputStream>();
+
+  /** Thrown by `exit` in a job, to end it with a status */
+  static class JobExit extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    final int status;
+
+    JobExit(int status) {
+      super(null, null, false, false);
+      this.status = status;
+    }
+  }
+
+  /**
+   * Exits with a status. Tools call this instead of `System.exit`, which would stop the daemon
+   * running them; in a daemon job, it ends the job with that status.
+   * @param status The exit status.
+   */
+  public static void exit(int status) {
+    if (jobOut.get() != null) throw new JobExit(status);
+    System.exit(status);
+  }
+
+  /** One of a job's output streams, sent to its client in frames of up to 8K */
+  static class Channel extends OutputStream {
+    final DataOutputStream socket;
+    final int channel;
+    final byte[] buf = new byte[8192];
+    int size;
+    boolean closed;
+
+    Channel(DataOutputStream socket, int channel) {
+      this.socket = socket;
+      this.channel = channel;
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+      if (size == buf.length) send();
+      buf[size++] = (byte) b;
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        if (size == buf.length) send();
+        int n = Math.min(len, buf.length - size);
+        System.arraycopy(b, off, buf, size, n);
+        size += n;
+        off += n;
+        len -= n;
+      }
+    }
+
+    void send() throws IOException {
+      if (size == 0) return;
+      synchronized (socket) {
+        socket.writeByte(channel);
+        socket.writeInt(size);
+        socket.write(buf, 0, size);
+      }
+      size = 0;
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+      send();
+      synchronized (socket) {
+        socket.flush();
+      }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      if (closed) return;
+      flush();
+      closed = true;
+    }
+  }
+
+  /** Sends writes to the current job's channel, or to the daemon's own stream outside jobs */
+  static class Router extends OutputStream {
+    final InheritableThreadLocal<Channel> job;
+    final OutputStream own;
+
+    Router(InheritableThreadLocal<Channel> job, OutputStream own) {
+      this.job = job;
+      this.own = own;
+    }
+
+    OutputStream target() {
+      Channel c = job.get();
+      return c != null && !c.closed ? c : own;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      target().write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      target().write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      target().flush();
+    }
+  }
+
+  /** Reads the current job's input; outside jobs, the daemon's own */
+  static class InputRouter extends InputStream {
+    final InputStream own;
+
+    InputRouter(InputStream own) {
+      this.own = own;
+    }
+
+    InputStream target() {
+      InputStream in = jobIn.get();
+      return in != null ? in : own;
+    }
+
+    @Override
+    public int read() throws IOException {
+      return target().read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      return target().read(b, off, len);
+    }
+
+    @Override
+    public int available() throws IOException {
+      return target().available();
+    }
+  }
+
+  final Set<String> tools;
+  final Map<String, Method> mains = new ConcurrentHashMap<String, Method>();
+  final ServerSocket server;
+  final ThreadPoolExecutor pool;
+  final byte[] token = new byte[TOKEN_BYTES];
+  final Path tokenFile;
+
+  /**
+   * Opens the daemon's port and writes a new token for it; `serve` then runs it.
+   * @param port Port on the loopback address.
+   * @param tokenFile Where clients find the token; replaced if it exists.
+   * @param jobs How many jobs run at once.
+   * @param queue How many more jobs may wait for one of those.
+   * @param tools Classes whose `main` jobs may run.
+   * @throws IOException If the port can't be opened or the token written.
+   */
+  public ParseDaemon(int port, Path tokenFile, int jobs, int queue, Set<String> tools)
+      throws IOException {
+    this.tools = tools;
+    this.server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    this.tokenFile = tokenFile;
+    new SecureRandom().nextBytes(token);
+    try {
+      writeToken(tokenFile, token);
+    } catch (IOException e) {
+      server.close();
+      throw e;
+    }
+    this.pool =
+        new ThreadPoolExecutor(
+            jobs, jobs, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(Math.max(1, queue)));
+  }
+
+  /** @return Where the daemon on a port writes its token unless told otherwise. */
+  public static Path defaultTokenFile(int port) {
+    return Paths.get(System.getProperty("user.home"), ".parsedaemon", "token-" + port);
+  }
+
+  /** Writes a token through a temp file, which is created owner-only, so others can't read it */
+  static void writeToken(Path file, byte[] token) throws IOException {
+    Path dir = file.toAbsolutePath().getParent();
+    if (!Files.isDirectory(dir)) {
+      try {
+        FileAttribute<?> ownerOnly =
+            PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------"));
+        Files.createDirectories(dir, ownerOnly);
+      } catch (UnsupportedOperationException e) {
+        Files.createDirectories(dir); // not a POSIX file system
+      }
+    }
+    Path tmp = Files.createTempFile(dir, "token", ".tmp");
+    try {
+      Files.write(tmp, token);
+      Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  /** Routes the standard streams to jobs; once per process */
+  static synchronized void install() {
+    if (System.out instanceof Routed) return;
+    System.setOut(new Routed(new Router(jobOut, System.out)));
+    System.setErr(new Routed(new Router(jobErr, System.err)));
+    System.setIn(new InputRouter(System.in));
+  }
+
+  /** Marks the routing streams */
+  static class Routed extends PrintStream {
+    Routed(Router router) {
+      super(router, false);
+    }
+  }
+
+  /** Accepts jobs until stopped, then waits for the running and waiting ones to finish */
+  public void serve() throws IOException, InterruptedException {
+    install();
+    System.err.println("ParseDaemon listening on " + server.getLocalSocketAddress());
+    try {
+      while (true) {
+        Socket socket;
+        try {
+          socket = server.accept();
+        } catch (SocketException e) {
+          break; // closed by a stop job
+        }
+        try {
+          pool.execute(() -> serve(socket));
+        } catch (RejectedExecutionException e) {
+          refuse(socket);
+        }
+      }
+    } finally {
+      pool.shutdown();
+      pool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+      Files.deleteIfExists(tokenFile);
+    }
+  }
+
+  void refuse(Socket socket) {
+    try (Socket s = socket) {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+      reject(out, "daemon busy: " + pool.getActiveCount() + " jobs running, "
+          + pool.getQueue().size() + " waiting", BUSY);
+    } catch (IOException e) {
+      // the client gave up already
+    }
+  }
+
+  /** Sends a message on stderr and an exit status, ending a connection that runs no job */
+  static void reject(DataOutputStream out, String message, int status) throws IOException {
+    byte[] msg = (message + "\n").getBytes(StandardCharsets.UTF_8);
+    out.writeByte(ERR);
+    out.writeInt(msg.length);
+    out.write(msg);
+    out.writeByte(EXIT);
+    out.writeInt(status);
+    out.flush();
+  }
+
+  /** Reads one job from a connection, runs it and sends back its output and status */
+  void serve(Socket socket) {
+    try (Socket s = socket) {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+      s.setSoTimeout(TOKEN_TIMEOUT); // so connections that send nothing don't hold a job thread
+      byte[] presented = new byte[TOKEN_BYTES];
+      in.readFully(presented);
+      if (!MessageDigest.isEqual(presented, token)) {
+        reject(out, "wrong token; read it from the daemon's token file", DENIED);
+        return;
+      }
+      s.setSoTimeout(0);
+      int words = in.readInt();
+      if (words < 1 || words > 100000) throw new IOException("bad request");
+      String[] request = new String[words];
+      for (int i = 0; i < words; i++) request[i] = in.readUTF();
+      boolean stdin = in.readBoolean();
+      Channel stdout = new Channel(out, OUT);
+      Channel stderr = new Channel(out, ERR);
+      int status;
+      if (request[0].equals(STOP)) {
+        server.close();
+        status = 0;
+      } else if (request[0].equals(DFA)) {
+        stdout.write(DFACache.report().getBytes(StandardCharsets.UTF_8));
+        status = 0;
+      } else {
+        InputStream input = stdin ? in : new ByteArrayInputStream(new byte[0]);
+        status = run(request[0], Arrays.copyOfRange(request, 1, words), input, stdout, stderr);
+      }
+      stdout.close();
+      stderr.close();
+      synchronized (out) {
+        out.writeByte(EXIT);
+        out.writeInt(status);
+        out.flush();
+      }
+    } catch (IOException e) {
+      System.err.println("ParseDaemon: job failed: " + e);
+    }
+  }
+
+  /**
+   * Runs jobs with their output discarded, to fill the DFA caches.
+   * @param jobs Each a tool and its arguments.
+   */
+  public void warmUp(List<String[]> jobs) {
+    Channel discard = new Channel(new DataOutputStream(OutputStream.nullOutputStream()), OUT);
+    for (String[] job : jobs) {
+      try {
+        InputStream empty = new ByteArrayInputStream(new byte[0]);
+        run(job[0], Arrays.copyOfRange(job, 1, job.length), empty, discard, discard);
+      } catch (IOException e) {
+        // nothing is written
+      }
+    }
+  }
+
+  /** @return The job's exit status. */
+  int run(String tool, String[] args, InputStream in, Channel out, Channel err) throws IOException {
+    if (!tools.contains(tool)) {
+      err.write(("unknown tool " + tool + "; this daemon runs " + tools + "\n")
+          .getBytes(StandardCharsets.UTF_8));
+      return 2;
+    }
+    jobOut.set(out);
+    jobErr.set(err);
+    jobIn.set(in);
+    try {
+      Method main = mains.get(tool);
+      if (main == null) {
+        main = Class.forName(tool).getMethod("main", String[].class);
+        mains.put(tool, main);
+      }
+      main.invoke(null, (Object) args);
+      return 0;
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof JobExit) return ((JobExit) e.getCause()).status;
+      e.getCause().printStackTrace();
+      return 1;
+    } catch (ReflectiveOperationException e) {
+      System.err.println("can't run " + tool + ": " + e);
+      return 1;
+    } finally {
+      System.out.flush();
+      System.err.flush();
+      jobOut.remove();
+      jobErr.remove();
+      jobIn.remove();
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    int port = DEFAULT_PORT;
+    Path tokenFile = null;
+    int jobs = Runtime.getRuntime().availableProcessors();
+    int queue = 64;
+    Set<String> tools = new LinkedHashSet<String>(Arrays.asList(DEFAULT_TOOLS));
+    List<String[]> warmup = new ArrayList<String[]>();
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      if (args[i].equals("-port")) port = Integer.parseInt(args[i + 1]);
+      else if (args[i].equals("-token")) tokenFile = Paths.get(args[i + 1]);
+      else if (args[i].equals("-jobs")) jobs = Integer.parseInt(args[i + 1]);
+      else if (args[i].equals("-queue")) queue = Integer.parseInt(args[i + 1]);
+      else if (args[i].equals("-tools")) {
+        tools = new LinkedHashSet<String>(Arrays.asList(args[i + 1].split(",")));
+      } else if (args[i].equals("-warmup")) {
+        for (String line : Files.readAllLines(Paths.get(args[i + 1]))) {
+          if (!line.trim().isEmpty()) warmup.add(line.trim().split("\\s+"));
+        }
+      } else throw new IllegalArgumentException("unknown option " + args[i]);
+    }
+    if (tokenFile == null) tokenFile = defaultTokenFile(port);
+    ParseDaemon daemon = new ParseDaemon(port, tokenFile, jobs, queue, tools);
+    if (!warmup.isEmpty()) {
+      install();
+      daemon.warmUp(warmup);
+      DFACache.setWarmup(() -> daemon.warmUp(warmup));
+    }
+    daemon.serve();
+  }
+}
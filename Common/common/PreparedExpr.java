@@ -0,0 +1,238 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An integer expression parsed once, for evaluating many times with different variable values:
+ * the calculators' `+ - * /` over int literals and variables, compiled to postfix code. It is
+ * immutable and evaluation keeps its stack in a local array, so one instance can be shared by any
+ * number of threads. Variables are numbered in order of first appearance; pass their values in
+ * that order, or by name. Arithmetic is Java int arithmetic, as in the calculators, so division
+ * by zero throws `ArithmeticException` and everything else wraps.
+ *
+ * <p>Grammars compile to it with a `Builder`, emitting operands before their operator.
+ */
+public final class PreparedExpr {
+  static final int CONST = 0;
+  static final int VAR = 1;
+  static final int MUL = 2;
+  static final int DIV = 3;
+  static final int ADD = 4;
+  static final int SUB = 5;
+
+  final String text;
+  final int[] ops;
+  final int[] args; // constant or variable slot; unused by operators
+  final long[] wide; // constants' values in long arithmetic; `args` has them in int
+  final List<String> variables;
+  final int maxDepth;
+
+  PreparedExpr(
+      String text, int[] ops, int[] args, long[] wide, List<String> variables, int maxDepth) {
+    this.text = text;
+    this.ops = ops;
+    this.args = args;
+    this.wide = wide;
+    this.variables = Collections.unmodifiableList(new ArrayList<String>(variables));
+    this.maxDepth = maxDepth;
+  }
+
+  /** Emits postfix code for an expression; not thread-safe, unlike what it builds */
+  public static class Builder {
+    int[] ops = new int[16];
+    int[] args = new int[16];
+    long[] wide = new long[16];
+    int size;
+    int depth;
+    int maxDepth;
+    List<String> variables = new ArrayList<String>();
+
+    void emit(int op, int arg, long wideArg) {
+      if (size == ops.length) {
+        ops = Arrays.copyOf(ops, size * 2);
+        args = Arrays.copyOf(args, size * 2);
+        wide = Arrays.copyOf(wide, size * 2);
+      }
+      ops[size] = op;
+      args[size] = arg;
+      wide[size] = wideArg;
+      size++;
+    }
+
+    public Builder constant(int value) {
+      emit(CONST, value, value);
+      maxDepth = Math.max(maxDepth, ++depth);
+      return this;
+    }
+
+    public Builder variable(String name) {
+      int slot = variables.indexOf(name);
+      if (slot < 0) {
+        slot = variables.size();
+        variables.add(name);
+      }
+      emit(VAR, slot, 0);
+      maxDepth = Math.max(maxDepth, ++depth);
+      return this;
+    }
+
+    /**
+     * Applies an operator to the two values emitted last; folds it if both are constants, unless
+     * it divides by zero and must throw when evaluated. Constants are folded in int and in long
+     * arithmetic side by side, so `ColumnEval.evaluateLong` gets the value an unfolded expression
+     * would have in long, not an int result that wrapped.
+     * @param op One of {@code * / + -}.
+     * @throws IllegalArgumentException If `op` is no operator or there are no two operands.
+     */
+    public Builder operator(char op) {
+      int code = op == '*' ? MUL : op == '/' ? DIV : op == '+' ? ADD : op == '-' ? SUB : -1;
+      if (code < 0) throw new IllegalArgumentException("unknown operator " + op);
+      if (depth < 2) throw new IllegalArgumentException("operator " + op + " needs two operands");
+      depth--;
+      // a product can be 0 in int and not in long, so either divisor being 0 stops the fold
+      if (size >= 2 && ops[size - 2] == CONST && ops[size - 1] == CONST
+          && !(code == DIV && (args[size - 1] == 0 || wide[size - 1] == 0))) {
+        int value = apply(code, args[size - 2], args[size - 1]);
+        long wideValue = apply(code, wide[size - 2], wide[size - 1]);
+        size -= 2;
+        emit(CONST, value, wideValue);
+        return this;
+      }
+      emit(code, 0, 0);
+      return this;
+    }
+
+    /**
+     * @param text The source text, for `toString` and error messages.
+     * @return The expression emitted.
+     * @throws IllegalArgumentException If the code doesn't leave exactly one value.
+     */
+    public PreparedExpr build(String text) {
+      if (depth != 1) throw new IllegalArgumentException("not one expression: " + text);
+      return new PreparedExpr(
+          text,
+          Arrays.copyOf(ops, size),
+          Arrays.copyOf(args, size),
+          Arrays.copyOf(wide, size),
+          variables,
+          maxDepth);
+    }
+  }
+
+  static int apply(int op, int a, int b) {
+    switch (op) {
+      case MUL:
+        return a * b;
+      case DIV:
+        return a / b;
+      case ADD:
+        return a + b;
+      default:
+        return a - b; // must be SUB
+    }
+  }
+
+  static long apply(int op, long a, long b) {
+    switch (op) {
+      case MUL:
+        return a * b;
+      case DIV:
+        return a / b;
+      case ADD:
+        return a + b;
+      default:
+        return a - b; // must be SUB
+    }
+  }
+
+  /** @return The variables, in the order `evaluate(int...)` takes their values. */
+  public List<String> getVariables() {
+    return variables;
+  }
+
+  /**
+   * Evaluates the expression.
+   * @param values The value of each variable, in the order of `getVariables()`.
+   * @return The expression's value.
+   * @throws IllegalArgumentException If there are fewer values than variables.
+   * @throws ArithmeticException On division by zero.
+   */
+  public int evaluate(int... values) {
+    if (values.length < variables.size()) {
+      throw new IllegalArgumentException(
+          "expected values for " + variables + " but got " + values.length);
+    }
+    int[] stack = new int[maxDepth];
+    int sp = 0;
+    for (int i = 0; i < ops.length; i++) {
+      switch (ops[i]) {
+        case CONST:
+          stack[sp++] = args[i];
+          break;
+        case VAR:
+          stack[sp++] = values[args[i]];
+          break;
+        case MUL:
+          sp--;
+          stack[sp - 1] *= stack[sp];
+          break;
+        case DIV:
+          sp--;
+          stack[sp - 1] /= stack[sp];
+          break;
+        case ADD:
+          sp--;
+          stack[sp - 1] += stack[sp];
+          break;
+        default: // SUB
+          sp--;
+          stack[sp - 1] -= stack[sp];
+      }
+    }
+    return stack[0];
+  }
+
+  /**
+   * Evaluates the expression with variables looked up by name; missing ones are 0, as they are to
+   * the calculators.
+   * @param bindings Variable values.
+   * @return The expression's value.
+   * @throws ArithmeticException On division by zero.
+   */
+  public int evaluate(Map<String, Integer> bindings) {
+    int[] values = new int[variables.size()];
+    for (int i = 0; i < values.length; i++) {
+      Integer v = bindings.get(variables.get(i));
+      if (v != null) values[i] = v;
+    }
+    return evaluate(values);
+  }
+
+  /**
+   * Reads variable values from command-line arguments, for the compilers' drivers.
+   * @param args Arguments of the form `name=value`.
+   * @param from Index of the first.
+   * @return The values by name.
+   * @throws IllegalArgumentException If an argument isn't of that form.
+   */
+  public static Map<String, Integer> parseBindings(String[] args, int from) {
+    Map<String, Integer> bindings = new HashMap<String, Integer>();
+    for (int i = from; i < args.length; i++) {
+      int eq = args[i].indexOf('=');
+      if (eq < 0) throw new IllegalArgumentException("expected name=value: " + args[i]);
+      bindings.put(args[i].substring(0, eq), Integer.valueOf(args[i].substring(eq + 1)));
+    }
+    return bindings;
+  }
+
+  /** @return The source text. */
+  @Override
+  public String toString() {
+    return text;
+  }
+}
@@ -0,0 +1,77 @@
+package common;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of prepared expressions keyed by their text, evicting the least recently used
+ * when full. Safe to share among threads; compiling happens outside the lock, so two threads
+ * missing on the same text at once may both compile it, and one result wins.
+ */
+public class PreparedExprCache {
+  /** Parses expression text for the cache */
+  public interface Compiler {
+    /** @throws IllegalArgumentException If the text is not a valid expression. */
+    PreparedExpr compile(String text);
+  }
+
+  final Compiler compiler;
+  final int maxEntries;
+  /** Text to expression, least recently used first */
+  final Map<String, PreparedExpr> entries;
+  long hits;
+  long misses;
+
+  /**
+   * @param compiler Parses text on a miss, e.g. {@code LabeledExprCompiler::compile}.
+   * @param maxEntries How many expressions to keep.
+   */
+  public PreparedExprCache(Compiler compiler, int maxEntries) {
+    if (maxEntries < 1) throw new IllegalArgumentException("cache must hold an entry");
+    this.compiler = compiler;
+    this.maxEntries = maxEntries;
+    this.entries =
+        new LinkedHashMap<String, PreparedExpr>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, PreparedExpr> eldest) {
+            return size() > PreparedExprCache.this.maxEntries;
+          }
+        };
+  }
+
+  /**
+   * Returns the expression for some text, compiling it on a miss.
+   * @param text Expression text.
+   * @return The prepared expression.
+   * @throws IllegalArgumentException If the text is not a valid expression.
+   */
+  public PreparedExpr get(String text) {
+    synchronized (this) {
+      PreparedExpr expr = entries.get(text); // access moves it to the end of the LRU order
+      if (expr != null) {
+        hits++;
+        return expr;
+      }
+      misses++;
+    }
+    PreparedExpr expr = compiler.compile(text);
+    synchronized (this) {
+      PreparedExpr raced = entries.get(text);
+      if (raced != null) return raced;
+      entries.put(text, expr);
+    }
+    return expr;
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+}
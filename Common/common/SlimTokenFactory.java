@@ -0,0 +1,48 @@
+package common;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.TokenFactory;
+import org.antlr.v4.runtime.TokenSource;
+import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.misc.Pair;
+
+/** Creates `SlimToken`s; install it with `Lexer.setTokenFactory`. */
+public class SlimTokenFactory implements TokenFactory<SlimToken> {
+  static final Pair<TokenSource, CharStream> NO_SOURCE =
+      new Pair<TokenSource, CharStream>(null, null);
+
+  final boolean copyText;
+
+  /**
+   * @param copyText Whether tokens must copy their text when created, as they must when the input
+   *     is an `UnbufferedCharStream` that lets go of characters once they are lexed.
+   */
+  public SlimTokenFactory(boolean copyText) {
+    this.copyText = copyText;
+  }
+
+  @Override
+  public SlimToken create(
+      Pair<TokenSource, CharStream> source,
+      int type,
+      String text,
+      int channel,
+      int start,
+      int stop,
+      int line,
+      int charPositionInLine) {
+    if (text == null && copyText && source.b != null) {
+      text = source.b.getText(Interval.of(start, stop));
+    }
+    if (text != null) {
+      return new SlimToken.WithText(
+          source, type, text, channel, start, stop, line, charPositionInLine);
+    }
+    return new SlimToken(source, type, channel, start, stop, line, charPositionInLine);
+  }
+
+  @Override
+  public SlimToken create(int type, String text) {
+    return new SlimToken.WithText(NO_SOURCE, type, text, 0, -1, -1, 0, -1);
+  }
+}